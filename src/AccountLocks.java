@@ -0,0 +1,79 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+/**
+ * Fixed array of lock stripes keyed by account ID. Trades on different accounts usually take
+ * different stripes and run in parallel; trades on the same account always take the same stripe and run one at a time.
+ */
+public class AccountLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    /**
+     * Creates a lock table with at least the given number of stripes, rounded up to a power of two.
+     *
+     * @param stripeCount The minimum number of stripes.
+     */
+    public AccountLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+    /**
+     * Gets the lock that guards the given account.
+     *
+     * @param accountId The ID of the account.
+     * @return          The account's stripe lock.
+     */
+    public ReentrantLock lockFor(int accountId) {
+        return stripes[stripeOf(accountId)];
+    }
+    /**
+     * Locks the stripes of every given account in ascending stripe order, so two callers locking
+     * overlapping account sets cannot deadlock.
+     *
+     * @param accountIds The accounts to lock.
+     * @return           The locked stripe indexes, to pass to {@link #unlockAll(int[])}.
+     */
+    public int[] lockAll(Collection<Integer> accountIds) {
+        int[] indexes = accountIds.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                locked++;
+            }
+        } finally {
+            if (locked < indexes.length) {
+                unlockAll(Arrays.copyOf(indexes, locked));
+            }
+        }
+        return indexes;
+    }
+    /**
+     * Releases stripes taken by {@link #lockAll(Collection)}.
+     *
+     * @param indexes The stripe indexes returned by lockAll.
+     */
+    public void unlockAll(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+    /**
+     * Gets the number of stripes.
+     *
+     * @return The stripe count.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int stripeOf(int accountId) {
+        // Spread sequential IDs so neighbouring accounts do not share a stripe pattern
+        int h = accountId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
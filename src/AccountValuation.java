@@ -0,0 +1,82 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+/**
+ * Values accounts with one aggregate query over Accounts, AccountStocks and stocks,
+ * so the cost of a valuation is one round-trip however many positions the account holds.
+ * Each holding is rounded to the cent in the database before it is summed, which gives the same
+ * total as pricing the holdings one by one.
+ */
+public class AccountValuation {
+    // The server rejects prepared statements with more placeholders than this
+    static final int MAX_PARAMETERS = 65_535;
+    // Cash, holdings value and unpriced-holding count, to be grouped by account
+    static final String VALUE_EXPRESSIONS = "a.cashBalance, " +
+            "COALESCE(SUM(ROUND(s.currentPrice * p.sharesOwned, 2)), 0) AS holdingsValue, " +
+            "COALESCE(SUM(p.stockSymbol IS NOT NULL AND s.currentPrice IS NULL), 0) AS unpriced " +
+            "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID " +
+            "LEFT JOIN stocks s ON s.stockSymbol = p.stockSymbol ";
+    static final String VALUE_COLUMNS = "SELECT a.accountID, " + VALUE_EXPRESSIONS;
+    static final String VALUE_SQL = VALUE_COLUMNS + "WHERE a.accountID = ? GROUP BY a.accountID, a.cashBalance";
+    /**
+     * Values one account: its cash plus the market value of every position.
+     *
+     * @param accountId The account to value.
+     * @param connect   The database connection.
+     * @return          The value in cents, or empty if the account does not exist.
+     * @throws SQLException If a database access error occurs, or the account holds a stock that has no price.
+     */
+    static OptionalLong value(int accountId, Connection connect) throws SQLException {
+        PreparedStatement pstmt = StatementCache.prepare(connect, VALUE_SQL);
+        pstmt.setInt(1, accountId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? OptionalLong.of(readValue(rs)) : OptionalLong.empty();
+        }
+    }
+    /**
+     * Values many accounts, streaming the aggregated rows rather than buffering them.
+     * Duplicate IDs are valued once.
+     *
+     * @param accountIds The accounts to value.
+     * @param connect    The database connection.
+     * @return           The value in cents of each account that exists; missing accounts are absent.
+     * @throws SQLException If a database access error occurs, or an account holds a stock that has no price.
+     */
+    static Map<Integer, Long> values(Collection<Integer> accountIds, Connection connect) throws SQLException {
+        Map<Integer, Long> values = new HashMap<>(accountIds.size() * 2);
+        List<Integer> pending = new ArrayList<>(new LinkedHashSet<>(accountIds));
+        for (int from = 0; from < pending.size(); from += MAX_PARAMETERS) {
+            List<Integer> slice = pending.subList(from, Math.min(pending.size(), from + MAX_PARAMETERS));
+            String sql = VALUE_COLUMNS + "WHERE a.accountID IN (" + TradeBatchProcessor.placeholders(slice.size()) + ") " +
+                    "GROUP BY a.accountID, a.cashBalance";
+            try (PreparedStatement pstmt = connect.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                // Connector/J streams rows one at a time instead of reading the whole result into memory
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+                for (int i = 0; i < slice.size(); i++) {
+                    pstmt.setInt(i + 1, slice.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        values.put(rs.getInt("accountID"), readValue(rs));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static long readValue(ResultSet rs) throws SQLException {
+        if (rs.getLong("unpriced") > 0) {
+            throw new SQLException("Account " + rs.getInt("accountID") + " holds a stock with no price");
+        }
+        return Money.read(rs, "cashBalance") + Money.read(rs, "holdingsValue");
+    }
+}
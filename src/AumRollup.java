@@ -0,0 +1,206 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+/**
+ * In-memory roll-up of assets under management: the value of every account, and its totals per advisor,
+ * per client and for the whole firm. It is built in one streamed pass over holdings grouped by account,
+ * and then kept current by the deltas the {@link ValuationCache} reports whenever a trade, a cash movement,
+ * a dividend or a price change alters a cached account's value. Advisors are also kept in a set sorted by AUM,
+ * so a top-N query reads the first N entries instead of sorting every advisor.
+ *
+ * Deltas add up in any order, so they need no lock stripes and never touch the database. An account the
+ * cache cannot value, for example because it holds a stock with no price, keeps the value it was loaded
+ * with; {@link #load(Connection)} rebuilds the roll-up exactly.
+ */
+public class AumRollup {
+    static final String ROLLUP_COLUMNS = "SELECT a.accountID, a.advisorID, a.clientID, " + AccountValuation.VALUE_EXPRESSIONS;
+    static final String ROLLUP_GROUP = "GROUP BY a.accountID, a.advisorID, a.clientID, a.cashBalance";
+
+    private static final Map<Integer, AccountAum> ACCOUNTS = new HashMap<>();
+    private static final Map<Integer, Long> ADVISORS = new HashMap<>();
+    private static final Map<Integer, Long> CLIENTS = new HashMap<>();
+    // Highest AUM first; ties broken by advisor ID so every advisor has exactly one entry
+    private static final TreeSet<AdvisorAum> RANKING = new TreeSet<>(
+            Comparator.comparingLong((AdvisorAum a) -> a.value).reversed().thenComparingInt(a -> a.advisorId));
+    private static long firmValue;
+    /**
+     * Rebuilds the roll-up from the database.
+     *
+     * @param connect The database connection.
+     * @return        The number of accounts rolled up.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        Map<Integer, AccountAum> loaded = new HashMap<>();
+        try (PreparedStatement pstmt = connect.prepareStatement(ROLLUP_COLUMNS + ROLLUP_GROUP,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    loaded.put(rs.getInt("accountID"), readAccount(rs));
+                }
+            }
+        }
+        synchronized (AumRollup.class) {
+            ACCOUNTS.clear();
+            ADVISORS.clear();
+            CLIENTS.clear();
+            RANKING.clear();
+            firmValue = 0;
+            for (Map.Entry<Integer, AccountAum> entry : loaded.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+        return loaded.size();
+    }
+    /**
+     * Records a newly created account, which starts with no value.
+     *
+     * @param accountId The new account's ID.
+     * @param clientId  The account's client.
+     * @param advisorId The account's advisor.
+     */
+    static synchronized void accountCreated(int accountId, int clientId, int advisorId) {
+        if (!ACCOUNTS.containsKey(accountId)) {
+            put(accountId, new AccountAum(advisorId, clientId, 0));
+        }
+    }
+    /**
+     * Adds a committed change to an account's value, as reported by the {@link ValuationCache}.
+     *
+     * @param accountId  The account.
+     * @param deltaCents The change in cents.
+     */
+    static synchronized void adjust(int accountId, long deltaCents) {
+        AccountAum account = ACCOUNTS.get(accountId);
+        if (account != null && deltaCents != 0) {
+            put(accountId, new AccountAum(account.advisorId, account.clientId, account.value + deltaCents));
+        }
+    }
+    /**
+     * Adds the changes in value of many accounts at once, such as those of a price change, under one lock.
+     *
+     * @param accountIds The accounts.
+     * @param deltas     The change in cents of each account.
+     * @param count      The number of entries to apply.
+     */
+    static synchronized void adjust(int[] accountIds, long[] deltas, int count) {
+        for (int i = 0; i < count; i++) {
+            adjust(accountIds[i], deltas[i]);
+        }
+    }
+    /**
+     * Moves an account, with its value, to another advisor.
+     *
+     * @param accountId    The account.
+     * @param newAdvisorId The account's new advisor.
+     */
+    static synchronized void advisorChanged(int accountId, int newAdvisorId) {
+        AccountAum account = ACCOUNTS.get(accountId);
+        if (account != null && account.advisorId != newAdvisorId) {
+            put(accountId, new AccountAum(newAdvisorId, account.clientId, account.value));
+        }
+    }
+    /**
+     * Gets the total value of the firm's accounts.
+     *
+     * @return The value in cents.
+     */
+    static synchronized long firmValue() {
+        return firmValue;
+    }
+    /**
+     * Gets the total value of an advisor's accounts.
+     *
+     * @param advisorId The advisor.
+     * @return          The value in cents, or 0 for an advisor with no accounts.
+     */
+    static synchronized long advisorValue(int advisorId) {
+        return ADVISORS.getOrDefault(advisorId, 0L);
+    }
+    /**
+     * Gets the total value of a client's accounts.
+     *
+     * @param clientId The client.
+     * @return         The value in cents, or 0 for a client with no accounts.
+     */
+    static synchronized long clientValue(int clientId) {
+        return CLIENTS.getOrDefault(clientId, 0L);
+    }
+    /**
+     * Gets the advisors with the most assets under management.
+     *
+     * @param n The number of advisors to return.
+     * @return  Up to n advisor IDs mapped to their AUM in cents, highest first.
+     */
+    static synchronized Map<Integer, Long> topAdvisors(int n) {
+        Map<Integer, Long> top = new LinkedHashMap<>();
+        for (AdvisorAum advisor : RANKING) {
+            if (top.size() >= n) {
+                break;
+            }
+            top.put(advisor.advisorId, advisor.value);
+        }
+        return top;
+    }
+    /**
+     * Gets the number of accounts in the roll-up.
+     *
+     * @return The account count.
+     */
+    static synchronized int size() {
+        return ACCOUNTS.size();
+    }
+
+    private static AccountAum readAccount(ResultSet rs) throws SQLException {
+        // A holding with no price adds nothing, rather than failing the whole roll-up
+        return new AccountAum(rs.getInt("advisorID"), rs.getInt("clientID"),
+                Money.read(rs, "cashBalance") + Money.read(rs, "holdingsValue"));
+    }
+
+    // Replaces an account's entry and moves the difference into its totals; the caller holds the class lock
+    private static void put(int accountId, AccountAum account) {
+        AccountAum previous = ACCOUNTS.put(accountId, account);
+        if (previous != null) {
+            addToTotals(previous.advisorId, previous.clientId, -previous.value);
+        }
+        addToTotals(account.advisorId, account.clientId, account.value);
+    }
+
+    private static void addToTotals(int advisorId, int clientId, long delta) {
+        long advisorBefore = ADVISORS.getOrDefault(advisorId, 0L);
+        RANKING.remove(new AdvisorAum(advisorId, advisorBefore));
+        ADVISORS.put(advisorId, advisorBefore + delta);
+        RANKING.add(new AdvisorAum(advisorId, advisorBefore + delta));
+        CLIENTS.merge(clientId, delta, Long::sum);
+        firmValue += delta;
+    }
+
+    private static class AccountAum {
+        final int advisorId;
+        final int clientId;
+        final long value;
+
+        AccountAum(int advisorId, int clientId, long value) {
+            this.advisorId = advisorId;
+            this.clientId = clientId;
+            this.value = value;
+        }
+    }
+
+    private static class AdvisorAum {
+        final int advisorId;
+        final long value;
+
+        AdvisorAum(int advisorId, long value) {
+            this.advisorId = advisorId;
+            this.value = value;
+        }
+    }
+}
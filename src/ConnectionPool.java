@@ -0,0 +1,247 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * Bounded, thread-safe pool of database connections.
+ * Callers borrow a connection with {@link #lease()} and hand it back by closing the lease,
+ * so each caller has a connection of its own for the length of its work.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final BlockingQueue<Connection> idle;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private volatile boolean closed;
+    /**
+     * Creates a pool that opens connections lazily, up to the given size.
+     *
+     * @param url                      The URL of the database.
+     * @param user                     The username for authentication.
+     * @param pass                     The password for authentication.
+     * @param maxSize                  The maximum number of connections leased at once.
+     * @param borrowTimeoutMillis      How long {@link #lease()} waits for a free connection.
+     * @param validationTimeoutSeconds The timeout used when validating an idle connection on borrow.
+     */
+    public ConnectionPool(String url, String user, String pass, int maxSize, long borrowTimeoutMillis, int validationTimeoutSeconds) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.permits = new Semaphore(maxSize, true);
+    }
+    /**
+     * Borrows a connection from the pool, waiting up to the borrow timeout for one to become free.
+     * Idle connections are validated before they are handed out and replaced if they have gone stale.
+     *
+     * @return A lease that must be closed to return the connection to the pool.
+     * @throws RuntimeException If no connection becomes free in time or a new connection cannot be opened.
+     */
+    public Lease lease() {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            Connection connection = idle.poll();
+            while (connection != null && !isUsable(connection)) {
+                discard(connection);
+                connection = idle.poll();
+            }
+            if (connection == null) {
+                connection = DBConnection.getConnection(url, user, pass);
+            }
+            active.incrementAndGet();
+            return new Lease(connection);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    /**
+     * Closes every idle connection and refuses further leases.
+     * Connections still leased are closed as they are returned.
+     */
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+    /**
+     * Gets the maximum number of connections that can be leased at once.
+     *
+     * @return The pool size.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+    /**
+     * Gets the number of connections currently leased.
+     *
+     * @return The active connection count.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+    /**
+     * Gets the number of open connections waiting in the pool.
+     *
+     * @return The idle connection count.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+    /**
+     * Gets the total number of leases handed out since the pool was created.
+     *
+     * @return The lease count.
+     */
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+    /**
+     * Gets the average time callers waited for a connection.
+     *
+     * @return The average wait in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long leases = leaseCount.get();
+        return leases == 0 ? 0.0 : totalWaitNanos.get() / (leases * 1_000_000.0);
+    }
+    /**
+     * Gets the longest time a caller waited for a connection.
+     *
+     * @return The maximum wait in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+    /**
+     * Gets the number of connections closed because they failed validation or were returned broken.
+     *
+     * @return The discarded connection count.
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[max=%d, active=%d, idle=%d, leases=%d, avgWait=%.3fms, maxWait=%.3fms, discarded=%d]",
+                maxSize, getActiveCount(), getIdleCount(), getLeaseCount(), getAverageWaitMillis(), getMaxWaitMillis(), getDiscardedCount());
+    }
+
+    private void recordWait(long waitNanos) {
+        leaseCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        active.decrementAndGet();
+        try {
+            if (closed || !resetState(connection) || !idle.offer(connection)) {
+                discard(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Rolls back anything the borrower left open so the next lease starts in auto-commit mode
+    private boolean resetState(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Discarding pooled connection: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void discard(Connection connection) {
+        discarded.incrementAndGet();
+        StatementCache.release(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("Failed to close pooled connection: " + e.getMessage());
+        }
+    }
+    /**
+     * A borrowed connection. Closing the lease returns the connection to the pool;
+     * the connection itself must not be closed by the borrower.
+     */
+    public class Lease implements AutoCloseable {
+        private Connection connection;
+
+        private Lease(Connection connection) {
+            this.connection = connection;
+        }
+        /**
+         * Gets the leased connection.
+         *
+         * @return The connection, valid until the lease is closed.
+         */
+        public Connection getConnection() {
+            if (connection == null) {
+                throw new IllegalStateException("Lease has already been returned");
+            }
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (connection != null) {
+                Connection returned = connection;
+                connection = null;
+                release(returned);
+            }
+        }
+    }
+}
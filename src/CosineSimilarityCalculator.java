@@ -36,4 +36,35 @@ public class CosineSimilarityCalculator {
             return 0.0; // Return 0 if one of the norms is zero
         }
     }
+    /**
+     * Calculates the cosine similarity between two vectors indexed by {@link SymbolDictionary} index.
+     * A shorter vector is treated as having zeros for the stocks it does not cover.
+     *
+     * @param vectorA The first vector of shares owned per stock index.
+     * @param vectorB The second vector of shares owned per stock index.
+     * @return The cosine similarity between the two input vectors.
+     */
+    public static double calculateCosineSimilarity(double[] vectorA, double[] vectorB) {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        int common = Math.min(vectorA.length, vectorB.length);
+        for (int i = 0; i < common; i++) {
+            dotProduct += vectorA[i] * vectorB[i];
+            normA += vectorA[i] * vectorA[i];
+            normB += vectorB[i] * vectorB[i];
+        }
+        for (int i = common; i < vectorA.length; i++) {
+            normA += vectorA[i] * vectorA[i];
+        }
+        for (int i = common; i < vectorB.length; i++) {
+            normB += vectorB[i] * vectorB[i];
+        }
+
+        if (normA != 0 && normB != 0) {
+            return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        } else {
+            return 0.0;
+        }
+    }
 }
\ No newline at end of file
@@ -8,6 +8,17 @@ public class DBConfig {
     private String username;
     private String password;
     private String dbUrl;
+    private int poolSize;
+    private long poolTimeoutMillis;
+    private int tradeBatchSize;
+    private int tradeCommitInterval;
+    private int lockStripes;
+    private int tradeQueueCapacity;
+    private String tradeJournalDir;
+    private int tradeJournalSegmentRecords;
+    private String priceHistoryDir;
+    private long dividendCalendarPollMillis;
+    private long fractionalLedgerFlushMillis;
     /**
      * Constructs a new DBConfig instance using the specified property file.
      *
@@ -21,6 +32,17 @@ public class DBConfig {
             this.username = identity.getProperty("username");
             this.password = identity.getProperty("password");
             this.dbUrl = identity.getProperty("dbUrl", "jdbc:mysql://db.cs.dal.ca:3306/vedant");
+            this.poolSize = Integer.parseInt(identity.getProperty("poolSize", String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+            this.poolTimeoutMillis = Long.parseLong(identity.getProperty("poolTimeoutMillis", "30000"));
+            this.tradeBatchSize = Integer.parseInt(identity.getProperty("tradeBatchSize", "500"));
+            this.tradeCommitInterval = Integer.parseInt(identity.getProperty("tradeCommitInterval", "5000"));
+            this.lockStripes = Integer.parseInt(identity.getProperty("lockStripes", "256"));
+            this.tradeQueueCapacity = Integer.parseInt(identity.getProperty("tradeQueueCapacity", "10000"));
+            this.tradeJournalDir = identity.getProperty("tradeJournalDir", "");
+            this.tradeJournalSegmentRecords = Integer.parseInt(identity.getProperty("tradeJournalSegmentRecords", "65536"));
+            this.priceHistoryDir = identity.getProperty("priceHistoryDir", "");
+            this.dividendCalendarPollMillis = Long.parseLong(identity.getProperty("dividendCalendarPollMillis", "60000"));
+            this.fractionalLedgerFlushMillis = Long.parseLong(identity.getProperty("fractionalLedgerFlushMillis", "1000"));
         } catch (Exception e) {
             throw new RuntimeException("Loading database configuration failed", e);
         }
@@ -49,4 +71,92 @@ public class DBConfig {
     public String getDbUrl() {
         return dbUrl;
     }
+    /**
+     * Gets the maximum number of pooled database connections.
+     *
+     * @return The connection pool size.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+    /**
+     * Gets how long a caller waits for a pooled connection before giving up.
+     *
+     * @return The borrow timeout in milliseconds.
+     */
+    public long getPoolTimeoutMillis() {
+        return poolTimeoutMillis;
+    }
+    /**
+     * Gets the number of rows sent to the database per JDBC batch by the batch trade API.
+     *
+     * @return The trade batch size.
+     */
+    public int getTradeBatchSize() {
+        return tradeBatchSize;
+    }
+    /**
+     * Gets the maximum number of orders the batch trade API applies per transaction.
+     *
+     * @return The trade commit interval.
+     */
+    public int getTradeCommitInterval() {
+        return tradeCommitInterval;
+    }
+    /**
+     * Gets the number of lock stripes used to serialise trades on the same account.
+     *
+     * @return The lock stripe count.
+     */
+    public int getLockStripes() {
+        return lockStripes;
+    }
+    /**
+     * Gets the maximum number of asynchronous trades queued or executing at once.
+     *
+     * @return The trade queue capacity.
+     */
+    public int getTradeQueueCapacity() {
+        return tradeQueueCapacity;
+    }
+    /**
+     * Gets the directory holding the trade journal segments.
+     *
+     * @return The journal directory, or an empty string when the journal is disabled.
+     */
+    public String getTradeJournalDir() {
+        return tradeJournalDir;
+    }
+    /**
+     * Gets the number of fixed-size records in each trade journal segment file.
+     *
+     * @return The records per journal segment.
+     */
+    public int getTradeJournalSegmentRecords() {
+        return tradeJournalSegmentRecords;
+    }
+    /**
+     * Gets the directory holding the per-stock price history files.
+     *
+     * @return The price history directory, or an empty string when price history is disabled.
+     */
+    public String getPriceHistoryDir() {
+        return priceHistoryDir;
+    }
+    /**
+     * Gets how often the dividend calendar checks for dividends due.
+     *
+     * @return The poll interval in milliseconds, or 0 when the calendar does not run in this process.
+     */
+    public long getDividendCalendarPollMillis() {
+        return dividendCalendarPollMillis;
+    }
+    /**
+     * Gets how often the firm's fractional share ledger is written to the database.
+     *
+     * @return The flush interval in milliseconds.
+     */
+    public long getFractionalLedgerFlushMillis() {
+        return fractionalLedgerFlushMillis;
+    }
 }
@@ -21,4 +21,14 @@ public class DBConnection {
             throw new RuntimeException("Failed to connect to the database", e);
         }
     }
+    /**
+     * Creates a connection pool for the database described by the given configuration.
+     *
+     * @param config The database configuration.
+     * @return A connection pool that opens connections on demand up to the configured size.
+     */
+    public static ConnectionPool createPool(DBConfig config) {
+        return new ConnectionPool(config.getDbUrl(), config.getUsername(), config.getPassword(),
+                config.getPoolSize(), config.getPoolTimeoutMillis(), 2);
+    }
 }
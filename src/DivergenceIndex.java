@@ -0,0 +1,188 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Index of every account's largest sector deviation from its profile, kept sorted by deviation, so that
+ * the divergent accounts at any tolerance are a lookup of the first deviation above it and a read of
+ * every deviation from there on, with no scan.
+ *
+ * The index is built with one {@link DivergenceScan} the first time it is queried. After that, trades mark
+ * their accounts and price changes mark their stocks, and the next query re-scans only the marked accounts
+ * and the holders of the marked stocks. Marks are taken before the re-scan reads anything, and made after
+ * the change commits, so a change is always either in the re-scan or left marked for the next one.
+ */
+public class DivergenceIndex {
+    private static final Map<Integer, Integer> DEVIATIONS = new HashMap<>();
+    // Largest deviation to the accounts with that deviation, in ascending order of deviation
+    private static final TreeMap<Integer, Set<Integer>> BY_DEVIATION = new TreeMap<>();
+    private static final Set<Integer> DIRTY_ACCOUNTS = ConcurrentHashMap.newKeySet();
+    private static final Set<String> DIRTY_STOCKS = ConcurrentHashMap.newKeySet();
+    private static boolean built;
+    private static long buildNanos;
+    private static long lastRefreshNanos;
+    private static long refreshNanos;
+    private static long refreshCount;
+    private static long refreshedAccounts;
+    /**
+     * Finds the accounts whose largest sector deviation is above the tolerance, refreshing the index first.
+     *
+     * @param tolerance The allowed deviation in percentage points.
+     * @param connect   The database connection, used to build or refresh the index.
+     * @return          The IDs of the divergent accounts.
+     * @throws SQLException If a database access error occurs.
+     */
+    static synchronized Set<Integer> divergentAccounts(int tolerance, Connection connect) throws SQLException {
+        refresh(connect);
+        Set<Integer> divergent = new HashSet<>();
+        for (Set<Integer> accounts : BY_DEVIATION.tailMap(tolerance, false).values()) {
+            divergent.addAll(accounts);
+        }
+        return divergent;
+    }
+    /**
+     * Rebuilds the index from a full scan of every account.
+     *
+     * @param connect The database connection.
+     * @return        The number of accounts indexed.
+     * @throws SQLException If a database access error occurs.
+     */
+    static synchronized int rebuild(Connection connect) throws SQLException {
+        long start = System.nanoTime();
+        DIRTY_ACCOUNTS.clear();
+        DIRTY_STOCKS.clear();
+        DEVIATIONS.clear();
+        BY_DEVIATION.clear();
+        built = false;
+        DivergenceScan.scan(connect, DivergenceIndex::put);
+        built = true;
+        buildNanos = System.nanoTime() - start;
+        return DEVIATIONS.size();
+    }
+    /**
+     * Re-scans the accounts marked since the last refresh, or builds the index if it has not been built.
+     *
+     * @param connect The database connection.
+     * @return        The number of accounts re-scanned.
+     * @throws SQLException If a database access error occurs.
+     */
+    static synchronized int refresh(Connection connect) throws SQLException {
+        if (!built) {
+            return rebuild(connect);
+        }
+        if (DIRTY_ACCOUNTS.isEmpty() && DIRTY_STOCKS.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Set<Integer> accounts = drain(DIRTY_ACCOUNTS);
+        Set<String> stocks = drain(DIRTY_STOCKS);
+        int scanned = 0;
+        try {
+            scanned += DivergenceScan.scanAccounts(accounts, connect, DivergenceIndex::put);
+            scanned += DivergenceScan.scanHolders(stocks, connect, DivergenceIndex::put);
+        } catch (SQLException e) {
+            // Keep the marks so the next query retries them
+            DIRTY_ACCOUNTS.addAll(accounts);
+            DIRTY_STOCKS.addAll(stocks);
+            throw e;
+        }
+        lastRefreshNanos = System.nanoTime() - start;
+        refreshNanos += lastRefreshNanos;
+        refreshCount++;
+        refreshedAccounts += scanned;
+        return scanned;
+    }
+    /**
+     * Marks an account whose cash or positions changed, after the change committed.
+     *
+     * @param accountId The account.
+     */
+    static void accountChanged(int accountId) {
+        DIRTY_ACCOUNTS.add(accountId);
+    }
+    /**
+     * Marks a stock whose price changed, after the change committed.
+     *
+     * @param stockSymbol The stock.
+     */
+    static void priceChanged(String stockSymbol) {
+        DIRTY_STOCKS.add(stockSymbol);
+    }
+    /**
+     * Gets the number of accounts in the index.
+     *
+     * @return The account count, or 0 before the index is built.
+     */
+    static synchronized int size() {
+        return DEVIATIONS.size();
+    }
+    /**
+     * Gets the time the last full build took.
+     *
+     * @return The build time in milliseconds, or 0 before the index is built.
+     */
+    static synchronized double getBuildMillis() {
+        return buildNanos / 1_000_000.0;
+    }
+    /**
+     * Gets the time the last incremental refresh took.
+     *
+     * @return The refresh time in milliseconds, or 0 before the first refresh.
+     */
+    static synchronized double getLastRefreshMillis() {
+        return lastRefreshNanos / 1_000_000.0;
+    }
+    /**
+     * Gets the average time an incremental refresh took.
+     *
+     * @return The average refresh time in milliseconds, or 0 before the first refresh.
+     */
+    static synchronized double getAverageRefreshMillis() {
+        return refreshCount == 0 ? 0.0 : refreshNanos / 1_000_000.0 / refreshCount;
+    }
+    /**
+     * Gets the number of incremental refreshes since startup.
+     *
+     * @return The refresh count.
+     */
+    static synchronized long getRefreshCount() {
+        return refreshCount;
+    }
+    /**
+     * Gets the number of accounts re-scanned by incremental refreshes since startup.
+     *
+     * @return The re-scanned account count.
+     */
+    static synchronized long getRefreshedAccountCount() {
+        return refreshedAccounts;
+    }
+
+    private static <T> Set<T> drain(Set<T> marks) {
+        Set<T> drained = new HashSet<>();
+        for (T mark : marks) {
+            marks.remove(mark);
+            drained.add(mark);
+        }
+        return drained;
+    }
+
+    // Moves an account to its new deviation; the caller holds the class lock
+    private static void put(int accountId, int maxDeviation) {
+        Integer previous = DEVIATIONS.put(accountId, maxDeviation);
+        if (previous != null) {
+            if (previous == maxDeviation) {
+                return;
+            }
+            Set<Integer> accounts = BY_DEVIATION.get(previous);
+            accounts.remove(accountId);
+            if (accounts.isEmpty()) {
+                BY_DEVIATION.remove(previous);
+            }
+        }
+        BY_DEVIATION.computeIfAbsent(maxDeviation, k -> new HashSet<>()).add(accountId);
+    }
+}
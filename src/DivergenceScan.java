@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * Finds accounts whose sector weights have drifted from their profile's targets, in one streamed scan of
+ * every account's holdings joined to their sectors and sorted by account. Each account's sector values
+ * are summed into an array indexed by {@link ProfileRegistry} sector ordinal and compared with its profile's
+ * target array in a loop over primitives. The arrays are reused for the next account, so memory depends
+ * on the number of sectors and profiles, not on the number of accounts.
+ *
+ * Profiles defined by another process are registered from the database before each scan starts.
+ * Weights match {@link InvestmentFirm#profileSectorWeights(int)}: each sector's value as a rounded
+ * percentage of the account's holdings plus cash, with cash weighed as the "Cash" sector.
+ */
+public class DivergenceScan {
+    static final String HOLDINGS_COLUMNS = "SELECT a.accountID, a.profileType, a.cashBalance, s.sectorID, s.currentPrice, p.sharesOwned " +
+            "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID " +
+            "LEFT JOIN stocks s ON s.stockSymbol = p.stockSymbol ";
+    static final String HOLDINGS_ORDER = "ORDER BY a.accountID";
+
+    /**
+     * Receives each account's largest deviation from its profile, in account order.
+     */
+    interface DeviationConsumer {
+        void accept(int accountId, int maxDeviation);
+    }
+    /**
+     * Computes every account's largest absolute deviation, in percentage points, between a sector weight and
+     * its profile's target. Cash is always compared, against a target of 0 when the profile sets none.
+     *
+     * @param connect  The database connection.
+     * @param consumer Receives each account's deviation as soon as its rows have been read.
+     * @return         The number of accounts scanned.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int scan(Connection connect, DeviationConsumer consumer) throws SQLException {
+        ProfileRegistry.loadMissing(connect);
+        try (PreparedStatement pstmt = connect.prepareStatement(HOLDINGS_COLUMNS + HOLDINGS_ORDER,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            return scan(pstmt, consumer);
+        }
+    }
+    /**
+     * Computes the deviation of the given accounts, as {@link #scan(Connection, DeviationConsumer)} does.
+     *
+     * @param accountIds The accounts to scan; accounts that do not exist are skipped.
+     * @param connect    The database connection.
+     * @param consumer   Receives each account's deviation.
+     * @return           The number of accounts scanned.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int scanAccounts(Collection<Integer> accountIds, Connection connect, DeviationConsumer consumer) throws SQLException {
+        List<Integer> ids = new ArrayList<>(accountIds);
+        ProfileRegistry.loadMissing(connect);
+        int accounts = 0;
+        for (int from = 0; from < ids.size(); from += AccountValuation.MAX_PARAMETERS) {
+            List<Integer> slice = ids.subList(from, Math.min(ids.size(), from + AccountValuation.MAX_PARAMETERS));
+            String sql = HOLDINGS_COLUMNS + "WHERE a.accountID IN (" + TradeBatchProcessor.placeholders(slice.size()) + ") " + HOLDINGS_ORDER;
+            try (PreparedStatement pstmt = connect.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                for (int i = 0; i < slice.size(); i++) {
+                    pstmt.setInt(i + 1, slice.get(i));
+                }
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+                accounts += scan(pstmt, consumer);
+            }
+        }
+        return accounts;
+    }
+    /**
+     * Computes the deviation of every account holding any of the given stocks, as {@link #scan(Connection, DeviationConsumer)} does.
+     *
+     * @param stockSymbols The stocks.
+     * @param connect      The database connection.
+     * @param consumer     Receives each account's deviation.
+     * @return             The number of accounts scanned.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int scanHolders(Collection<String> stockSymbols, Connection connect, DeviationConsumer consumer) throws SQLException {
+        List<String> symbols = new ArrayList<>(stockSymbols);
+        ProfileRegistry.loadMissing(connect);
+        int accounts = 0;
+        for (int from = 0; from < symbols.size(); from += AccountValuation.MAX_PARAMETERS) {
+            List<String> slice = symbols.subList(from, Math.min(symbols.size(), from + AccountValuation.MAX_PARAMETERS));
+            String sql = HOLDINGS_COLUMNS + "WHERE a.accountID IN (SELECT accountID FROM AccountStocks WHERE stockSymbol IN ("
+                    + TradeBatchProcessor.placeholders(slice.size()) + ")) " + HOLDINGS_ORDER;
+            try (PreparedStatement pstmt = connect.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                for (int i = 0; i < slice.size(); i++) {
+                    pstmt.setString(i + 1, slice.get(i));
+                }
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+                accounts += scan(pstmt, consumer);
+            }
+        }
+        return accounts;
+    }
+
+    // Streams holdings rows sorted by account and reports each account once its last row has been read.
+    // The connection is busy until the stream ends, so profiles defined by another process are registered before it starts.
+    private static int scan(PreparedStatement pstmt, DeviationConsumer consumer) throws SQLException {
+        // Sectors registered after the scan starts can be held but not yet targeted; they only add to the total
+        int sectors = ProfileRegistry.sectorCount();
+        int cashOrdinal = ProfileRegistry.cashOrdinal() >= 0 ? ProfileRegistry.cashOrdinal() : sectors;
+        int[] noTargets = targets(null, sectors, cashOrdinal);
+        Map<String, int[]> targets = new HashMap<>();
+
+        long[] values = new long[Math.max(sectors, cashOrdinal + 1)];
+        int accounts = 0;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            int accountId = 0;
+            int[] profile = noTargets;
+            long holdings = 0;
+            long cash = 0;
+            while (rs.next()) {
+                int rowAccountId = rs.getInt("accountID");
+                if (accounts == 0 || rowAccountId != accountId) {
+                    if (accounts > 0) {
+                        consumer.accept(accountId, deviation(values, holdings, cash, cashOrdinal, profile));
+                    }
+                    accounts++;
+                    accountId = rowAccountId;
+                    profile = targets.computeIfAbsent(rs.getString("profileType"),
+                            name -> targets(ProfileRegistry.profile(name), sectors, cashOrdinal));
+                    cash = Money.read(rs, "cashBalance");
+                    holdings = 0;
+                    Arrays.fill(values, 0);
+                }
+                int sectorId = rs.getInt("sectorID");
+                if (!rs.wasNull()) {
+                    long value = Money.times(Money.read(rs, "currentPrice"), Quantity.read(rs, "sharesOwned"));
+                    int ordinal = ProfileRegistry.ordinalOf(sectorId);
+                    if (ordinal >= 0 && ordinal < sectors) {
+                        values[ordinal] += value;
+                    }
+                    holdings += value;
+                }
+            }
+            if (accounts > 0) {
+                consumer.accept(accountId, deviation(values, holdings, cash, cashOrdinal, profile));
+            }
+        }
+        return accounts;
+    }
+
+    // A profile's targets over the scan's sectors, with cash always compared, against 0 if the profile sets none
+    private static int[] targets(ProfileRegistry.Profile profile, int sectors, int cashOrdinal) {
+        int[] targets = new int[Math.max(sectors, cashOrdinal + 1)];
+        for (int ordinal = 0; ordinal < targets.length; ordinal++) {
+            targets[ordinal] = profile == null ? ProfileRegistry.NO_TARGET : profile.target(ordinal);
+        }
+        if (targets[cashOrdinal] == ProfileRegistry.NO_TARGET) {
+            targets[cashOrdinal] = 0;
+        }
+        return targets;
+    }
+
+    // The largest deviation over the sectors the profile names and cash
+    private static int deviation(long[] values, long holdings, long cash, int cashOrdinal, int[] targets) {
+        // As in profileSectorWeights, cash stands in for the Cash sector's value but holdings in it still count
+        values[cashOrdinal] = cash;
+        long total = holdings + cash;
+        int max = 0;
+        for (int ordinal = 0; ordinal < targets.length; ordinal++) {
+            if (targets[ordinal] != ProfileRegistry.NO_TARGET) {
+                int weight = (int) Math.round(values[ordinal] * 100.0 / total);
+                max = Math.max(max, Math.abs(weight - targets[ordinal]));
+            }
+        }
+        return max;
+    }
+}
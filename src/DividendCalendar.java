@@ -0,0 +1,360 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+/**
+ * Declared dividends and the background thread that pays them on their pay date.
+ * A dividend is DECLARED until its record date comes, RECORDED once the shares every holder owns are copied to
+ * DividendEntitlements, PAYING from when it is claimed on its pay date, with its reinvestment price fixed at that
+ * moment, and PAID once every entitled account is paid and the firm's fractional shares are settled. It is marked
+ * settled by the {@link FirmFractionalLedger} flush that writes the firm's shares. Shares bought
+ * or sold between the record date and the pay date therefore do not change who is paid or how much.
+ *
+ * Dividends on different stocks that fall due together are paid in one {@link DividendEngine} pass over
+ * their entitlements, so each account is read and credited once per chunk however many of them it is paid.
+ * Every chunk advances the checkpoint of each dividend in the pass in the same transaction, so a pass that
+ * stops midway is picked up after the last chunk committed, by this process or any other.
+ */
+public class DividendCalendar implements Runnable {
+    static final String DECLARED = "DECLARED";
+    static final String RECORDED = "RECORDED";
+    static final String PAYING = "PAYING";
+    static final String PAID = "PAID";
+    static final String DECLARE_SQL = "INSERT INTO DividendCalendar (stockSymbol, rateMicros, recordDate, payDate) VALUES (?, ?, ?, ?)";
+    static final String RECORD_DUE_SQL = "SELECT dividendID, stockSymbol FROM DividendCalendar WHERE status = '" + DECLARED + "' AND recordDate <= ? ORDER BY dividendID";
+    static final String RECORD_SQL = "UPDATE DividendCalendar SET status = '" + RECORDED + "' WHERE dividendID = ? AND status = '" + DECLARED + "'";
+    static final String ENTITLE_SQL = "INSERT INTO DividendEntitlements (dividendID, accountID, sharesEntitled) " +
+            "SELECT ?, accountID, sharesOwned FROM AccountStocks WHERE stockSymbol = ? AND sharesOwned > 0";
+    static final String DUE_SQL = "SELECT dividendID, stockSymbol FROM DividendCalendar WHERE status = '" + RECORDED + "' AND payDate <= ? ORDER BY dividendID";
+    static final String CLAIM_SQL = "UPDATE DividendCalendar SET status = '" + PAYING + "', priceCents = ? WHERE dividendID = ? AND status = '" + RECORDED + "'";
+    static final String PAYING_SQL = "SELECT dividendID, stockSymbol, rateMicros, priceCents, paidThrough FROM DividendCalendar " +
+            "WHERE status = '" + PAYING + "' ORDER BY payDate, dividendID";
+    // Advances only from the checkpoint the pass started at, so two processes never pay the same chunk
+    static final String CHECKPOINT_SQL = "UPDATE DividendCalendar SET paidThrough = ?, accounts = accounts + ?, fractionalUnits = fractionalUnits + ? " +
+            "WHERE dividendID = ? AND status = '" + PAYING + "' AND paidThrough = ?";
+    static final String TOTALS_SQL = "SELECT fractionalUnits FROM DividendCalendar WHERE dividendID = ?";
+    static final String PAID_SQL = "UPDATE DividendCalendar SET status = '" + PAID + "', paidAt = CURRENT_TIMESTAMP WHERE dividendID = ? AND status = '" + PAYING + "'";
+    static final String SETTLED_SQL = "UPDATE DividendCalendar SET ledgerSettled = TRUE WHERE dividendID = ?";
+    static final String UNSETTLED_SQL = "SELECT dividendID, stockSymbol, fractionalUnits FROM DividendCalendar " +
+            "WHERE status = '" + PAID + "' AND ledgerSettled = FALSE ORDER BY dividendID";
+
+    private final ConnectionPool pool;
+    private final AccountLocks locks;
+    private final int chunkSize;
+    private final long pollMillis;
+    private volatile boolean running = true;
+    private Thread thread;
+    /**
+     * Creates a calendar that pays dividends through the given pool.
+     *
+     * @param pool       The pool the calendar leases connections from.
+     * @param locks      The account lock stripes, taken for each chunk of accounts paid.
+     * @param chunkSize  The number of holdings per transaction.
+     * @param pollMillis How often the background thread checks for dividends due.
+     */
+    public DividendCalendar(ConnectionPool pool, AccountLocks locks, int chunkSize, long pollMillis) {
+        this.pool = pool;
+        this.locks = locks;
+        this.chunkSize = chunkSize;
+        this.pollMillis = pollMillis;
+    }
+    /**
+     * Records a dividend to be paid on its pay date.
+     *
+     * @param stockSymbol The stock paying the dividend.
+     * @param rateMicros  The dividend per share, in millionths of a dollar as returned by {@link Money#rate(double)}.
+     * @param recordDate  The date holders are entitled as of; it may not be after the pay date.
+     * @param payDate     The date the dividend is paid.
+     * @param connect     The database connection.
+     * @return            The dividend's ID.
+     * @throws SQLException If a database access error occurs, including an unknown stock.
+     */
+    static int declare(String stockSymbol, long rateMicros, LocalDate recordDate, LocalDate payDate, Connection connect) throws SQLException {
+        if (recordDate.isAfter(payDate)) {
+            throw new SQLException("Record date " + recordDate + " is after pay date " + payDate);
+        }
+        try (PreparedStatement insert = connect.prepareStatement(DECLARE_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            insert.setString(1, stockSymbol);
+            insert.setLong(2, rateMicros);
+            insert.setDate(3, Date.valueOf(recordDate));
+            insert.setDate(4, Date.valueOf(payDate));
+            insert.executeUpdate();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("Declaring dividend failed, no ID obtained.");
+                }
+                return keys.getInt(1);
+            }
+        }
+    }
+    /**
+     * Settles into the {@link FirmFractionalLedger} every paid dividend whose settlement was never flushed,
+     * such as one paid just before a crash. Call it once at startup, after the ledger is loaded.
+     *
+     * @param connect The database connection.
+     * @return        The number of dividends settled.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int replaySettlements(Connection connect) throws SQLException {
+        int dividends = 0;
+        PreparedStatement unsettled = StatementCache.prepare(connect, UNSETTLED_SQL);
+        try (ResultSet rs = unsettled.executeQuery()) {
+            while (rs.next()) {
+                FirmDividendManager.updateAccountFractionalShares(rs.getString("stockSymbol"), rs.getLong("fractionalUnits"),
+                        SETTLED_SQL, rs.getInt("dividendID"), connect);
+                dividends++;
+            }
+        }
+        return dividends;
+    }
+    /**
+     * Starts checking for dividends due on a daemon thread. A check runs straight away, so dividends
+     * that fell due while the process was down, or were left PAYING by a crash, are paid at startup.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "dividend-calendar");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    /**
+     * Stops the calendar after the chunk in progress.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    /**
+     * Records the entitlements of every declared dividend whose record date has come, claims every recorded
+     * dividend whose pay date has come, then pays every claimed dividend.
+     * The caller must not hold a lease or an account stripe.
+     *
+     * @param today The date to pay as of.
+     * @return      The number of dividends paid.
+     * @throws SQLException If a pass fails; its dividends stay PAYING, and its finished chunks stay paid.
+     */
+    public synchronized int payDue(LocalDate today) throws SQLException {
+        // Dividends with the same checkpoint are paid together; a claim starts at 0, a resume where its pass stopped
+        Map<Integer, List<Due>> byCheckpoint = new TreeMap<>();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connect = lease.getConnection();
+            recordDue(today, connect);
+            claimDue(today, connect);
+            PreparedStatement paying = StatementCache.prepare(connect, PAYING_SQL);
+            try (ResultSet rs = paying.executeQuery()) {
+                while (rs.next()) {
+                    int dividendId = rs.getInt("dividendID");
+                    Due due = new Due(dividendId, new DividendEngine.Dividend(dividendId, rs.getString("stockSymbol"),
+                            rs.getLong("rateMicros"), rs.getLong("priceCents")));
+                    byCheckpoint.computeIfAbsent(rs.getInt("paidThrough"), k -> new ArrayList<>()).add(due);
+                }
+            }
+        }
+
+        int paid = 0;
+        SQLException failure = null;
+        for (Map.Entry<Integer, List<Due>> group : byCheckpoint.entrySet()) {
+            for (List<Due> pass : passes(group.getValue())) {
+                try {
+                    paid += pay(pass, group.getKey());
+                } catch (SQLException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return paid;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                int paid = payDue(LocalDate.now());
+                if (paid > 0) {
+                    System.out.println("Dividend calendar paid " + paid + " dividend(s)");
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Whatever did not finish stays PAYING and is picked up by the next check
+                System.out.println("Dividend calendar error: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Copies each holder's shares into the entitlements of every dividend whose record date has come, and moves it to RECORDED
+    private static void recordDue(LocalDate today, Connection connect) throws SQLException {
+        List<Integer> dividendIds = new ArrayList<>();
+        List<String> stockSymbols = new ArrayList<>();
+        PreparedStatement due = StatementCache.prepare(connect, RECORD_DUE_SQL);
+        due.setDate(1, Date.valueOf(today));
+        try (ResultSet rs = due.executeQuery()) {
+            while (rs.next()) {
+                dividendIds.add(rs.getInt("dividendID"));
+                stockSymbols.add(rs.getString("stockSymbol"));
+            }
+        }
+        for (int i = 0; i < dividendIds.size(); i++) {
+            try {
+                connect.setAutoCommit(false);
+                PreparedStatement record = StatementCache.prepare(connect, RECORD_SQL);
+                record.setInt(1, dividendIds.get(i));
+                // Only the caller that moves the dividend to RECORDED copies its entitlements
+                if (record.executeUpdate() == 1) {
+                    PreparedStatement entitle = StatementCache.prepare(connect, ENTITLE_SQL);
+                    entitle.setInt(1, dividendIds.get(i));
+                    entitle.setString(2, stockSymbols.get(i));
+                    entitle.executeUpdate();
+                }
+                connect.commit();
+            } catch (SQLException e) {
+                try {
+                    connect.rollback();
+                } catch (SQLException se) {
+                    System.out.println("Rollback failed: " + se.getMessage());
+                }
+                throw e;
+            } finally {
+                try {
+                    connect.setAutoCommit(true);
+                } catch (SQLException e) {
+                    System.out.println("Failed to reset auto-commit: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Fixes each due dividend's reinvestment price and moves it to PAYING
+    private static void claimDue(LocalDate today, Connection connect) throws SQLException {
+        List<Integer> dividendIds = new ArrayList<>();
+        List<String> stockSymbols = new ArrayList<>();
+        PreparedStatement due = StatementCache.prepare(connect, DUE_SQL);
+        due.setDate(1, Date.valueOf(today));
+        try (ResultSet rs = due.executeQuery()) {
+            while (rs.next()) {
+                dividendIds.add(rs.getInt("dividendID"));
+                stockSymbols.add(rs.getString("stockSymbol"));
+            }
+        }
+        PreparedStatement claim = StatementCache.prepare(connect, CLAIM_SQL);
+        for (int i = 0; i < dividendIds.size(); i++) {
+            OptionalLong price = PriceBoard.priceCents(stockSymbols.get(i), connect);
+            // A stock with no price pays its dividend in cash, as DividendEngine does for a non-positive price
+            claim.setLong(1, price.orElse(0));
+            claim.setInt(2, dividendIds.get(i));
+            claim.executeUpdate();
+        }
+    }
+
+    // Splits dividends sharing a checkpoint into passes with at most one dividend per stock
+    private static List<List<Due>> passes(List<Due> dividends) {
+        List<List<Due>> passes = new ArrayList<>();
+        List<Set<String>> symbols = new ArrayList<>();
+        for (Due due : dividends) {
+            String key = SymbolDictionary.key(due.dividend.stockSymbol);
+            int pass = 0;
+            while (pass < passes.size() && symbols.get(pass).contains(key)) {
+                pass++;
+            }
+            if (pass == passes.size()) {
+                passes.add(new ArrayList<>());
+                symbols.add(new HashSet<>());
+            }
+            passes.get(pass).add(due);
+            symbols.get(pass).add(key);
+        }
+        return passes;
+    }
+
+    // Pays one pass from its checkpoint to the last account, then settles each of its dividends
+    private int pay(List<Due> pass, int paidThrough) throws SQLException {
+        List<DividendEngine.Dividend> dividends = new ArrayList<>(pass.size());
+        for (Due due : pass) {
+            dividends.add(due.dividend);
+        }
+        int[] checkpoint = {paidThrough};
+        int settled = 0;
+        DividendEngine.pay(dividends, paidThrough, Integer.MAX_VALUE, chunkSize, (lastPaid, chunk, chunkConnection) -> {
+            PreparedStatement advance = StatementCache.prepare(chunkConnection, CHECKPOINT_SQL);
+            for (int i = 0; i < chunk.length; i++) {
+                advance.setInt(1, lastPaid);
+                advance.setInt(2, chunk[i].accounts);
+                advance.setLong(3, chunk[i].fractionalUnits);
+                advance.setInt(4, pass.get(i).dividendId);
+                advance.setInt(5, checkpoint[0]);
+                advance.addBatch();
+            }
+            for (int count : advance.executeBatch()) {
+                if (count != 1) {
+                    throw new SQLException("Dividend checkpoint moved since account " + checkpoint[0] + "; another process is paying");
+                }
+            }
+            checkpoint[0] = lastPaid;
+        }, locks, pool);
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connect = lease.getConnection();
+            for (Due due : pass) {
+                System.out.println(due.dividend.result);
+                if (settle(due, connect)) {
+                    settled++;
+                }
+            }
+        }
+        return settled;
+    }
+
+    // Settles the firm's fractional shares once for the dividend, after the update that marks it paid
+    private static boolean settle(Due due, Connection connect) throws SQLException {
+        long fractionalUnits;
+        PreparedStatement totals = StatementCache.prepare(connect, TOTALS_SQL);
+        totals.setInt(1, due.dividendId);
+        try (ResultSet rs = totals.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Unknown dividend " + due.dividendId);
+            }
+            fractionalUnits = rs.getLong("fractionalUnits");
+        }
+        PreparedStatement claim = StatementCache.prepare(connect, PAID_SQL);
+        claim.setInt(1, due.dividendId);
+        if (claim.executeUpdate() == 0) {
+            // Another caller settled the dividend first
+            return false;
+        }
+        FirmDividendManager.updateAccountFractionalShares(due.dividend.stockSymbol, fractionalUnits, SETTLED_SQL, due.dividendId, connect);
+        return true;
+    }
+
+    private static class Due {
+        final int dividendId;
+        final DividendEngine.Dividend dividend;
+
+        Due(int dividendId, DividendEngine.Dividend dividend) {
+            this.dividendId = dividendId;
+            this.dividend = dividend;
+        }
+    }
+}
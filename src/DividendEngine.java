@@ -0,0 +1,388 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+/**
+ * Pays dividends to every holder of one or more stocks in chunked transactions. Each chunk first reads the
+ * next accounts in accountID order and takes their {@link AccountLocks} stripes, then leases a connection,
+ * as the trade paths do, for one locking read of their holdings joined to their account's cash and reinvest
+ * flag; every credit is then computed in memory and written with JDBC batches, and the chunk commits and is
+ * published to the in-memory views before its stripes are released. Dividends on
+ * several stocks are paid in the same pass, so an account holding more than one of them is read and its
+ * cash written once per chunk rather than once per stock.
+ *
+ * A dividend declared through the {@link DividendCalendar} is paid on the shares each account was entitled to
+ * on the record date, read from DividendEntitlements, rather than on the shares it holds when it is paid.
+ *
+ * A holder that reinvests is credited the dividend and buys as many shares, including a fraction down to the
+ * ten-thousandth of a share that sharesOwned stores, as it pays for at the current price, so its cash changes
+ * only by the cents left over. A holder that does not
+ * reinvest, or holds a stock with no positive price, is credited the dividend in cash.
+ */
+public class DividendEngine {
+    // The accounts holding the next holdings after an account, read before their stripes are taken
+    static final String ACCOUNTS_SQL = "SELECT p.accountID FROM AccountStocks p " +
+            "WHERE p.stockSymbol IN (%s) AND p.accountID > ? AND p.accountID <= ? ORDER BY p.accountID LIMIT ?";
+    // The holdings of a chunk's accounts, locked so a concurrent trade in another process cannot change them mid-chunk
+    static final String HOLDERS_SQL = "SELECT p.accountID, p.stockSymbol, p.sharesOwned AS sharesEntitled, p.sharesOwned, p.acb, a.cashBalance, a.reinvest " +
+            "FROM AccountStocks p JOIN Accounts a ON a.accountID = p.accountID " +
+            "WHERE p.stockSymbol IN (%s) AND p.accountID > ? AND p.accountID <= ? ORDER BY p.accountID FOR UPDATE";
+    // As above, for dividends paid on their record-date entitlements, keyed by dividendID
+    static final String ENTITLED_ACCOUNTS_SQL = "SELECT e.accountID FROM DividendEntitlements e " +
+            "WHERE e.dividendID IN (%s) AND e.accountID > ? AND e.accountID <= ? ORDER BY e.accountID LIMIT ?";
+    // The current position may have been sold since the record date, so it is joined, and reinvested shares are upserted
+    static final String ENTITLED_SQL = "SELECT e.accountID, c.stockSymbol, e.sharesEntitled, COALESCE(p.sharesOwned, 0) AS sharesOwned, " +
+            "COALESCE(p.acb, 0) AS acb, a.cashBalance, a.reinvest " +
+            "FROM DividendEntitlements e JOIN DividendCalendar c ON c.dividendID = e.dividendID JOIN Accounts a ON a.accountID = e.accountID " +
+            "LEFT JOIN AccountStocks p ON p.accountID = e.accountID AND p.stockSymbol = c.stockSymbol " +
+            "WHERE e.dividendID IN (%s) AND e.accountID > ? AND e.accountID <= ? ORDER BY e.accountID FOR UPDATE";
+    static final String CREDIT_SQL = "UPDATE Accounts SET cashBalance = ? WHERE accountID = ?";
+
+    /**
+     * Records progress inside each chunk's transaction, so the record commits or rolls back with the chunk.
+     */
+    interface Checkpoint {
+        /**
+         * @param lastAccountId The last account the chunk paid in full.
+         * @param chunk         The chunk's totals, one per dividend, in the order the dividends were given.
+         * @param connect       The chunk's connection, inside its transaction.
+         * @throws SQLException If the record fails; the chunk is rolled back.
+         */
+        void chunkPaid(int lastAccountId, Result[] chunk, Connection connect) throws SQLException;
+    }
+    /**
+     * Pays a dividend to the holders of a stock whose accountID is in a range.
+     * The caller must not hold a lease or an account stripe.
+     *
+     * @param stockSymbol    The stock paying the dividend.
+     * @param rateMicros     The dividend per share, in millionths of a dollar as returned by {@link Money#rate(double)}.
+     * @param priceCents     The price reinvested dividends buy at, in cents.
+     * @param afterAccountId The range's exclusive lower bound.
+     * @param lastAccountId  The range's inclusive upper bound.
+     * @param chunkSize      The number of holders per transaction, which is also the JDBC batch size.
+     * @param checkpoint     Called before each chunk commits, or null.
+     * @param locks          The account lock stripes, taken for each chunk's accounts.
+     * @param pool           The pool each chunk leases its connection from.
+     * @return               The totals of the holders paid.
+     * @throws SQLException If a chunk fails; it is rolled back, and the chunks before it stay committed.
+     */
+    static Result pay(String stockSymbol, long rateMicros, long priceCents, int afterAccountId, int lastAccountId,
+                      int chunkSize, Checkpoint checkpoint, AccountLocks locks, ConnectionPool pool) throws SQLException {
+        Dividend dividend = new Dividend(stockSymbol, rateMicros, priceCents);
+        pay(Collections.singletonList(dividend), afterAccountId, lastAccountId, chunkSize, checkpoint, locks, pool);
+        return dividend.result;
+    }
+    /**
+     * Pays several dividends, each on a different stock, to the holders whose accountID is in a range,
+     * in one pass over their holdings. Each dividend's totals are left in its {@link Dividend#result}.
+     * Either every dividend has a {@link Dividend#dividendId}, and holders are paid on their entitlements,
+     * or none has, and holders are paid on their current holdings.
+     * The caller must not hold a lease or an account stripe.
+     *
+     * @param dividends      The dividends.
+     * @param afterAccountId The range's exclusive lower bound.
+     * @param lastAccountId  The range's inclusive upper bound.
+     * @param chunkSize      The number of holdings per transaction, which is also the JDBC batch size.
+     * @param checkpoint     Called before each chunk commits, or null.
+     * @param locks          The account lock stripes, taken for each chunk's accounts.
+     * @param pool           The pool each chunk leases its connection from.
+     * @throws SQLException If a chunk fails; it is rolled back, and the chunks before it stay committed.
+     */
+    static void pay(List<Dividend> dividends, int afterAccountId, int lastAccountId, int chunkSize,
+                    Checkpoint checkpoint, AccountLocks locks, ConnectionPool pool) throws SQLException {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < dividends.size(); i++) {
+            indexes.put(SymbolDictionary.key(dividends.get(i).stockSymbol), i);
+        }
+        // An account has at most one holding per stock, so a full chunk always reaches a second account
+        int limit = Math.max(chunkSize, dividends.size() + 1);
+        String placeholders = TradeBatchProcessor.placeholders(dividends.size());
+        boolean entitled = dividends.get(0).dividendId > 0;
+        String accountsSql = String.format(entitled ? ENTITLED_ACCOUNTS_SQL : ACCOUNTS_SQL, placeholders);
+        String holdersSql = String.format(entitled ? ENTITLED_SQL : HOLDERS_SQL, placeholders);
+        long start = System.nanoTime();
+        int after = afterAccountId;
+        try {
+            boolean more = true;
+            while (more) {
+                List<Integer> accountIds = new ArrayList<>();
+                int rows = 0;
+                try (ConnectionPool.Lease lease = pool.lease()) {
+                    PreparedStatement select = StatementCache.prepare(lease.getConnection(), accountsSql);
+                    int parameter = bindKeys(select, dividends);
+                    select.setInt(parameter++, after);
+                    select.setInt(parameter++, lastAccountId);
+                    select.setInt(parameter, limit);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            int accountId = rs.getInt("accountID");
+                            if (accountIds.isEmpty() || accountIds.get(accountIds.size() - 1) != accountId) {
+                                accountIds.add(accountId);
+                            }
+                            rows++;
+                        }
+                    }
+                }
+                more = rows == limit;
+                if (more) {
+                    // The limit may have cut the last account's holdings short; the next chunk pays it in full
+                    accountIds.remove(accountIds.size() - 1);
+                }
+                if (accountIds.isEmpty()) {
+                    break;
+                }
+                int through = accountIds.get(accountIds.size() - 1);
+                int paidThrough;
+                int[] stripes = locks.lockAll(accountIds);
+                try (ConnectionPool.Lease lease = pool.lease()) {
+                    paidThrough = payChunk(dividends, indexes, holdersSql, after, through, new HashSet<>(accountIds),
+                            checkpoint, lease.getConnection());
+                } finally {
+                    locks.unlockAll(stripes);
+                }
+                // A holder that appeared after the accounts were read stops the chunk short; the next chunk starts at it
+                more |= paidThrough != through;
+                after = paidThrough;
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            for (Dividend dividend : dividends) {
+                dividend.result.nanos = elapsed;
+            }
+        }
+    }
+
+    // Binds each dividend's ID, or its stock if it has none, to the IN list and returns the next parameter index
+    private static int bindKeys(PreparedStatement pstmt, List<Dividend> dividends) throws SQLException {
+        int parameter = 1;
+        for (Dividend dividend : dividends) {
+            if (dividend.dividendId > 0) {
+                pstmt.setInt(parameter++, dividend.dividendId);
+            } else {
+                pstmt.setString(parameter++, dividend.stockSymbol);
+            }
+        }
+        return parameter;
+    }
+
+    // Pays the holdings of the locked accounts after one account through another in one transaction,
+    // and returns the last account paid
+    private static int payChunk(List<Dividend> dividends, Map<String, Integer> indexes, String holdersSql, int after, int through,
+                                Set<Integer> locked, Checkpoint checkpoint, Connection connect) throws SQLException {
+        List<Holding> chunk = new ArrayList<>();
+        try {
+            connect.setAutoCommit(false);
+            PreparedStatement select = StatementCache.prepare(connect, holdersSql);
+            int parameter = bindKeys(select, dividends);
+            select.setInt(parameter++, after);
+            select.setInt(parameter, through);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    int accountId = rs.getInt("accountID");
+                    if (!locked.contains(accountId)) {
+                        break;
+                    }
+                    chunk.add(new Holding(accountId, indexes.get(SymbolDictionary.key(rs.getString("stockSymbol"))),
+                            Quantity.read(rs, "sharesEntitled"), Quantity.read(rs, "sharesOwned"), Money.read(rs, "acb"),
+                            Money.read(rs, "cashBalance"), rs.getBoolean("reinvest")));
+                }
+            }
+            if (chunk.isEmpty()) {
+                connect.commit();
+                return after;
+            }
+            Result[] totals = credit(chunk, dividends, connect);
+            int last = chunk.get(chunk.size() - 1).accountId;
+            if (checkpoint != null) {
+                checkpoint.chunkPaid(last, totals, connect);
+            }
+            connect.commit();
+            publish(chunk, dividends);
+            for (int i = 0; i < totals.length; i++) {
+                dividends.get(i).result.add(totals[i]);
+            }
+            return last;
+        } catch (SQLException e) {
+            try {
+                connect.rollback();
+            } catch (SQLException se) {
+                System.out.println("Rollback failed: " + se.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                connect.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.out.println("Failed to reset auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    // Computes every holding's credit and writes the chunk; the caller commits
+    private static Result[] credit(List<Holding> chunk, List<Dividend> dividends, Connection connect) throws SQLException {
+        Result[] totals = new Result[dividends.size()];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new Result(dividends.get(i).stockSymbol);
+        }
+        // Every holding of an account reads the same cash balance, so credits collect on the account's first holding
+        Map<Integer, Holding> accounts = new LinkedHashMap<>();
+        PreparedStatement position = null;
+        for (Holding holding : chunk) {
+            Holding account = accounts.computeIfAbsent(holding.accountId, k -> holding);
+            Dividend dividend = dividends.get(holding.dividend);
+            Result result = totals[holding.dividend];
+            long paid = Money.timesRate(dividend.rateMicros, holding.entitled);
+            result.accounts++;
+            result.paidCents += paid;
+            if (holding.reinvest && dividend.priceCents > 0) {
+                // Floored at the column's scale, so the exact cost is at most paid and rounding it to cents cannot exceed paid
+                long bought = Quantity.affordable(paid, dividend.priceCents);
+                long cost = Money.times(dividend.priceCents, bought);
+                long units = holding.units + bought;
+                holding.acb = units > 0 ? Money.perUnit(Money.times(holding.acb, holding.units) + cost, units) : holding.acb;
+                holding.units = units;
+                account.cash += paid - cost;
+                result.reinvested++;
+                result.unitsBought += bought;
+                result.fractionalUnits += bought % Quantity.ONE;
+                if (position == null) {
+                    position = StatementCache.prepare(connect, TradeBatchProcessor.UPSERT_POSITION_SQL);
+                }
+                position.setInt(1, holding.accountId);
+                position.setString(2, dividend.stockSymbol);
+                Quantity.bind(position, 3, holding.units);
+                Money.bind(position, 4, holding.acb);
+                position.addBatch();
+            } else {
+                account.cash += paid;
+                holding.reinvest = false;
+            }
+        }
+        PreparedStatement credit = StatementCache.prepare(connect, CREDIT_SQL);
+        for (Holding account : accounts.values()) {
+            Money.bind(credit, 1, account.cash);
+            credit.setInt(2, account.accountId);
+            credit.addBatch();
+        }
+        if (position != null) {
+            position.executeBatch();
+        }
+        credit.executeBatch();
+        for (Holding holding : chunk) {
+            holding.cash = accounts.get(holding.accountId).cash;
+        }
+        return totals;
+    }
+
+    // Copies a committed chunk into the in-memory views; the caller still holds the chunk's stripes
+    private static void publish(List<Holding> chunk, List<Dividend> dividends) {
+        for (Holding holding : chunk) {
+            if (holding.reinvest) {
+                ValuationCache.tradeCommitted(holding.accountId, holding.cash, dividends.get(holding.dividend).stockSymbol,
+                        holding.units, holding.acb);
+                HoldingsSnapshot.positionCommitted(holding.accountId, dividends.get(holding.dividend).stockSymbol, holding.units);
+            } else {
+                ValuationCache.cashCommitted(holding.accountId, holding.cash);
+            }
+            DivergenceIndex.accountChanged(holding.accountId);
+        }
+    }
+
+    /**
+     * A dividend to pay: its stock, its rate and the price reinvested dividends buy at, with the totals paid so far.
+     * A dividend with a dividendId is paid on the entitlements recorded for it; one without, on current holdings.
+     */
+    static class Dividend {
+        final int dividendId;
+        final String stockSymbol;
+        final long rateMicros;
+        final long priceCents;
+        final Result result;
+
+        Dividend(String stockSymbol, long rateMicros, long priceCents) {
+            this(0, stockSymbol, rateMicros, priceCents);
+        }
+
+        Dividend(int dividendId, String stockSymbol, long rateMicros, long priceCents) {
+            this.dividendId = dividendId;
+            this.stockSymbol = stockSymbol;
+            this.rateMicros = rateMicros;
+            this.priceCents = priceCents;
+            this.result = new Result(stockSymbol);
+        }
+    }
+
+    private static class Holding {
+        final int accountId;
+        // Index of the dividend the holding is paid
+        final int dividend;
+        // Units the dividend is paid on; the current units unless paid on a record-date entitlement
+        final long entitled;
+        long units;
+        long acb;
+        long cash;
+        // After the chunk is paid, whether shares were bought rather than cash credited
+        boolean reinvest;
+
+        Holding(int accountId, int dividend, long entitled, long units, long acb, long cash, boolean reinvest) {
+            this.accountId = accountId;
+            this.dividend = dividend;
+            this.entitled = entitled;
+            this.units = units;
+            this.acb = acb;
+            this.cash = cash;
+            this.reinvest = reinvest;
+        }
+    }
+
+    /**
+     * The totals of one dividend payment.
+     */
+    static class Result {
+        final String stockSymbol;
+        int accounts;
+        int reinvested;
+        long paidCents;
+        long unitsBought;
+        // Sum of the fractional part of each reinvested purchase, which the firm covers
+        long fractionalUnits;
+        long nanos;
+
+        Result(String stockSymbol) {
+            this.stockSymbol = stockSymbol;
+        }
+
+        // Adds another payment's totals, not its time
+        void add(Result other) {
+            accounts += other.accounts;
+            reinvested += other.reinvested;
+            paidCents += other.paidCents;
+            unitsBought += other.unitsBought;
+            fractionalUnits += other.fractionalUnits;
+        }
+
+        /**
+         * Gets the number of holders paid per second.
+         *
+         * @return The rate, or 0 if nothing was timed.
+         */
+        double accountsPerSecond() {
+            return nanos == 0 ? 0.0 : accounts / (nanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Dividend[%s: accounts=%d, reinvested=%d, paid=%s, bought=%s shares, fractional=%s shares, %.3f s, %.0f accounts/s]",
+                    stockSymbol, accounts, reinvested, Money.format(paidCents), Quantity.toDouble(unitsBought),
+                    Quantity.toDouble(fractionalUnits), nanos / 1_000_000_000.0, accountsPerSecond());
+        }
+    }
+}
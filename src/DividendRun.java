@@ -0,0 +1,282 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+/**
+ * A dividend paid in accountID-range partitions, in parallel, with its progress recorded in the database.
+ * Each partition is paid by the {@link DividendEngine} on its own pooled connections, and every chunk it pays
+ * advances the partition's checkpoint in the same transaction, so a run that stops midway, for any reason,
+ * can be resumed without paying any holder twice.
+ *
+ * The rate and the reinvestment price are fixed when the run is created, so a resumed run pays the
+ * same amounts. Once every partition is done, the firm's fractional shares are settled for the whole run,
+ * by whichever caller first moves the run from PAYING to COMPLETE, and the run is marked settled by the
+ * {@link FirmFractionalLedger} flush that writes the result.
+ */
+public class DividendRun {
+    static final String PAYING = "PAYING";
+    static final String COMPLETE = "COMPLETE";
+    static final String HOLDER_RANGE_SQL = "SELECT MIN(accountID) AS firstID, MAX(accountID) AS lastID FROM AccountStocks WHERE stockSymbol = ?";
+    static final String INSERT_RUN_SQL = "INSERT INTO DividendRuns (stockSymbol, rateMicros, priceCents, partitions, status) VALUES (?, ?, ?, ?, '" + PAYING + "')";
+    static final String INSERT_PARTITION_SQL = "INSERT INTO DividendRunPartitions (runID, partitionNo, paidThrough, lastAccountID) VALUES (?, ?, ?, ?)";
+    static final String RUN_SQL = "SELECT stockSymbol, rateMicros, priceCents, status FROM DividendRuns WHERE runID = ?";
+    static final String UNFINISHED_SQL = "SELECT partitionNo, paidThrough, lastAccountID FROM DividendRunPartitions WHERE runID = ? AND done = FALSE";
+    // Advances only from the checkpoint the partition started at, so two callers never pay the same chunk
+    static final String CHECKPOINT_SQL = "UPDATE DividendRunPartitions SET paidThrough = ?, accounts = accounts + ?, fractionalUnits = fractionalUnits + ? " +
+            "WHERE runID = ? AND partitionNo = ? AND done = FALSE AND paidThrough = ?";
+    static final String DONE_SQL = "UPDATE DividendRunPartitions SET done = TRUE WHERE runID = ? AND partitionNo = ?";
+    static final String TOTALS_SQL = "SELECT COUNT(*) AS partitions, SUM(done) AS done, SUM(accounts) AS accounts, SUM(fractionalUnits) AS fractionalUnits " +
+            "FROM DividendRunPartitions WHERE runID = ?";
+    static final String COMPLETE_SQL = "UPDATE DividendRuns SET status = '" + COMPLETE + "', completedAt = CURRENT_TIMESTAMP WHERE runID = ? AND status = '" + PAYING + "'";
+    static final String PENDING_SQL = "SELECT runID, stockSymbol FROM DividendRuns WHERE status = '" + PAYING + "' ORDER BY runID";
+    static final String SETTLED_SQL = "UPDATE DividendRuns SET ledgerSettled = TRUE WHERE runID = ?";
+    static final String UNSETTLED_SQL = "SELECT r.runID, r.stockSymbol, SUM(p.fractionalUnits) AS fractionalUnits FROM DividendRuns r " +
+            "JOIN DividendRunPartitions p ON p.runID = r.runID WHERE r.status = '" + COMPLETE + "' AND r.ledgerSettled = FALSE " +
+            "GROUP BY r.runID, r.stockSymbol ORDER BY r.runID";
+    /**
+     * Records a new run, splitting the current holders of the stock into equal accountID ranges.
+     *
+     * @param stockSymbol The stock paying the dividend.
+     * @param rateMicros  The dividend per share, in millionths of a dollar.
+     * @param priceCents  The price reinvested dividends buy at, in cents.
+     * @param partitions  The number of ranges; fewer are recorded if there are fewer holder IDs.
+     * @param connect     The database connection.
+     * @return            The run's ID.
+     * @throws SQLException If a database access error occurs; nothing is recorded in that case.
+     */
+    static int create(String stockSymbol, long rateMicros, long priceCents, int partitions, Connection connect) throws SQLException {
+        int firstId = 0;
+        int lastId = 0;
+        PreparedStatement range = StatementCache.prepare(connect, HOLDER_RANGE_SQL);
+        range.setString(1, stockSymbol);
+        try (ResultSet rs = range.executeQuery()) {
+            if (rs.next()) {
+                firstId = rs.getInt("firstID");
+                lastId = rs.getInt("lastID");
+            }
+        }
+        long span = (long) lastId - firstId + 1;
+        int count = (int) Math.max(1, Math.min(partitions, span));
+        try {
+            connect.setAutoCommit(false);
+            int runId;
+            try (PreparedStatement insert = connect.prepareStatement(INSERT_RUN_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                insert.setString(1, stockSymbol);
+                insert.setLong(2, rateMicros);
+                insert.setLong(3, priceCents);
+                insert.setInt(4, count);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("Creating dividend run failed, no ID obtained.");
+                    }
+                    runId = keys.getInt(1);
+                }
+            }
+            PreparedStatement partition = StatementCache.prepare(connect, INSERT_PARTITION_SQL);
+            for (int i = 0; i < count; i++) {
+                // Each range starts after the previous one's last ID; the last range runs to the end
+                long after = firstId - 1 + span * i / count;
+                long last = i == count - 1 ? Integer.MAX_VALUE : firstId - 1 + span * (i + 1) / count;
+                partition.setInt(1, runId);
+                partition.setInt(2, i);
+                partition.setInt(3, (int) Math.max(after, 0));
+                partition.setInt(4, (int) last);
+                partition.addBatch();
+            }
+            partition.executeBatch();
+            connect.commit();
+            return runId;
+        } catch (SQLException e) {
+            try {
+                connect.rollback();
+            } catch (SQLException se) {
+                System.out.println("Rollback failed: " + se.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                connect.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.out.println("Failed to reset auto-commit: " + e.getMessage());
+            }
+        }
+    }
+    /**
+     * Pays every unfinished partition of a run in parallel, each on its own leased connection, then settles the run.
+     * The caller must not hold a lease, since each partition takes one.
+     *
+     * @param runId     The run.
+     * @param chunkSize The number of holders per transaction.
+     * @param locks     The account lock stripes, taken for each chunk of holders paid.
+     * @param pool      The pool to lease connections from.
+     * @return          The firm's fractional share result, as returned by
+     *                  {@link FirmDividendManager#updateAccountFractionalShares(String, long, String, int, Connection)},
+     *                  or 0 if the run was already complete.
+     * @throws SQLException If a partition fails; the run stays PAYING, and its finished chunks stay paid.
+     */
+    static int execute(int runId, int chunkSize, AccountLocks locks, ConnectionPool pool) throws SQLException {
+        String stockSymbol;
+        long rateMicros;
+        long priceCents;
+        List<int[]> unfinished = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            PreparedStatement run = StatementCache.prepare(lease.getConnection(), RUN_SQL);
+            run.setInt(1, runId);
+            try (ResultSet rs = run.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Unknown dividend run " + runId);
+                }
+                if (COMPLETE.equals(rs.getString("status"))) {
+                    return 0;
+                }
+                stockSymbol = rs.getString("stockSymbol");
+                rateMicros = rs.getLong("rateMicros");
+                priceCents = rs.getLong("priceCents");
+            }
+            PreparedStatement partitions = StatementCache.prepare(lease.getConnection(), UNFINISHED_SQL);
+            partitions.setInt(1, runId);
+            try (ResultSet rs = partitions.executeQuery()) {
+                while (rs.next()) {
+                    unfinished.add(new int[] {rs.getInt("partitionNo"), rs.getInt("paidThrough"), rs.getInt("lastAccountID")});
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        int accounts = 0;
+        SQLException failure = null;
+        if (!unfinished.isEmpty()) {
+            ExecutorService workers = Executors.newFixedThreadPool(Math.min(unfinished.size(), pool.getMaxSize()));
+            try {
+                List<Future<DividendEngine.Result>> results = new ArrayList<>();
+                for (int[] partition : unfinished) {
+                    results.add(workers.submit(() -> payPartition(runId, partition[0], stockSymbol, rateMicros, priceCents,
+                            partition[1], partition[2], chunkSize, locks, pool)));
+                }
+                for (Future<DividendEngine.Result> result : results) {
+                    try {
+                        accounts += result.get().accounts;
+                    } catch (ExecutionException e) {
+                        SQLException cause = e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                                : new SQLException("Dividend partition failed", e.getCause());
+                        if (failure == null) {
+                            failure = cause;
+                        } else {
+                            failure.addSuppressed(cause);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for dividend run " + runId, e);
+                    }
+                }
+            } finally {
+                workers.shutdown();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("Dividend run %d on %s: %d partition(s), %d accounts in %.3f s (%.0f accounts/s)%n",
+                runId, stockSymbol, unfinished.size(), accounts, seconds, seconds == 0 ? 0.0 : accounts / seconds);
+        if (failure != null) {
+            throw failure;
+        }
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return complete(runId, stockSymbol, lease.getConnection());
+        }
+    }
+    /**
+     * Gets the runs that were started and not completed.
+     *
+     * @param connect The database connection.
+     * @return        Each run's ID mapped to its stock, oldest first.
+     * @throws SQLException If a database access error occurs.
+     */
+    static Map<Integer, String> pending(Connection connect) throws SQLException {
+        Map<Integer, String> runs = new LinkedHashMap<>();
+        PreparedStatement pstmt = StatementCache.prepare(connect, PENDING_SQL);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                runs.put(rs.getInt("runID"), rs.getString("stockSymbol"));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Settles into the {@link FirmFractionalLedger} every complete run whose settlement was never flushed,
+     * such as one completed just before a crash. Call it once at startup, after the ledger is loaded.
+     *
+     * @param connect The database connection.
+     * @return        The number of runs settled.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int replaySettlements(Connection connect) throws SQLException {
+        int runs = 0;
+        PreparedStatement unsettled = StatementCache.prepare(connect, UNSETTLED_SQL);
+        try (ResultSet rs = unsettled.executeQuery()) {
+            while (rs.next()) {
+                FirmDividendManager.updateAccountFractionalShares(rs.getString("stockSymbol"), rs.getLong("fractionalUnits"),
+                        SETTLED_SQL, rs.getInt("runID"), connect);
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    private static DividendEngine.Result payPartition(int runId, int partitionNo, String stockSymbol, long rateMicros, long priceCents,
+                                                      int paidThrough, int lastAccountId, int chunkSize, AccountLocks locks,
+                                                      ConnectionPool pool) throws SQLException {
+        int[] previous = {paidThrough};
+        DividendEngine.Result result = DividendEngine.pay(stockSymbol, rateMicros, priceCents, paidThrough, lastAccountId, chunkSize,
+                (lastPaid, chunk, chunkConnection) -> {
+                    PreparedStatement checkpoint = StatementCache.prepare(chunkConnection, CHECKPOINT_SQL);
+                    checkpoint.setInt(1, lastPaid);
+                    checkpoint.setInt(2, chunk[0].accounts);
+                    checkpoint.setLong(3, chunk[0].fractionalUnits);
+                    checkpoint.setInt(4, runId);
+                    checkpoint.setInt(5, partitionNo);
+                    checkpoint.setInt(6, previous[0]);
+                    if (checkpoint.executeUpdate() != 1) {
+                        throw new SQLException("Dividend run " + runId + " partition " + partitionNo + " moved since account "
+                                + previous[0] + "; another caller is paying it");
+                    }
+                    previous[0] = lastPaid;
+                }, locks, pool);
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            PreparedStatement done = StatementCache.prepare(lease.getConnection(), DONE_SQL);
+            done.setInt(1, runId);
+            done.setInt(2, partitionNo);
+            done.executeUpdate();
+        }
+        return result;
+    }
+
+    // Settles the firm's fractional shares once for the whole run, after the update that marks it complete
+    private static int complete(int runId, String stockSymbol, Connection connect) throws SQLException {
+        long fractionalUnits;
+        PreparedStatement totals = StatementCache.prepare(connect, TOTALS_SQL);
+        totals.setInt(1, runId);
+        try (ResultSet rs = totals.executeQuery()) {
+            if (!rs.next() || rs.getInt("done") != rs.getInt("partitions")) {
+                throw new SQLException("Dividend run " + runId + " has unfinished partitions");
+            }
+            fractionalUnits = rs.getLong("fractionalUnits");
+        }
+        PreparedStatement claim = StatementCache.prepare(connect, COMPLETE_SQL);
+        claim.setInt(1, runId);
+        if (claim.executeUpdate() == 0) {
+            // Another caller completed the run first
+            return 0;
+        }
+        return FirmDividendManager.updateAccountFractionalShares(stockSymbol, fractionalUnits, SETTLED_SQL, runId, connect);
+    }
+}
@@ -0,0 +1,617 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+/**
+ * Command line driver for measuring the InvestmentFirm hot paths against the configured database.
+ * Usage: {@code java FirmBenchmark <scenario> [iterations] [maxThreads]}.
+ */
+public class FirmBenchmark {
+    static final String SECTOR = "Benchmark";
+    static final String SYMBOL = "BNCH";
+
+    public static void main(String[] args) throws SQLException, InterruptedException, IOException {
+        String scenario = args.length > 0 ? args[0] : "trades";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        switch (scenario) {
+            case "trades":
+                tradeThroughput(iterations);
+                break;
+            case "latency":
+                tradeLatency(iterations);
+                break;
+            case "batch":
+                batchThroughput(iterations);
+                break;
+            case "async":
+                asyncThroughput(iterations);
+                break;
+            case "journal":
+                journalThroughput(iterations, args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+                break;
+            case "valuation":
+                valuationLatency(iterations);
+                break;
+            case "aum":
+                aumLatency(iterations);
+                break;
+            case "ticks":
+                priceTickFanOut(iterations, args.length > 2 ? Integer.parseInt(args[2]) : 100);
+                break;
+            case "eod":
+                closingPriceLoad(iterations);
+                break;
+            case "history":
+                priceHistoryLookup(iterations);
+                break;
+            case "divergence":
+                divergenceScan(iterations);
+                break;
+            case "dividend":
+                dividendRun(iterations);
+                break;
+            case "calendar":
+                dividendCalendar(iterations);
+                break;
+            case "recommend":
+                recommendations(iterations);
+                break;
+            case "stress":
+                stressTrades(iterations, args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+                break;
+            default:
+                System.out.println("Unknown scenario: " + scenario);
+        }
+        System.out.println(InvestmentFirm.pool);
+        System.out.println(InvestmentFirm.tradeExecutor);
+        System.out.println(AccountCheck.CLIENTS + " " + AccountCheck.ADVISORS + " " + AccountCheck.ACCOUNTS);
+        System.out.printf("Price board: prices=%d, hits=%d, misses=%d, hitRatio=%.3f, updates=%d, maxAge=%d ms%n",
+                PriceBoard.size(), PriceBoard.getHitCount(), PriceBoard.getMissCount(), PriceBoard.getHitRatio(),
+                PriceBoard.getUpdateCount(), PriceBoard.getMaxAgeMillis());
+        System.out.printf("Valuation cache: accounts=%d, ticks=%d, avgFanOut=%.1f accounts, avgFanOut=%.3f ms, maxFanOut=%.3f ms%n",
+                ValuationCache.size(), ValuationCache.getPriceTickCount(), ValuationCache.getAverageFanOut(),
+                ValuationCache.getAverageFanOutMillis(), ValuationCache.getMaxFanOutMillis());
+        System.out.printf("AUM roll-up: accounts=%d, firm=%s%n", AumRollup.size(), Money.format(AumRollup.firmValue()));
+        if (InvestmentFirm.tradeJournal != null) {
+            System.out.println(InvestmentFirm.tradeJournal + ", applied=" + InvestmentFirm.journalApplier.getAppliedSequence());
+        }
+        System.out.printf("Divergence index: accounts=%d, build=%.3f ms, refreshes=%d, avgRefresh=%.3f ms, lastRefresh=%.3f ms, rescanned=%d%n",
+                DivergenceIndex.size(), DivergenceIndex.getBuildMillis(), DivergenceIndex.getRefreshCount(),
+                DivergenceIndex.getAverageRefreshMillis(), DivergenceIndex.getLastRefreshMillis(), DivergenceIndex.getRefreshedAccountCount());
+        if (InvestmentFirm.priceHistory != null) {
+            System.out.println(InvestmentFirm.priceHistory);
+        }
+        System.out.printf("Statement cache: hits=%d, misses=%d, evictions=%d, hitRatio=%.3f%n",
+                StatementCache.getHitCount(), StatementCache.getMissCount(), StatementCache.getEvictionCount(), StatementCache.getHitRatio());
+    }
+    /**
+     * Compares trades per second with the DDL that tradeShares used to issue on every call
+     * against the migrated schema, where the trade path runs no DDL at all.
+     *
+     * @param iterations The number of trades to run in each mode.
+     * @throws SQLException If the legacy DDL cannot be executed.
+     */
+    static void tradeThroughput(int iterations) throws SQLException {
+        int accountId = setUpAccount("trades", iterations * 10.0);
+        try (ConnectionPool.Lease lease = InvestmentFirm.pool.lease()) {
+            Connection connect = lease.getConnection();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                try (Statement statement = connect.createStatement()) {
+                    statement.execute("CREATE TABLE IF NOT EXISTS AccountStocks (accountID INT, stockSymbol VARCHAR(50),sharesOwned DECIMAL(10,2) DEFAULT 0, PRIMARY KEY (accountID, stockSymbol), FOREIGN KEY (accountID) REFERENCES Accounts(accountID), FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));");
+                    statement.execute("ALTER TABLE Accounts ADD COLUMN IF NOT EXISTS cashBalance DECIMAL(10, 2) DEFAULT 0;");
+                    statement.execute("ALTER TABLE AccountStocks ADD COLUMN IF NOT EXISTS acb DECIMAL(10, 2) DEFAULT 0;");
+                }
+                InvestmentFirm.tradeShares(accountId, SYMBOL, i % 2 == 0 ? 1 : -1, connect);
+            }
+            report("trades with per-call DDL", iterations, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                InvestmentFirm.tradeShares(accountId, SYMBOL, i % 2 == 0 ? 1 : -1, connect);
+            }
+            report("trades on migrated schema", iterations, System.nanoTime() - start);
+        }
+    }
+    /**
+     * Measures the latency distribution of single trades, alternating buys and sells on one position.
+     * Point the configured dbUrl at an embedded MySQL-compatible server to take network noise out of the numbers.
+     *
+     * @param iterations The number of trades to time.
+     */
+    static void tradeLatency(int iterations) {
+        int accountId = setUpAccount("latency", iterations * 10.0);
+        long[] samples = new long[iterations];
+        try (ConnectionPool.Lease lease = InvestmentFirm.pool.lease()) {
+            Connection connect = lease.getConnection();
+            // Warm up the statement cache and the position row
+            ShareTrader.trade(accountId, SYMBOL, 1, connect);
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                ShareTrader.trade(accountId, SYMBOL, i % 2 == 0 ? 1 : -1, connect);
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        reportLatency("trade latency", samples);
+    }
+    /**
+     * Compares one-at-a-time tradeShares calls with the same orders submitted through tradeSharesBatch.
+     *
+     * @param iterations The number of orders to run in each mode.
+     */
+    static void batchThroughput(int iterations) {
+        int accountId = setUpAccount("batch", iterations * 10.0);
+        List<TradeOrder> orders = new ArrayList<>(iterations);
+        for (int i = 0; i < iterations; i++) {
+            orders.add(new TradeOrder(accountId, SYMBOL, i % 2 == 0 ? 1 : -1));
+        }
+        long start = System.nanoTime();
+        for (TradeOrder order : orders) {
+            InvestmentFirm.tradeShares(order.getAccountID(), order.getStockSymbol(), order.getSharesExchanged());
+        }
+        report("orders via tradeShares", iterations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        InvestmentFirm.tradeSharesBatch(orders);
+        report("orders via tradeSharesBatch", iterations, System.nanoTime() - start);
+    }
+    /**
+     * Fires orders through submitTrade as fast as they are accepted, spread over several accounts,
+     * and waits for all of them. Orders turned away by backpressure are counted, not retried.
+     *
+     * @param iterations The number of orders to submit.
+     */
+    static void asyncThroughput(int iterations) {
+        int[] accountIds = new int[16];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = setUpAccount("async-" + i, iterations);
+        }
+        List<CompletableFuture<TradeResult>> futures = new ArrayList<>(iterations);
+        int rejected = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            try {
+                futures.add(InvestmentFirm.submitTrade(accountIds[i % accountIds.length], SYMBOL, (i / accountIds.length) % 2 == 0 ? 1 : -1));
+            } catch (TradeRejectedException e) {
+                rejected++;
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        report("orders via submitTrade", futures.size(), System.nanoTime() - start);
+        System.out.println("Rejected by backpressure: " + rejected);
+    }
+    /**
+     * Journals trades from several threads, so concurrent appends share forces, then waits for the
+     * applier to catch up. Reports the durable (journaled) rate and the end-to-end applied rate.
+     * Requires tradeJournalDir to be set.
+     *
+     * @param iterations The number of trades to journal.
+     * @param threads    The number of journaling threads.
+     * @throws InterruptedException If interrupted while waiting for the applier.
+     */
+    static void journalThroughput(int iterations, int threads) throws InterruptedException {
+        int accountId = setUpAccount("journal", iterations * 10.0);
+        AtomicInteger remaining = new AtomicInteger(iterations);
+        long[] lastSequence = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            workers[t] = new Thread(() -> {
+                int i;
+                while ((i = remaining.getAndDecrement()) > 0) {
+                    lastSequence[worker] = Math.max(lastSequence[worker], InvestmentFirm.journalTrade(accountId, SYMBOL, i % 2 == 0 ? 1 : -1));
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report("trades journaled (durable)", iterations, System.nanoTime() - start);
+        long last = Arrays.stream(lastSequence).max().orElse(0);
+        if (!InvestmentFirm.awaitJournalApplied(last, 600_000)) {
+            System.out.println("Applier did not catch up within 10 minutes");
+        }
+        report("trades journaled and applied", iterations, System.nanoTime() - start);
+        System.out.println("Forces: " + InvestmentFirm.tradeJournal.getForceCount());
+    }
+    /**
+     * Runs random buys and sells from 1, 2, 4, ... up to maxThreads threads over a small set of accounts,
+     * reporting the throughput at each thread count, then checks that no trade was lost or applied twice.
+     * The price stays at 1.0, so every account must still be worth exactly what it was worth before the run,
+     * and no account may hold negative cash or a negative position.
+     *
+     * @param iterations The number of trades to run at each thread count.
+     * @param maxThreads The highest thread count to run.
+     * @throws SQLException If the invariants cannot be read back.
+     */
+    static void stressTrades(int iterations, int maxThreads) throws SQLException {
+        int[] accountIds = new int[Math.max(2, maxThreads * 4)];
+        double[] startValues = new double[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = setUpAccount("stress-" + i, 100);
+            startValues[i] = InvestmentFirm.accountValue(accountIds[i]);
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            AtomicInteger remaining = new AtomicInteger(iterations);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (remaining.getAndDecrement() > 0) {
+                        int accountId = accountIds[random.nextInt(accountIds.length)];
+                        // Rejected buys and sells are expected; they exercise the rollback paths under contention
+                        InvestmentFirm.tradeShares(accountId, SYMBOL, random.nextBoolean() ? random.nextInt(1, 10) : -random.nextInt(1, 10));
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            report("trades with " + threads + " thread(s)", iterations, System.nanoTime() - start);
+        }
+
+        int violations = 0;
+        try (ConnectionPool.Lease lease = InvestmentFirm.pool.lease()) {
+            Connection connect = lease.getConnection();
+            PreparedStatement positionStmt = StatementCache.prepare(connect,
+                    "SELECT a.cashBalance, COALESCE(SUM(p.sharesOwned), 0) AS shares FROM Accounts a " +
+                    "LEFT JOIN AccountStocks p ON p.accountID = a.accountID WHERE a.accountID = ? GROUP BY a.cashBalance");
+            for (int i = 0; i < accountIds.length; i++) {
+                int accountId = accountIds[i];
+                double value = InvestmentFirm.accountValue(accountId, connect);
+                positionStmt.setInt(1, accountId);
+                try (ResultSet rs = positionStmt.executeQuery()) {
+                    rs.next();
+                    double cash = rs.getDouble("cashBalance");
+                    double shares = rs.getDouble("shares");
+                    if (Math.abs(value - startValues[i]) > 0.005 || cash < 0 || shares < 0) {
+                        System.out.printf("Invariant violated for account %d: value=%.2f, cash=%.2f, shares=%.2f%n", accountId, value, cash, shares);
+                        violations++;
+                    }
+                }
+            }
+        }
+        System.out.println(violations == 0 ? "Invariants held for " + accountIds.length + " accounts" : violations + " account(s) violated the invariants");
+    }
+    /**
+     * Measures accountValue latency for accounts holding 1, 10, 50 and 200 positions, then values all of
+     * those accounts with one accountValues call. accountValue reads the valuation cache and accountValues
+     * runs one aggregate query, so neither should slow down much as the position count grows.
+     *
+     * @param iterations The number of valuations to time per position count.
+     * @throws SQLException If a valuation fails.
+     */
+    static void valuationLatency(int iterations) throws SQLException {
+        int[] positionCounts = {1, 10, 50, 200};
+        int maxPositions = positionCounts[positionCounts.length - 1];
+        for (int i = 0; i < maxPositions; i++) {
+            String symbol = String.format("BV%04d", i);
+            InvestmentFirm.defineStock("Valuation Corp " + i, symbol, SECTOR);
+            InvestmentFirm.setStockPrice(symbol, 1.0 + i / 100.0);
+        }
+        List<Integer> accountIds = new ArrayList<>();
+        for (int positions : positionCounts) {
+            int accountId = setUpAccount("valuation-" + positions, positions * 10.0);
+            List<TradeOrder> orders = new ArrayList<>(positions);
+            for (int i = 0; i < positions; i++) {
+                orders.add(new TradeOrder(accountId, String.format("BV%04d", i), 1));
+            }
+            InvestmentFirm.tradeSharesBatch(orders);
+            accountIds.add(accountId);
+
+            long[] samples = new long[iterations];
+            try (ConnectionPool.Lease lease = InvestmentFirm.pool.lease()) {
+                Connection connect = lease.getConnection();
+                InvestmentFirm.accountValue(accountId, connect);
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    InvestmentFirm.accountValue(accountId, connect);
+                    samples[i] = System.nanoTime() - start;
+                }
+            }
+            reportLatency("accountValue, " + positions + " position(s)", samples);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            InvestmentFirm.accountValues(accountIds);
+        }
+        report("accountValues of " + accountIds.size() + " accounts", iterations, System.nanoTime() - start);
+    }
+    /**
+     * Compares an advisor's portfolio value computed from the database with the same total read from the
+     * AUM roll-up, and times top-N advisor queries. Every benchmark account shares one advisor, so that
+     * advisor's account count grows with each run.
+     *
+     * @param iterations The number of lookups to time in each mode.
+     * @throws SQLException If a valuation fails.
+     */
+    static void aumLatency(int iterations) throws SQLException {
+        int accountId = setUpAccount("aum", 100);
+        int advisorId = InvestmentFirm.addAdvisor("bench-advisor");
+        double fromDatabase = InvestmentFirm.advisorPortfolioValue(advisorId);
+        double fromRollup = InvestmentFirm.advisorAssetsUnderManagement(advisorId);
+        if (Math.abs(fromDatabase - fromRollup) > 0.005) {
+            System.out.printf("Roll-up differs from the database for advisor %d: %.2f vs %.2f%n", advisorId, fromRollup, fromDatabase);
+        }
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            InvestmentFirm.advisorPortfolioValue(advisorId);
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("advisorPortfolioValue", samples);
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            InvestmentFirm.advisorAssetsUnderManagement(advisorId);
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("advisorAssetsUnderManagement", samples);
+        for (int i = 0; i < iterations; i++) {
+            // Move value in and out so the ranking is re-sorted between queries
+            InvestmentFirm.tradeShares(accountId, "cash", i % 2 == 0 ? 1 : -1);
+            long start = System.nanoTime();
+            InvestmentFirm.topAdvisorsByAum(10);
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("topAdvisorsByAum(10)", samples);
+    }
+    /**
+     * Changes the benchmark stock's price repeatedly with the given number of accounts holding it, and
+     * reports setStockPrice latency; the valuation cache's fan-out cost per tick is printed on exit.
+     * Then times cached accountValue reads.
+     *
+     * @param iterations The number of price changes to time.
+     * @param holders    The number of accounts holding the stock.
+     * @throws SQLException If a valuation fails.
+     */
+    static void priceTickFanOut(int iterations, int holders) throws SQLException {
+        int[] accountIds = new int[holders];
+        List<TradeOrder> orders = new ArrayList<>(holders);
+        for (int i = 0; i < holders; i++) {
+            accountIds[i] = setUpAccount("ticks-" + i, 10);
+            orders.add(new TradeOrder(accountIds[i], SYMBOL, 1));
+        }
+        InvestmentFirm.tradeSharesBatch(orders);
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            InvestmentFirm.setStockPrice(SYMBOL, i % 2 == 0 ? 1.01 : 1.0);
+            samples[i] = System.nanoTime() - start;
+        }
+        InvestmentFirm.setStockPrice(SYMBOL, 1.0);
+        reportLatency("setStockPrice, " + holders + " holder(s)", samples);
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            InvestmentFirm.accountValue(accountIds[i % holders]);
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("accountValue (cached)", samples);
+    }
+    /**
+     * Compares setting closing prices one setStockPrice call at a time with loading the same prices from a file.
+     * The file repeats each of up to 1000 benchmark stocks, so duplicate symbols are coalesced.
+     *
+     * @param iterations The number of price lines.
+     * @throws IOException If the price file cannot be written.
+     */
+    static void closingPriceLoad(int iterations) throws IOException {
+        int stocks = Math.min(iterations, 1000);
+        InvestmentFirm.defineSector(SECTOR);
+        for (int i = 0; i < stocks; i++) {
+            InvestmentFirm.defineStock("Closing Corp " + i, String.format("EOD%05d", i), SECTOR);
+        }
+        Path file = Files.createTempFile("closing-prices", ".csv");
+        try {
+            StringBuilder lines = new StringBuilder("symbol,price\n");
+            for (int i = 0; i < iterations; i++) {
+                lines.append(String.format("EOD%05d,%d.%02d%n", i % stocks, 1 + i % 50, i % 100));
+            }
+            Files.write(file, lines.toString().getBytes(StandardCharsets.US_ASCII));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                InvestmentFirm.setStockPrice(String.format("EOD%05d", i % stocks), 1 + i % 50 + (i % 100) / 100.0);
+            }
+            report("prices via setStockPrice", iterations, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            InvestmentFirm.loadClosingPrices(file.toString());
+            report("price lines via loadClosingPrices", iterations, System.nanoTime() - start);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    /**
+     * Times point-in-time price lookups on a scratch history of ten years of daily prices, then, when the firm
+     * keeps a price history, point-in-time valuations of a benchmark account.
+     *
+     * @param iterations The number of lookups and valuations.
+     * @throws IOException If the scratch history cannot be created.
+     * @throws SQLException If a valuation fails.
+     */
+    static void priceHistoryLookup(int iterations) throws IOException, SQLException {
+        int days = 3650;
+        long first = LocalDate.now().toEpochDay() - days;
+        Path dir = Files.createTempDirectory("price-history");
+        try (PriceHistory history = new PriceHistory(dir)) {
+            for (int day = 0; day < days; day++) {
+                history.record(1, first + day, 100 + day);
+            }
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += history.priceAsOf(1, first + ThreadLocalRandom.current().nextInt(days));
+            }
+            report("priceAsOf lookups (checksum " + checksum + ")", iterations, System.nanoTime() - start);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        if (InvestmentFirm.priceHistory == null) {
+            System.out.println("Price history is not configured; skipping currentHoldingsValueAt");
+            return;
+        }
+        int accountId = setUpAccount("history", 1000);
+        InvestmentFirm.tradeShares(accountId, SYMBOL, 100);
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            InvestmentFirm.currentHoldingsValueAt(accountId, LocalDate.now());
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("currentHoldingsValueAt", samples);
+    }
+    /**
+     * Times a risk run of divergentAccounts at 2, 5, 10 and 20 percent, repeated, with one trade between runs
+     * so each run after the first refreshes the divergence index instead of rebuilding it.
+     *
+     * @param iterations The number of risk runs.
+     */
+    static void divergenceScan(int iterations) {
+        int accountId = setUpAccount("divergence", iterations * 10.0);
+        int[] tolerances = {2, 5, 10, 20};
+        long[] samples = new long[iterations * tolerances.length];
+        int divergent = 0;
+        for (int i = 0; i < iterations; i++) {
+            InvestmentFirm.tradeShares(accountId, SYMBOL, 1);
+            for (int t = 0; t < tolerances.length; t++) {
+                long start = System.nanoTime();
+                divergent = InvestmentFirm.divergentAccounts(tolerances[t]).size();
+                samples[i * tolerances.length + t] = System.nanoTime() - start;
+            }
+        }
+        reportLatency("divergentAccounts (last: " + divergent + ")", samples);
+    }
+    /**
+     * Times stockRecommendations, repeated, with one trade between calls so each call after the first reads
+     * a patched holdings snapshot instead of the one it built.
+     *
+     * @param iterations The number of recommendation calls.
+     */
+    static void recommendations(int iterations) {
+        int accountId = setUpAccount("recommend", iterations * 10.0);
+        long[] samples = new long[iterations];
+        int recommended = 0;
+        for (int i = 0; i < iterations; i++) {
+            InvestmentFirm.tradeShares(accountId, SYMBOL, 1);
+            long start = System.nanoTime();
+            recommended = InvestmentFirm.stockRecommendations(accountId, 5, 10).size();
+            samples[i] = System.nanoTime() - start;
+        }
+        reportLatency("stockRecommendations (last: " + recommended + ")", samples);
+        System.out.println("Holdings snapshot version: " + HoldingsSnapshot.version());
+    }
+    /**
+     * Times one dividend on the benchmark stock, paid to the given number of holders, half of which reinvest.
+     *
+     * @param iterations The number of holders.
+     */
+    static void dividendRun(int iterations) {
+        InvestmentFirm.defineSector(SECTOR);
+        InvestmentFirm.defineStock("Benchmark Corp", SYMBOL, SECTOR);
+        InvestmentFirm.setStockPrice(SYMBOL, 10.0);
+        int advisorId = InvestmentFirm.addAdvisor("bench-advisor");
+        for (int i = 0; i < iterations; i++) {
+            int clientId = InvestmentFirm.addClient("bench-client-dividend-" + i);
+            int accountId = InvestmentFirm.createAccount(clientId, advisorId, "bench-dividend-" + i, "bench", i % 2 == 0);
+            InvestmentFirm.tradeShares(accountId, "cash", 100);
+            InvestmentFirm.tradeShares(accountId, SYMBOL, 5);
+        }
+        long start = System.nanoTime();
+        InvestmentFirm.disburseDividend(SYMBOL, 0.37);
+        report("holders paid via disburseDividend", iterations, System.nanoTime() - start);
+    }
+    /**
+     * Times two dividends due today, on the benchmark stock and a second stock, paid to the given number of
+     * holders of both in one calendar pass.
+     *
+     * @param iterations The number of holders.
+     */
+    static void dividendCalendar(int iterations) {
+        String second = SYMBOL + "2";
+        InvestmentFirm.defineSector(SECTOR);
+        InvestmentFirm.defineStock("Benchmark Corp", SYMBOL, SECTOR);
+        InvestmentFirm.defineStock("Benchmark Two Corp", second, SECTOR);
+        InvestmentFirm.setStockPrice(SYMBOL, 10.0);
+        InvestmentFirm.setStockPrice(second, 20.0);
+        int advisorId = InvestmentFirm.addAdvisor("bench-advisor");
+        for (int i = 0; i < iterations; i++) {
+            int clientId = InvestmentFirm.addClient("bench-client-calendar-" + i);
+            int accountId = InvestmentFirm.createAccount(clientId, advisorId, "bench-calendar-" + i, "bench", i % 2 == 0);
+            InvestmentFirm.tradeShares(accountId, "cash", 200);
+            InvestmentFirm.tradeShares(accountId, SYMBOL, 5);
+            InvestmentFirm.tradeShares(accountId, second, 5);
+        }
+        LocalDate today = LocalDate.now();
+        InvestmentFirm.declareDividend(SYMBOL, 0.37, today, today);
+        InvestmentFirm.declareDividend(second, 0.52, today, today);
+        long start = System.nanoTime();
+        int paid = InvestmentFirm.payDueDividends();
+        report("holdings paid via payDueDividends (" + paid + " dividends)", 2L * iterations, System.nanoTime() - start);
+    }
+    /**
+     * Creates (or reuses) the benchmark stock and an account funded with the given cash.
+     *
+     * @param name The name that distinguishes this benchmark's client and account.
+     * @param cash The cash deposited into the account.
+     * @return     The ID of the benchmark account.
+     */
+    static int setUpAccount(String name, double cash) {
+        InvestmentFirm.defineSector(SECTOR);
+        InvestmentFirm.defineStock("Benchmark Corp", SYMBOL, SECTOR);
+        InvestmentFirm.setStockPrice(SYMBOL, 1.0);
+        int clientId = InvestmentFirm.addClient("bench-client-" + name);
+        int advisorId = InvestmentFirm.addAdvisor("bench-advisor");
+        int accountId = InvestmentFirm.createAccount(clientId, advisorId, "bench-" + name, "bench", false);
+        InvestmentFirm.tradeShares(accountId, "cash", (int) cash);
+        return accountId;
+    }
+
+    static void reportLatency(String label, long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-40s p50=%.3f ms, p90=%.3f ms, p99=%.3f ms, max=%.3f ms%n", label,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1_000_000.0);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    static void report(String label, long operations, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.printf("%-40s %8d ops in %8.3f s = %10.1f ops/s, %8.3f ms/op%n",
+                label, operations, seconds, operations / seconds, seconds * 1000 / operations);
+    }
+}
@@ -2,123 +2,44 @@ import java.sql.*;
 
 public class FirmDividendManager {
     /**
-     * Retrieves the fractional shares of the firm for a given stock symbol from the 'AccountFractionalShares' table in the database.
+     * Retrieves the fractional shares of the firm for a given stock symbol from the {@link FirmFractionalLedger}.
      *
      * @param stockSymbol The symbol of the stock for which to retrieve fractional shares.
-     * @param connect     The database connection.
+     * @param connect     The database connection, used only if the symbol has not been seen by this process.
      * @return            The fractional shares of the firm for the specified stock symbol.
      */
     static double getFirmFractionalShares(String stockSymbol, Connection connect) {
-
-        double fractionalShares = 0.0;
-        String sql = "SELECT fractionalShares FROM AccountFractionalShares WHERE stockSymbol = ?";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS AccountFractionalShares (stockSymbol VARCHAR(50),fractionalShares DECIMAL(10,4),PRIMARY KEY (stockSymbol),FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));");
-            try (PreparedStatement pstmt = connect.prepareStatement(sql)) {
-                pstmt.setString(1, stockSymbol);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    fractionalShares = rs.getDouble("fractionalShares");
-                }
-            } catch (SQLException e) {
-                System.out.println("Error fetching firm fractional shares: " + e.getMessage());
-            }
+        try {
+            return Quantity.toDouble(FirmFractionalLedger.held(SymbolDictionary.indexOf(stockSymbol, connect)));
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            System.out.println("Error fetching firm fractional shares: " + e.getMessage());
         }
-
-        return fractionalShares;
+        return 0.0;
     }
     /**
-     * Updates the fractional shares of the firm for a given stock symbol in the 'AccountFractionalShares' table in the database.
-     *
-     * @param stockSymbol  The symbol of the stock for which to update fractional shares.
-     * @param sharesChange The change in fractional shares to apply.
-     * @param connect      The database connection.
-     */
-    private static void updateFirmFractionalShares(String stockSymbol, double sharesChange, Connection connect) {
-        // Attempt to update an existing record
-//        String updateSql = "UPDATE FirmFractionalShares SET fractionalShares = fractionalShares + ? WHERE stockSymbol = ?";
-        String updateSql = "UPDATE FirmFractionalShares SET fractionalShares = ? WHERE stockSymbol = ?";
-        String insertSql = "INSERT INTO FirmFractionalShares (stockSymbol, fractionalShares) VALUES (?, ?) ON DUPLICATE KEY UPDATE fractionalShares = VALUES(fractionalShares)";
-
-        try (PreparedStatement pstmt = connect.prepareStatement(updateSql)) {
-            pstmt.setDouble(1, sharesChange);
-            pstmt.setString(2, stockSymbol);
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                // No existing record, so insert a new one
-                try (PreparedStatement insertStmt = connect.prepareStatement(insertSql)) {
-                    insertStmt.setString(1, stockSymbol);
-                    insertStmt.setDouble(2, sharesChange);
-                    insertStmt.executeUpdate();
-                }
-            }
-        } catch (SQLException e) {
-            System.out.println("Error updating firm fractional shares: " + e.getMessage());
-        }
-    }
-       /**
-     * Updates the fractional shares of an account for a given stock symbol in the 'Dividends' table in the database.
+     * Hands the fractional shares reinvested by a dividend out of the firm's pool for the stock, in the
+     * {@link FirmFractionalLedger}, and has the ledger flush mark the dividend's row settled.
+     * Call it once per dividend, after the update that finishes the dividend has committed.
      *
-     * @param stockSymbol  The symbol of the stock for which to update fractional shares.
-     * @param sharesChange The change in fractional shares to apply.
-     * @param connect      The database connection.
-     * @return             The difference between the requested shares change and the actual applied change.
+     * @param stockSymbol     The symbol of the stock the dividend was reinvested in.
+     * @param fractionalUnits The fractional shares handed out, in {@link Quantity} units.
+     * @param settledSql      The update that marks the dividend settled, with its ID as the only parameter.
+     * @param settlementId    The dividend's ID.
+     * @param connect         The database connection, used only if the symbol has not been seen by this process.
+     * @return                The number of whole shares the firm had to buy to cover them.
      */
-    static int updateAccountFractionalShares(String stockSymbol, double sharesChange, Connection connect) {
-        int stockId = StockTradingHelper.getStockIdFromSymbol(stockSymbol,connect);
-        String updateSql = "UPDATE Dividends SET shareOwned = ? WHERE stockId = ?";
-        String insertSql = "INSERT INTO Dividends (stockId, shareOwned) VALUES (?, ?) ON DUPLICATE KEY UPDATE shareOwned = VALUES(shareOwned)";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Dividends (firm_id INT AUTO_INCREMENT PRIMARY KEY,  stockId INT,shareOwned DECIMAL(10, 4),  FOREIGN KEY (stockId) REFERENCES stocks(stockID));");
-            double sharesFractionalInTheFirm = StockTradingHelper.getSharesOwned(stockSymbol,connect);
-            if (sharesFractionalInTheFirm > sharesChange){
-                try (PreparedStatement pstmt = connect.prepareStatement(updateSql)) {
-                    pstmt.setDouble(1, sharesChange);
-                    pstmt.setInt(2, stockId);
-//                pstmt.setString(3, stockSymbol);
-                    int affectedRows = pstmt.executeUpdate();
-                    if (affectedRows == 0) {
-                        // No existing record, so insert a new one
-                        try (PreparedStatement insertStmt = connect.prepareStatement(insertSql)) {
-                            insertStmt.setInt(1, stockId);
-                            insertStmt.setDouble(2, sharesFractionalInTheFirm-sharesChange);
-//                        insertStmt.setDouble(3, sharesChange);
-                            insertStmt.executeUpdate();
-                        }
-                    }
-                } catch (SQLException e) {
-                    System.out.println("Error updating account fractional shares: " + e.getMessage());
-                }
+    static int updateAccountFractionalShares(String stockSymbol, long fractionalUnits, String settledSql, int settlementId,
+                                             Connection connect) {
+        try {
+            int index = SymbolDictionary.indexOf(stockSymbol, connect);
+            if (index < 0) {
+                System.out.println("Error updating account fractional shares: unknown symbol " + stockSymbol);
                 return 0;
-            }else {
-                int roofDifference = (int) Math.ceil(sharesChange-sharesFractionalInTheFirm);
-                try (PreparedStatement pstmt = connect.prepareStatement(updateSql)) {
-                    pstmt.setDouble(1, (sharesFractionalInTheFirm + roofDifference) - sharesChange);
-                    pstmt.setInt(2, stockId);
-//                pstmt.setString(3, stockSymbol);
-                    int affectedRows = pstmt.executeUpdate();
-                    if (affectedRows == 0) {
-                        // No existing record, so insert a new one
-                        try (PreparedStatement insertStmt = connect.prepareStatement(insertSql)) {
-                            insertStmt.setInt(1, stockId);
-                            insertStmt.setDouble(2,(sharesFractionalInTheFirm + roofDifference) - sharesChange );
-//                        insertStmt.setDouble(3, sharesChange);
-                            insertStmt.executeUpdate();
-                        }
-                    }
-                } catch (SQLException e) {
-                    System.out.println("Error updating account fractional shares: " + e.getMessage());
-                }
-                return roofDifference;
             }
-
-
+            return (int) FirmFractionalLedger.settle(index, fractionalUnits, settledSql, settlementId);
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            System.out.println("Error updating account fractional shares: " + e.getMessage());
         }
-
-
+        return 0;
     }
 }
@@ -0,0 +1,316 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+/**
+ * In-memory ledger of the fractional shares the firm holds in each stock, so that the reinvested
+ * fractions of a dividend can be allocated from the firm's pool. Each stock's balance is one slot,
+ * at the stock's {@link SymbolDictionary} index, updated with a compare-and-set, so dividend partitions
+ * and calendar passes settling at the same time never wait on each other or on the database.
+ *
+ * Balances are written to FirmFractionalLedger in one batch by a background flush, which writes only
+ * the stocks that changed since the last flush, and read back by {@link #load(Connection)} at startup.
+ * A dividend is settled into the ledger after the transaction that completes it commits, and the flush that
+ * writes the settlement's balance marks the dividend's row settled in the same transaction. A crash before
+ * that flush leaves the row unsettled, and the owner replays it into the ledger at startup.
+ */
+public class FirmFractionalLedger {
+    static final String LOAD_SQL = "SELECT s.stockSymbol, l.heldUnits, l.sharesBought FROM FirmFractionalLedger l JOIN stocks s ON s.stockID = l.stockID";
+    static final String FLUSH_SQL = "INSERT INTO FirmFractionalLedger (stockID, heldUnits, sharesBought) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE heldUnits = VALUES(heldUnits), sharesBought = VALUES(sharesBought)";
+    // Slots per page; pages are never replaced, so growing the ledger cannot lose an update
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // Grown by copying the page references under the class lock; readers see either the old or the new array
+    private static volatile AtomicLongArray[] heldPages = new AtomicLongArray[0];
+    private static volatile AtomicLongArray[] boughtPages = new AtomicLongArray[0];
+    // Balances as last written by a flush; used only under the flush lock
+    private static final Object FLUSH_LOCK = new Object();
+    private static long[] flushedHeld = new long[0];
+    private static long[] flushedBought = new long[0];
+    // Settlements taken by a flush see every balance they changed; settling holds the read lock, taking them the write lock
+    private static final ReentrantReadWriteLock SETTLE_LOCK = new ReentrantReadWriteLock();
+    private static final ConcurrentLinkedQueue<Settlement> UNFLUSHED = new ConcurrentLinkedQueue<>();
+    private static Thread flusher;
+    /**
+     * Replaces the ledger's balances with those in the database.
+     *
+     * @param connect The database connection.
+     * @return        The number of stocks with a balance.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        int count = 0;
+        synchronized (FLUSH_LOCK) {
+            synchronized (FirmFractionalLedger.class) {
+                heldPages = new AtomicLongArray[0];
+                boughtPages = new AtomicLongArray[0];
+            }
+            flushedHeld = new long[0];
+            flushedBought = new long[0];
+            try (PreparedStatement pstmt = connect.prepareStatement(LOAD_SQL);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int index = SymbolDictionary.indexOf(rs.getString("stockSymbol"));
+                    if (index < 0) {
+                        continue;
+                    }
+                    long held = rs.getLong("heldUnits");
+                    long bought = rs.getLong("sharesBought");
+                    ensureCapacity(index);
+                    heldPages[index >>> PAGE_BITS].set(index & (PAGE_SIZE - 1), held);
+                    boughtPages[index >>> PAGE_BITS].set(index & (PAGE_SIZE - 1), bought);
+                    flushed(index, held, bought);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    /**
+     * Hands reinvested fractions of a stock out of the firm's pool. If the pool holds fewer units than
+     * are needed, the firm buys the whole shares that cover the shortfall and keeps what is left over.
+     *
+     * @param stockIndex The stock's index, as assigned by {@link SymbolDictionary}.
+     * @param units      The fractional units handed out, in {@link Quantity} units.
+     * @return           The number of whole shares the firm had to buy.
+     */
+    private static long allocate(int stockIndex, long units) {
+        if (stockIndex < 0 || units <= 0) {
+            return 0;
+        }
+        ensureCapacity(stockIndex);
+        int slot = stockIndex & (PAGE_SIZE - 1);
+        long before = heldPages[stockIndex >>> PAGE_BITS].getAndUpdate(slot, held -> held + sharesToBuy(held, units) * Quantity.ONE - units);
+        long bought = sharesToBuy(before, units);
+        if (bought > 0) {
+            boughtPages[stockIndex >>> PAGE_BITS].addAndGet(slot, bought);
+        }
+        return bought;
+    }
+    /**
+     * Settles a dividend's reinvested fractions into the ledger, as {@link #allocate(int, long)} does, and has
+     * the flush that writes the resulting balance mark the dividend settled in the same transaction.
+     *
+     * @param stockIndex   The stock's index, as assigned by {@link SymbolDictionary}.
+     * @param units        The fractional units handed out, in {@link Quantity} units.
+     * @param settledSql   The update that marks the dividend settled, with its ID as the only parameter.
+     * @param settlementId The dividend's ID.
+     * @return             The number of whole shares the firm had to buy.
+     */
+    static long settle(int stockIndex, long units, String settledSql, int settlementId) {
+        SETTLE_LOCK.readLock().lock();
+        try {
+            long bought = allocate(stockIndex, units);
+            UNFLUSHED.add(new Settlement(settledSql, settlementId));
+            return bought;
+        } finally {
+            SETTLE_LOCK.readLock().unlock();
+        }
+    }
+    /**
+     * Gets the fractional units of a stock the firm holds.
+     *
+     * @param stockIndex The stock's index, as assigned by {@link SymbolDictionary}.
+     * @return           The firm's balance in {@link Quantity} units, or 0 if it has never held the stock.
+     */
+    static long held(int stockIndex) {
+        AtomicLongArray[] pages = heldPages;
+        int page = stockIndex >>> PAGE_BITS;
+        return stockIndex < 0 || page >= pages.length ? 0 : pages[page].get(stockIndex & (PAGE_SIZE - 1));
+    }
+    /**
+     * Writes every balance that changed since the last flush in one batch and one transaction,
+     * together with the settled marks of the dividends settled since then.
+     *
+     * @param connect The database connection.
+     * @return        The number of stocks written.
+     * @throws SQLException If a database access error occurs; the balances are written by the next flush.
+     */
+    static int flush(Connection connect) throws SQLException {
+        synchronized (FLUSH_LOCK) {
+            List<Settlement> settlements = new ArrayList<>();
+            long[] heldUnits;
+            long[] sharesBought;
+            SETTLE_LOCK.writeLock().lock();
+            try {
+                for (Settlement settlement; (settlement = UNFLUSHED.poll()) != null; ) {
+                    settlements.add(settlement);
+                }
+                AtomicLongArray[] held = heldPages;
+                AtomicLongArray[] bought = boughtPages;
+                heldUnits = new long[held.length * PAGE_SIZE];
+                sharesBought = new long[heldUnits.length];
+                for (int index = 0; index < heldUnits.length; index++) {
+                    heldUnits[index] = held[index >>> PAGE_BITS].get(index & (PAGE_SIZE - 1));
+                    sharesBought[index] = bought[index >>> PAGE_BITS].get(index & (PAGE_SIZE - 1));
+                }
+            } finally {
+                SETTLE_LOCK.writeLock().unlock();
+            }
+            long[] writtenHeld = Arrays.copyOf(flushedHeld, heldUnits.length);
+            long[] writtenBought = Arrays.copyOf(flushedBought, heldUnits.length);
+            int count = 0;
+            try {
+                PreparedStatement pstmt = null;
+                for (int index = 0; index < heldUnits.length; index++) {
+                    if (heldUnits[index] == writtenHeld[index] && sharesBought[index] == writtenBought[index]) {
+                        continue;
+                    }
+                    if (pstmt == null) {
+                        pstmt = StatementCache.prepare(connect, FLUSH_SQL);
+                    }
+                    pstmt.setInt(1, SymbolDictionary.stockIdAt(index));
+                    pstmt.setLong(2, heldUnits[index]);
+                    pstmt.setLong(3, sharesBought[index]);
+                    pstmt.addBatch();
+                    writtenHeld[index] = heldUnits[index];
+                    writtenBought[index] = sharesBought[index];
+                    count++;
+                }
+                Map<String, PreparedStatement> marks = new LinkedHashMap<>();
+                for (Settlement settlement : settlements) {
+                    PreparedStatement mark = marks.get(settlement.settledSql);
+                    if (mark == null) {
+                        mark = StatementCache.prepare(connect, settlement.settledSql);
+                        marks.put(settlement.settledSql, mark);
+                    }
+                    mark.setInt(1, settlement.settlementId);
+                    mark.addBatch();
+                }
+                if (pstmt == null && marks.isEmpty()) {
+                    return 0;
+                }
+                connect.setAutoCommit(false);
+                if (pstmt != null) {
+                    pstmt.executeBatch();
+                }
+                for (PreparedStatement mark : marks.values()) {
+                    mark.executeBatch();
+                }
+                connect.commit();
+            } catch (SQLException e) {
+                try {
+                    connect.rollback();
+                } catch (SQLException se) {
+                    System.out.println("Rollback failed: " + se.getMessage());
+                }
+                // The next flush writes these balances again, so it marks these settlements too
+                UNFLUSHED.addAll(settlements);
+                throw e;
+            } finally {
+                try {
+                    connect.setAutoCommit(true);
+                } catch (SQLException e) {
+                    System.out.println("Failed to reset auto-commit: " + e.getMessage());
+                }
+            }
+            flushedHeld = writtenHeld;
+            flushedBought = writtenBought;
+            return count;
+        }
+    }
+    /**
+     * Starts flushing the ledger on a daemon thread at a fixed interval.
+     *
+     * @param pool           The pool the flush leases a connection from.
+     * @param intervalMillis The time between flushes.
+     */
+    static synchronized void startFlusher(ConnectionPool pool, long intervalMillis) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try (ConnectionPool.Lease lease = pool.lease()) {
+                    flush(lease.getConnection());
+                } catch (SQLException | RuntimeException e) {
+                    System.out.println("Flushing the firm fractional ledger failed: " + e.getMessage());
+                }
+            }
+        }, "fractional-ledger-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+    /**
+     * Stops the background flush and writes any balances it had not written yet.
+     *
+     * @param pool The pool to lease the final flush's connection from.
+     */
+    static void stopFlusher(ConnectionPool pool) {
+        synchronized (FirmFractionalLedger.class) {
+            if (flusher != null) {
+                flusher.interrupt();
+                flusher = null;
+            }
+        }
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            flush(lease.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Final flush of the firm fractional ledger failed: " + e.getMessage());
+        }
+    }
+
+    // Whole shares the firm buys to hand out units from a pool holding the given balance
+    private static long sharesToBuy(long held, long units) {
+        return held >= units ? 0 : (units - held + Quantity.ONE - 1) / Quantity.ONE;
+    }
+
+    private static void ensureCapacity(int stockIndex) {
+        int page = stockIndex >>> PAGE_BITS;
+        if (page < heldPages.length) {
+            return;
+        }
+        synchronized (FirmFractionalLedger.class) {
+            AtomicLongArray[] held = heldPages;
+            if (page < held.length) {
+                return;
+            }
+            AtomicLongArray[] bought = boughtPages;
+            AtomicLongArray[] grownHeld = Arrays.copyOf(held, page + 1);
+            AtomicLongArray[] grownBought = Arrays.copyOf(bought, page + 1);
+            for (int i = held.length; i <= page; i++) {
+                grownHeld[i] = new AtomicLongArray(PAGE_SIZE);
+                grownBought[i] = new AtomicLongArray(PAGE_SIZE);
+            }
+            // Publish the bought pages first, so any thread that sees a held page also sees its bought page
+            boughtPages = grownBought;
+            heldPages = grownHeld;
+        }
+    }
+
+    // Records a balance as already in the database; the caller holds the flush lock
+    private static void flushed(int index, long held, long bought) {
+        if (index >= flushedHeld.length) {
+            int size = (index / PAGE_SIZE + 1) * PAGE_SIZE;
+            flushedHeld = Arrays.copyOf(flushedHeld, size);
+            flushedBought = Arrays.copyOf(flushedBought, size);
+        }
+        flushedHeld[index] = held;
+        flushedBought[index] = bought;
+    }
+
+    private static class Settlement {
+        final String settledSql;
+        final int settlementId;
+
+        Settlement(String settledSql, int settlementId) {
+            this.settledSql = settledSql;
+            this.settlementId = settlementId;
+        }
+    }
+}
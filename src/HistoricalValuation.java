@@ -0,0 +1,121 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+/**
+ * Values accounts' current holdings at historical prices taken from the {@link PriceHistory}.
+ * Only prices have a history; positions do not. The cash and positions valued are always an account's current
+ * ones, read from the {@link ValuationCache} or, for accounts it does not hold, from the database. The result is
+ * therefore not what the account was worth on a past date, only what it holds today would have been worth then.
+ */
+public class HistoricalValuation {
+    static final String HOLDINGS_SQL = "SELECT a.cashBalance, p.stockSymbol, p.sharesOwned " +
+            "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID WHERE a.accountID = ?";
+    private static final long UNRESOLVED = -2;
+    /**
+     * Values one account's current cash and positions at the prices of a day.
+     *
+     * @param accountId The account.
+     * @param epochDay  The day, as {@link LocalDate#toEpochDay()}.
+     * @param history   The price history.
+     * @param connect   The database connection, used for accounts the valuation cache does not hold.
+     * @return          The value in cents, or empty if the account does not exist.
+     * @throws SQLException If a database access error occurs, or a held stock has no price on or before the day.
+     */
+    static OptionalLong currentHoldingsValueAt(int accountId, long epochDay, PriceHistory history, Connection connect) throws SQLException {
+        ValuationCache.Holdings holdings = holdings(accountId, connect);
+        if (holdings == null) {
+            return OptionalLong.empty();
+        }
+        long value = holdings.cash;
+        for (int i = 0; i < holdings.size; i++) {
+            int index = holdings.stockIndexes[i];
+            value += Money.times(priceAsOf(index, epochDay, history), holdings.units[i]);
+        }
+        return OptionalLong.of(value);
+    }
+    /**
+     * Values many accounts' current cash and positions at the prices of a day, looking each stock's price up once.
+     *
+     * @param accountIds The accounts.
+     * @param epochDay   The day, as {@link LocalDate#toEpochDay()}.
+     * @param history    The price history.
+     * @param connect    The database connection, used for accounts the valuation cache does not hold.
+     * @return           The value in cents of each account that exists.
+     * @throws SQLException If a database access error occurs, or a held stock has no price on or before the day.
+     */
+    static Map<Integer, Long> currentHoldingsValuesAt(Collection<Integer> accountIds, long epochDay, PriceHistory history, Connection connect) throws SQLException {
+        long[] prices = new long[SymbolDictionary.size()];
+        Arrays.fill(prices, UNRESOLVED);
+        Map<Integer, Long> values = new HashMap<>(accountIds.size() * 2);
+        for (int accountId : accountIds) {
+            ValuationCache.Holdings holdings = holdings(accountId, connect);
+            if (holdings == null) {
+                continue;
+            }
+            long value = holdings.cash;
+            for (int i = 0; i < holdings.size; i++) {
+                int index = holdings.stockIndexes[i];
+                if (index >= prices.length) {
+                    int resolved = prices.length;
+                    prices = Arrays.copyOf(prices, SymbolDictionary.size());
+                    Arrays.fill(prices, resolved, prices.length, UNRESOLVED);
+                }
+                if (prices[index] == UNRESOLVED) {
+                    prices[index] = priceAsOf(index, epochDay, history);
+                }
+                value += Money.times(prices[index], holdings.units[i]);
+            }
+            values.put(accountId, value);
+        }
+        return values;
+    }
+    /**
+     * Gets a stock's price as of a day.
+     *
+     * @param stockIndex The stock's dense index in the {@link SymbolDictionary}.
+     * @param epochDay   The day, as {@link LocalDate#toEpochDay()}.
+     * @param history    The price history.
+     * @return           The price in cents.
+     * @throws SQLException If the stock has no price on or before the day.
+     */
+    static long priceAsOf(int stockIndex, long epochDay, PriceHistory history) throws SQLException {
+        long price = history.priceAsOf(SymbolDictionary.stockIdAt(stockIndex), epochDay);
+        if (price == PriceHistory.NO_PRICE) {
+            throw new SQLException("No price history for " + SymbolDictionary.symbolAt(stockIndex)
+                    + " on or before " + LocalDate.ofEpochDay(epochDay));
+        }
+        return price;
+    }
+
+    private static ValuationCache.Holdings holdings(int accountId, Connection connect) throws SQLException {
+        ValuationCache.Holdings holdings = ValuationCache.holdings(accountId);
+        if (holdings != null) {
+            return holdings;
+        }
+        PreparedStatement pstmt = StatementCache.prepare(connect, HOLDINGS_SQL);
+        pstmt.setInt(1, accountId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (holdings == null) {
+                    holdings = new ValuationCache.Holdings(Money.read(rs, "cashBalance"), 4);
+                }
+                String symbol = rs.getString("stockSymbol");
+                if (symbol != null) {
+                    int index = SymbolDictionary.indexOf(symbol, connect);
+                    if (index < 0) {
+                        throw new SQLException("Account " + accountId + " holds unknown stock " + symbol);
+                    }
+                    holdings.add(index, Quantity.read(rs, "sharesOwned"));
+                }
+            }
+        }
+        return holdings;
+    }
+}
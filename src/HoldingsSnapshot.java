@@ -0,0 +1,137 @@
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * Shares owned by every account with a position, as vectors indexed by {@link SymbolDictionary} index,
+ * built with one scan of AccountStocks the first time recommendations need them and shared by every
+ * call after that. Trades patch the snapshot after they commit, so it never has to be rescanned.
+ *
+ * Each account's vector is replaced, never modified, when one of its positions changes, so a reader
+ * always sees a whole vector, and the version goes up with every patch. Positions written by another
+ * process are not seen until {@link #invalidate()} is called; the next read then rebuilds the snapshot.
+ *
+ * The scan runs without the class lock. Patches that commit while it runs are buffered and replayed onto
+ * its result; patches that commit while no snapshot is built or being built are dropped, since the next
+ * build reads them from the database.
+ */
+public class HoldingsSnapshot {
+    private static final ConcurrentHashMap<Integer, double[]> VECTORS = new ConcurrentHashMap<>();
+    private static final Map<Integer, double[]> VIEW = Collections.unmodifiableMap(VECTORS);
+    private static final AtomicLong VERSION = new AtomicLong();
+    // Patches that commit while the snapshot is being built, replayed onto the scan once it finishes; guarded by the class lock
+    private static final List<Object[]> PENDING = new ArrayList<>();
+    private static volatile boolean built;
+    // Whether a scan is running, and how many times the snapshot has been invalidated; guarded by the class lock
+    private static boolean building;
+    private static long invalidations;
+    /**
+     * Gets every account's vector, building the snapshot first if it has not been built.
+     *
+     * @param connect The database connection, used only to build the snapshot.
+     * @return        An unmodifiable live view of each account ID mapped to its shares owned per stock index.
+     * @throws RuntimeException If the snapshot cannot be built.
+     */
+    static Map<Integer, double[]> vectors(Connection connect) {
+        if (!built) {
+            build(connect);
+        }
+        return VIEW;
+    }
+    /**
+     * Records a position after the trade that changed it committed.
+     *
+     * @param accountId   The account.
+     * @param stockSymbol The stock traded.
+     * @param units       The quantity now held, in {@link Quantity} units.
+     */
+    static void positionCommitted(int accountId, String stockSymbol, long units) {
+        int index = SymbolDictionary.indexOf(stockSymbol);
+        if (index < 0) {
+            return;
+        }
+        double shares = Quantity.toDouble(units);
+        if (!built) {
+            synchronized (HoldingsSnapshot.class) {
+                if (building) {
+                    PENDING.add(new Object[] {accountId, index, shares});
+                    return;
+                }
+                if (!built) {
+                    return;
+                }
+            }
+        }
+        patch(accountId, index, shares);
+    }
+    /**
+     * Drops the snapshot, so the next read rebuilds it from the database.
+     */
+    static synchronized void invalidate() {
+        built = false;
+        invalidations++;
+    }
+    /**
+     * Gets the snapshot's version, which goes up with every rebuild and every patch.
+     *
+     * @return The version.
+     */
+    static long version() {
+        return VERSION.get();
+    }
+
+    private static void build(Connection connect) {
+        long started;
+        synchronized (HoldingsSnapshot.class) {
+            // Wait for a build already running rather than scanning twice
+            while (building) {
+                try {
+                    HoldingsSnapshot.class.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted waiting for the holdings snapshot", e);
+                }
+            }
+            if (built) {
+                return;
+            }
+            building = true;
+            started = invalidations;
+        }
+        Map<Integer, double[]> scanned = null;
+        try {
+            scanned = StockVectorsCreator.createIndexedStockVectors(connect);
+        } finally {
+            synchronized (HoldingsSnapshot.class) {
+                if (scanned != null) {
+                    VECTORS.clear();
+                    VECTORS.putAll(scanned);
+                    for (Object[] pending : PENDING) {
+                        patch((Integer) pending[0], (Integer) pending[1], (Double) pending[2]);
+                    }
+                    VERSION.incrementAndGet();
+                    // An invalidation during the scan may have come after rows it read, so the next read scans again
+                    built = started == invalidations;
+                }
+                PENDING.clear();
+                building = false;
+                HoldingsSnapshot.class.notifyAll();
+            }
+        }
+    }
+
+    // Replaces the account's vector with a copy holding the new quantity
+    private static void patch(int accountId, int index, double shares) {
+        VECTORS.compute(accountId, (k, vector) -> {
+            double[] patched = vector == null ? new double[Math.max(index + 1, SymbolDictionary.size())]
+                    : Arrays.copyOf(vector, Math.max(index + 1, vector.length));
+            patched[index] = shares;
+            return patched;
+        });
+        VERSION.incrementAndGet();
+    }
+}
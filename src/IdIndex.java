@@ -0,0 +1,168 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * Bitset of the IDs that exist in one table, so existence checks are answered from memory.
+ * Bits are only ever set: rows are never deleted through the API. An ID that is not in the index is
+ * checked against the database once before it is reported missing, in case another process inserted it.
+ */
+public class IdIndex {
+    private final String table;
+    private final String idColumn;
+    private final String loadSql;
+    private final String lookupSql;
+    // Grown by copying under the index's lock; readers see either the old or the new array
+    private volatile AtomicLongArray words = new AtomicLongArray(16);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Creates an empty index over the given table's integer primary key.
+     *
+     * @param table    The table name.
+     * @param idColumn The name of the integer ID column.
+     */
+    public IdIndex(String table, String idColumn) {
+        this.table = table;
+        this.idColumn = idColumn;
+        this.loadSql = "SELECT " + idColumn + " FROM " + table;
+        this.lookupSql = "SELECT 1 FROM " + table + " WHERE " + idColumn + " = ?";
+    }
+    /**
+     * Adds every ID in the table to the index.
+     *
+     * @param connect The database connection.
+     * @return        The number of IDs read.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int load(Connection connect) throws SQLException {
+        int count = 0;
+        try (PreparedStatement pstmt = connect.prepareStatement(loadSql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                add(rs.getInt(1));
+                count++;
+            }
+        }
+        return count;
+    }
+    /**
+     * Records an ID that has just been inserted.
+     *
+     * @param id The new ID; negative IDs are ignored.
+     */
+    public synchronized void add(int id) {
+        if (id < 0) {
+            return;
+        }
+        int word = id >>> 6;
+        AtomicLongArray current = words;
+        if (word >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            words = grown;
+            current = grown;
+        }
+        current.getAndAccumulate(word, 1L << id, (a, b) -> a | b);
+    }
+    /**
+     * Checks whether an ID exists, from memory when it is indexed.
+     *
+     * @param id      The ID to check.
+     * @param connect The database connection, used only for IDs not in the index.
+     * @return        True if the ID exists.
+     */
+    public boolean contains(int id, Connection connect) {
+        if (containsIndexed(id)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(connect, lookupSql);
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    add(id);
+                    return true;
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Error checking " + table + " existence: " + e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Compares the index with the table and adds any IDs the index is missing.
+     *
+     * @param connect The database connection.
+     * @return        The number of discrepancies found: IDs missing from the index plus indexed IDs missing from the table.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int reconcile(Connection connect) throws SQLException {
+        BitSet inTable = new BitSet();
+        try (PreparedStatement pstmt = connect.prepareStatement(loadSql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                inTable.set(rs.getInt(1));
+            }
+        }
+        BitSet indexed = snapshot();
+        BitSet missing = (BitSet) inTable.clone();
+        missing.andNot(indexed);
+        BitSet stale = (BitSet) indexed.clone();
+        stale.andNot(inTable);
+        for (int id = missing.nextSetBit(0); id >= 0; id = missing.nextSetBit(id + 1)) {
+            add(id);
+        }
+        if (!missing.isEmpty() || !stale.isEmpty()) {
+            System.out.println(table + " index: " + missing.cardinality() + " " + idColumn + "(s) added, "
+                    + stale.cardinality() + " indexed but not in the table: " + stale);
+        }
+        return missing.cardinality() + stale.cardinality();
+    }
+    /**
+     * Gets the number of checks answered from memory.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+    /**
+     * Gets the number of checks that had to query the database.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IdIndex[%s, ids=%d, hits=%d, misses=%d]", table, snapshot().cardinality(), getHitCount(), getMissCount());
+    }
+
+    private boolean containsIndexed(int id) {
+        if (id < 0) {
+            return false;
+        }
+        AtomicLongArray current = words;
+        int word = id >>> 6;
+        return word < current.length() && (current.get(word) & (1L << id)) != 0;
+    }
+
+    private BitSet snapshot() {
+        AtomicLongArray current = words;
+        long[] copy = new long[current.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = current.get(i);
+        }
+        return BitSet.valueOf(copy);
+    }
+}
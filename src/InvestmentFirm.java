@@ -1,13 +1,84 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class InvestmentFirm {
     // Define the path to the properties file
     static String propertyFilename = "G:/SDC_Project/vedant/src/sample.prop";
     // Load the database configuration from the properties file
     static DBConfig config = new DBConfig(propertyFilename);
-    // Establish a connection to the database using the configuration
-    public static Connection connect = DBConnection.getConnection(config.getDbUrl(), config.getUsername(), config.getPassword());
+    // Pool of database connections; every public API call leases its own connection
+    public static ConnectionPool pool = DBConnection.createPool(config);
+    // Serialises trades on the same account while trades on different accounts run in parallel
+    static AccountLocks accountLocks = new AccountLocks(config.getLockStripes());
+    // Runs trades submitted through submitTrade; its queue depth, in-flight count and latency are public for monitoring
+    public static TradeExecutor tradeExecutor = new TradeExecutor(config.getTradeQueueCapacity(), config.getPoolSize());
+    // Durable trade journal and its background applier; both stay null unless tradeJournalDir is configured
+    public static TradeJournal tradeJournal;
+    public static TradeJournalApplier journalApplier;
+    // Daily price history for point-in-time valuation; stays null unless priceHistoryDir is configured
+    public static PriceHistory priceHistory;
+    // Pays declared dividends on their pay date; its thread runs unless dividendCalendarPollMillis is 0
+    public static DividendCalendar dividendCalendar = new DividendCalendar(pool, accountLocks, config.getTradeBatchSize(),
+            config.getDividendCalendarPollMillis());
+    // Bring the schema up to date once, before any API call runs, then replay any journaled trades not yet applied
+    static {
+        long appliedSequence;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            SchemaManager.migrate(lease.getConnection());
+            SymbolDictionary.load(lease.getConnection());
+            ProfileRegistry.load(lease.getConnection());
+            AccountCheck.loadIndexes(lease.getConnection());
+            PriceBoard.load(lease.getConnection());
+            AumRollup.load(lease.getConnection());
+            ValuationCache.load(lease.getConnection());
+            FirmFractionalLedger.load(lease.getConnection());
+            // Settle dividends finished before a crash whose settlement never reached the ledger table
+            DividendRun.replaySettlements(lease.getConnection());
+            DividendCalendar.replaySettlements(lease.getConnection());
+            FirmFractionalLedger.flush(lease.getConnection());
+            appliedSequence = TradeJournalApplier.readCheckpoint(lease.getConnection());
+        } catch (SQLException e) {
+            throw new RuntimeException("Loading startup state failed", e);
+        }
+        if (!config.getTradeJournalDir().isEmpty()) {
+            try {
+                tradeJournal = new TradeJournal(Paths.get(config.getTradeJournalDir()), config.getTradeJournalSegmentRecords(), appliedSequence);
+            } catch (IOException e) {
+                throw new RuntimeException("Opening the trade journal failed", e);
+            }
+            journalApplier = new TradeJournalApplier(tradeJournal, appliedSequence, pool, accountLocks,
+                    config.getTradeBatchSize(), config.getTradeCommitInterval());
+            journalApplier.start();
+        }
+        if (!config.getPriceHistoryDir().isEmpty()) {
+            try {
+                priceHistory = new PriceHistory(Paths.get(config.getPriceHistoryDir()));
+            } catch (IOException e) {
+                throw new RuntimeException("Opening the price history failed", e);
+            }
+            // Start any stock with no history from its current price, so as-of queries from today on can value it
+            long today = LocalDate.now().toEpochDay();
+            for (int index = 0; index < SymbolDictionary.size(); index++) {
+                int stockId = SymbolDictionary.stockIdAt(index);
+                OptionalLong cents = PriceBoard.peekCents(SymbolDictionary.symbolAt(index));
+                if (priceHistory.size(stockId) == 0 && cents.isPresent()) {
+                    priceHistory.record(stockId, today, cents.getAsLong());
+                }
+            }
+            priceHistory.force();
+        }
+        FirmFractionalLedger.startFlusher(pool, config.getFractionalLedgerFlushMillis());
+        // Write the fractional shares allocated since the last flush before the process exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> FirmFractionalLedger.stopFlusher(pool), "fractional-ledger-shutdown"));
+        if (config.getDividendCalendarPollMillis() > 0) {
+            dividendCalendar.start();
+        }
+    }
     // Create an instance of the ShareTrader class
     ShareTrader shareTrader;
     // Constructor for the InvestmentFirm class
@@ -22,36 +93,39 @@ public class InvestmentFirm {
      *                   Must not be null or empty.
      */
     public static void defineSector(String sectorName) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            defineSector(sectorName, lease.getConnection());
+        }
+    }
+    // Inserts the sector, and the Cash sector on first use, registering each one's ordinal
+    static void defineSector(String sectorName, Connection connect) {
         if (sectorName == null || sectorName.isEmpty()) {
             return;
         }
 
-        // Ensure the sectors table exists
-        String createTableSQL = "CREATE TABLE IF NOT EXISTS sectors (sectorID INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255) NOT NULL UNIQUE);";
         // SQL statement to insert a new sector
         String insertSectorSQL = "INSERT INTO sectors (name) VALUES (?);";
         // SQL statement to check if the "Cash" sector exists
         String checkCashSQL = "SELECT COUNT(*) AS count FROM sectors WHERE name = 'Cash';";
 
         try (Statement statement = connect.createStatement()) {
-            // Create the sectors table if it doesn't exist
-            statement.execute(createTableSQL);
-
             // Check if the "Cash" sector exists
             ResultSet rs = statement.executeQuery(checkCashSQL);
             boolean cashExists = rs.next() && rs.getInt("count") > 0;
 
             // Use try-with-resources statement to automatically close PreparedStatement
-            try (PreparedStatement pstmt = connect.prepareStatement(insertSectorSQL)) {
+            try (PreparedStatement pstmt = connect.prepareStatement(insertSectorSQL, Statement.RETURN_GENERATED_KEYS)) {
                 // Add the default "Cash" sector if it doesn't exist
                 if (!cashExists) {
                     pstmt.setString(1, "Cash");
                     pstmt.executeUpdate(); // Execute the insert operation
+                    registerSector(pstmt, "Cash");
                 }
 
                 // Add the passed sector
                 pstmt.setString(1, sectorName); // Set the sector name parameter
                 pstmt.executeUpdate(); // Execute the insert operation
+                registerSector(pstmt, sectorName);
             }
         } catch (SQLException e) {
             System.out.println("Failed to define sector: " + sectorName);
@@ -59,6 +133,15 @@ public class InvestmentFirm {
         }
     }
 
+    // Gives a newly inserted sector its ordinal in the profile registry
+    private static void registerSector(PreparedStatement insert, String sectorName) throws SQLException {
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            if (keys.next()) {
+                ProfileRegistry.registerSector(keys.getInt(1), sectorName);
+            }
+        }
+    }
+
     /**
      * Defines a new stock in the database with the given company name, stock symbol, and sector.
      *
@@ -67,41 +150,46 @@ public class InvestmentFirm {
      * @param sector The sector to which the stock belongs.
      */
     public static void defineStock(String companyName, String stockSymbol, String sector) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            defineStock(companyName, stockSymbol, sector, lease.getConnection());
+        }
+    }
+    // Inserts the stock under an existing sector and adds it to the symbol dictionary
+    static void defineStock(String companyName, String stockSymbol, String sector, Connection connect) {
 
         if (companyName == null || companyName.isEmpty() || stockSymbol == null || stockSymbol.isEmpty() || sector == null || sector.isEmpty()) {
             return;
         }
         String getSectorIDSQL = "SELECT sectorID FROM sectors WHERE name = ?;";
         String insertStockSQL = "INSERT INTO stocks (companyName, stockSymbol, sectorID, currentPrice) VALUES (?, ?, ?, 1);";
-        try(Statement statement = connect.createStatement()){
-            statement.executeUpdate("CREATE TABLE IF NOT EXISTS stocks (stockID INT AUTO_INCREMENT PRIMARY KEY, companyName VARCHAR(255), stockSymbol VARCHAR(50) UNIQUE NOT NULL, sectorID INT, currentPrice DECIMAL(10,2), FOREIGN KEY (sectorID) REFERENCES sectors(sectorID));");
-
-            try (PreparedStatement getSectorStmt = connect.prepareStatement(getSectorIDSQL)) {
+        try (PreparedStatement getSectorStmt = connect.prepareStatement(getSectorIDSQL)) {
 
             getSectorStmt.setString(1, sector);
             ResultSet rs = getSectorStmt.executeQuery();
 
             if (rs.next()) {
                 int sectorID = rs.getInt("sectorID");
-                try (PreparedStatement insertStockStmt = connect.prepareStatement(insertStockSQL)) {
+                try (PreparedStatement insertStockStmt = connect.prepareStatement(insertStockSQL, Statement.RETURN_GENERATED_KEYS)) {
                     insertStockStmt.setString(1, companyName);
                     insertStockStmt.setString(2, stockSymbol);
                     insertStockStmt.setInt(3, sectorID);
                     insertStockStmt.executeUpdate();
+                    try (ResultSet keys = insertStockStmt.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            SymbolDictionary.register(keys.getInt(1), stockSymbol);
+                        }
+                    }
+                    PriceBoard.update(stockSymbol, Money.ONE);
+                    recordPrice(stockSymbol, Money.ONE);
                 }catch (SQLException exception){
                     System.out.println("Stock already exists " + exception.getMessage());
                     System.out.println("Stock not defined: " + companyName + " (" + stockSymbol + ") in sector " + sector);
                 }
-            }else {
-
             }
-            } catch (SQLException e) {
-             System.out.println("Failed to define stock: " + stockSymbol);
+        } catch (SQLException e) {
+            System.out.println("Failed to define stock: " + stockSymbol);
             e.printStackTrace();
         }
-      } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
     }
     /**
      * Sets the price per share for a specified stock symbol in the database.
@@ -110,6 +198,12 @@ public class InvestmentFirm {
      * @param perSharePrice The new price per share to set for the stock.
      */
     public static void setStockPrice(String stockSymbol, double perSharePrice) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            setStockPrice(stockSymbol, perSharePrice, lease.getConnection());
+        }
+    }
+    // Writes the price, then updates the board, the caches and the price history
+    static void setStockPrice(String stockSymbol, double perSharePrice, Connection connect) {
         if (stockSymbol == null){
             return;
         }
@@ -121,29 +215,74 @@ public class InvestmentFirm {
         }
         // SQL statement to update the stock price
         String updatePriceSQL = "UPDATE stocks SET currentPrice = ? WHERE stockSymbol = ?;";
-        try(Statement statement = connect.createStatement()) {
-            statement.execute("ALTER TABLE stocks ADD COLUMN IF NOT EXISTS currentPrice DECIMAL(10, 2);");
-            try (PreparedStatement pstmt = connect.prepareStatement(updatePriceSQL)) {
-                // Set the per share price and stock symbol in the PreparedStatement
-                pstmt.setDouble(1, perSharePrice);
-                pstmt.setString(2, stockSymbol);
-
-                // Execute the update
-                int affectedRows = pstmt.executeUpdate();
-
-                if (affectedRows > 0) {
-                    System.out.println("Updated stock price for " + stockSymbol + " to " + perSharePrice);
-                } else {
-                    System.out.println("Stock symbol not found: " + stockSymbol);
-                }
-            } catch (SQLException e) {
-                System.out.println("Failed to set stock price for " + stockSymbol);
-                e.printStackTrace();
+        try (PreparedStatement pstmt = connect.prepareStatement(updatePriceSQL)) {
+            // Set the per share price and stock symbol in the PreparedStatement
+            long priceCents = Money.of(perSharePrice);
+            Money.bind(pstmt, 1, priceCents);
+            pstmt.setString(2, stockSymbol);
+
+            // Execute the update
+            int affectedRows = pstmt.executeUpdate();
+
+            if (affectedRows > 0) {
+                PriceBoard.update(stockSymbol, priceCents);
+                ValuationCache.priceChanged(stockSymbol);
+                DivergenceIndex.priceChanged(stockSymbol);
+                recordPrice(stockSymbol, priceCents);
+                System.out.println("Updated stock price for " + stockSymbol + " to " + perSharePrice);
+            } else {
+                System.out.println("Stock symbol not found: " + stockSymbol);
             }
-        }catch (SQLException e) {
-            throw new RuntimeException(e);
+        } catch (SQLException e) {
+            System.out.println("Failed to set stock price for " + stockSymbol);
+            e.printStackTrace();
         }
     }
+    /**
+     * Sets the price per share of many stocks in one transaction, with a JDBC batch.
+     * Symbols that differ only in case are treated as one stock, and the last price given wins.
+     *
+     * @param prices The new price per share of each stock symbol; null and negative prices are skipped.
+     * @return The number of stocks whose price was set, or -1 if the update failed and nothing was changed.
+     */
+    public static int setStockPrices(Map<String, Double> prices) {
+        if (prices == null) {
+            return 0;
+        }
+        PriceFeedLoader.PriceFeed feed;
+        int written;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            feed = PriceFeedLoader.of(prices, lease.getConnection());
+            written = PriceFeedLoader.apply(feed, config.getTradeBatchSize(), priceHistory, lease.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Failed to set stock prices: " + e.getMessage());
+            return -1;
+        }
+        return written;
+    }
+    /**
+     * Loads closing prices from a file of {@code symbol,price} lines and applies them like {@link #setStockPrices(Map)}.
+     * Blank lines are ignored; lines without a valid non-negative price, such as a header, are counted as malformed.
+     *
+     * @param fileName The path of the price file.
+     * @return The number of stocks whose price was set, or -1 if the file could not be read or the update failed.
+     */
+    public static int loadClosingPrices(String fileName) {
+        long start = System.nanoTime();
+        PriceFeedLoader.PriceFeed feed;
+        int written;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            feed = PriceFeedLoader.parse(Paths.get(fileName), lease.getConnection());
+            written = PriceFeedLoader.apply(feed, config.getTradeBatchSize(), priceHistory, lease.getConnection());
+        } catch (IOException | SQLException e) {
+            System.out.println("Failed to load closing prices from " + fileName + ": " + e.getMessage());
+            return -1;
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("Loaded %d prices from %s in %.3f s (%.0f rows/s): %s%n",
+                written, fileName, seconds, feed.lines / seconds, feed);
+        return written;
+    }
     /**
      * Defines a new investment profile with the given profile name and sector holdings.
      *
@@ -151,6 +290,12 @@ public class InvestmentFirm {
      * @param sectorHoldings A map containing sector names as keys and their corresponding percentage holdings as values.
      */
     public static void defineProfile(String profileName, Map<String, Integer> sectorHoldings) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            defineProfile(profileName, sectorHoldings, lease.getConnection());
+        }
+    }
+    // Inserts the profile and its sector targets, then registers it; an existing profile is left as it is
+    static void defineProfile(String profileName, Map<String, Integer> sectorHoldings, Connection connect) {
         if (profileName == null){
             return;
         }
@@ -167,32 +312,17 @@ public class InvestmentFirm {
         String insertProfileSQL = "INSERT INTO Profiles (profileName) VALUES (?);";
         String insertProfileSectorSQL = "INSERT INTO ProfileSectors (profileID, sectorID, percentage) VALUES (?, ?, ?);";
         String getSectorIDSQL = "SELECT sectorID FROM sectors WHERE name = ?;";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Profiles (profileID INT AUTO_INCREMENT PRIMARY KEY,profileName VARCHAR(255) UNIQUE NOT NULL);");
-            try (PreparedStatement checkProfileStmt = connect.prepareStatement(checkProfileExistsSQL)) {
-                checkProfileStmt.setString(1, profileName);
-                ResultSet rs = checkProfileStmt.executeQuery();
-                if (rs.next()) {
-                    return; // Exit the method if profile exists
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+        try (PreparedStatement checkProfileStmt = connect.prepareStatement(checkProfileExistsSQL)) {
+            checkProfileStmt.setString(1, profileName);
+            ResultSet rs = checkProfileStmt.executeQuery();
+            if (rs.next()) {
+                return; // Exit the method if profile exists
             }
-        }catch (SQLException e) {
+        } catch (SQLException e) {
             throw new RuntimeException(e);
         }
 
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Profiles (profileID INT AUTO_INCREMENT PRIMARY KEY,profileName VARCHAR(255) UNIQUE NOT NULL);");
-            statement.execute("CREATE TABLE IF NOT EXISTS ProfileSectors (" +
-                    "profileID INT, " +
-                    "sectorID INT, " +
-                    "percentage INT, " +
-                    "PRIMARY KEY (profileID, sectorID), " +
-                    "FOREIGN KEY (profileID) REFERENCES Profiles(profileID), " +
-                    "FOREIGN KEY (sectorID) REFERENCES sectors(sectorID));");
-            try (PreparedStatement insertProfileStmt = connect.prepareStatement(insertProfileSQL, Statement.RETURN_GENERATED_KEYS)) {
-
+        try (PreparedStatement insertProfileStmt = connect.prepareStatement(insertProfileSQL, Statement.RETURN_GENERATED_KEYS)) {
             // Insert the profile
             insertProfileStmt.setString(1, profileName);
             int affectedRows = insertProfileStmt.executeUpdate();
@@ -256,6 +386,8 @@ public class InvestmentFirm {
                             }
                         }
                     }
+                    // Profiles never change once defined, so the registry reads this one back only once
+                    ProfileRegistry.profileDefined(profileName, connect);
                 } else {
                     throw new SQLException("Creating profile failed, no ID obtained.");
                 }
@@ -264,9 +396,6 @@ public class InvestmentFirm {
             System.out.println("Failed to define profile: " + profileName);
             e.printStackTrace();
         }
-      } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
     }
     /**
      * Adds an advisor with the given name to the database.
@@ -275,6 +404,12 @@ public class InvestmentFirm {
      * @return The advisor's ID if added successfully, -1 otherwise.
      */
     public static int addAdvisor(String advisorName) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return addAdvisor(advisorName, lease.getConnection());
+        }
+    }
+    // Returns the existing advisor's ID when the name is already taken
+    static int addAdvisor(String advisorName, Connection connect) {
         if (advisorName == null){
             return -1;
         }
@@ -282,14 +417,13 @@ public class InvestmentFirm {
             return -1;
         }
         String insertAdvisorSQL = "INSERT INTO Advisors (advisorName) VALUES (?) ON DUPLICATE KEY UPDATE advisorID=LAST_INSERT_ID(advisorID);";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Advisors (advisorID INT AUTO_INCREMENT PRIMARY KEY,advisorName VARCHAR(255) NOT NULL UNIQUE);");
         try (PreparedStatement pstmt = connect.prepareStatement(insertAdvisorSQL, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, advisorName);
             pstmt.executeUpdate();
             try (ResultSet rs = pstmt.getGeneratedKeys()) {
                 if (rs.next()) {
                     int advisorID = rs.getInt(1);
+                    AccountCheck.ADVISORS.add(advisorID);
                     return advisorID;
                 }
             }
@@ -298,10 +432,6 @@ public class InvestmentFirm {
             System.out.println("Failed to add advisor: " + advisorName);
             e.printStackTrace();
         }
-
-    } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
         return -1; // Indicating failure
     }
     /**
@@ -311,6 +441,12 @@ public class InvestmentFirm {
      * @return The client's ID if added successfully, -1 otherwise.
      */
     public static int addClient(String clientName) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return addClient(clientName, lease.getConnection());
+        }
+    }
+    // Returns the existing client's ID when the name is already taken
+    static int addClient(String clientName, Connection connect) {
         if (clientName == null){
             return -1;
         }
@@ -318,25 +454,20 @@ public class InvestmentFirm {
             return -1;
         }
         String insertClientSQL = "INSERT INTO Clients (clientName) VALUES (?) ON DUPLICATE KEY UPDATE clientID=LAST_INSERT_ID(clientID);";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Clients (clientID INT AUTO_INCREMENT PRIMARY KEY,clientName VARCHAR(255) NOT NULL UNIQUE);");
-            try (PreparedStatement pstmt = connect.prepareStatement(insertClientSQL, Statement.RETURN_GENERATED_KEYS)) {
-                pstmt.setString(1, clientName);
-                pstmt.executeUpdate();
-                try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        int clientID = rs.getInt(1);
-                        return clientID;
-                    }
+        try (PreparedStatement pstmt = connect.prepareStatement(insertClientSQL, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, clientName);
+            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    int clientID = rs.getInt(1);
+                    AccountCheck.CLIENTS.add(clientID);
+                    return clientID;
                 }
             }
-            catch (SQLException e) {
-                System.out.println("Failed to add client: " + clientName);
-                e.printStackTrace();
-            }
-
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        }
+        catch (SQLException e) {
+            System.out.println("Failed to add client: " + clientName);
+            e.printStackTrace();
         }
         return -1; // Indicating failure
     }
@@ -351,6 +482,12 @@ public class InvestmentFirm {
      * @return The ID of the newly created account if successful, -1 otherwise.
      */
     public static int createAccount(int clientId, int financialAdvisor, String accountName, String profileType, boolean reinvest) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return createAccount(clientId, financialAdvisor, accountName, profileType, reinvest, lease.getConnection());
+        }
+    }
+    // Returns the existing account's ID when the client already has an account with this name
+    static int createAccount(int clientId, int financialAdvisor, String accountName, String profileType, boolean reinvest, Connection connect) {
         if (accountName== null || profileType == null){
             return -1;
         }
@@ -367,59 +504,51 @@ public class InvestmentFirm {
         String insertAccountSQL = "INSERT INTO Accounts (clientID, advisorID, accountName, profileType, reinvest) VALUES (?, ?, ?, ?, ?);";
         String checkAccountExistsSQL = "SELECT accountID FROM Accounts WHERE clientID = ? AND advisorID = ? AND accountName = ? AND profileType = ?;";
         String checkAccountExistsSQL1 = "SELECT accountID FROM Accounts WHERE clientID = ? AND accountName = ?;";
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Accounts (accountID INT AUTO_INCREMENT PRIMARY KEY, clientID INT,advisorID INT, accountName VARCHAR(255),profileType VARCHAR(255) NOT NULL,reinvest BOOLEAN, FOREIGN KEY (clientID) REFERENCES Clients(clientID),FOREIGN KEY (advisorID) REFERENCES Advisors(advisorID));");
-
-            try (PreparedStatement checkStmt = connect.prepareStatement(checkAccountExistsSQL1)) {
-                checkStmt.setInt(1, clientId);
-                checkStmt.setString(2, accountName);
+        try (PreparedStatement checkStmt = connect.prepareStatement(checkAccountExistsSQL1)) {
+            checkStmt.setInt(1, clientId);
+            checkStmt.setString(2, accountName);
 
-                ResultSet rs = checkStmt.executeQuery();
-                if (rs.next()) {
-                    // Account with the same client ID and account name exists
-                    int existingAccountId = rs.getInt("accountID");
-                    return existingAccountId;
-                }
-            } catch (SQLException e) {
-                System.out.println("Failed to check for existing account");
-                e.printStackTrace();
-                return -1;
+            ResultSet rs = checkStmt.executeQuery();
+            if (rs.next()) {
+                // Account with the same client ID and account name exists
+                int existingAccountId = rs.getInt("accountID");
+                return existingAccountId;
             }
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            System.out.println("Failed to check for existing account");
+            e.printStackTrace();
+            return -1;
         }
 
-        try(Statement statement = connect.createStatement()){
-            statement.execute("CREATE TABLE IF NOT EXISTS Accounts (accountID INT AUTO_INCREMENT PRIMARY KEY, clientID INT,advisorID INT, accountName VARCHAR(255),profileType VARCHAR(255) NOT NULL,reinvest BOOLEAN, FOREIGN KEY (clientID) REFERENCES Clients(clientID),FOREIGN KEY (advisorID) REFERENCES Advisors(advisorID));");
-            try (PreparedStatement pstmt = connect.prepareStatement(insertAccountSQL, Statement.RETURN_GENERATED_KEYS)) {
-                pstmt.setInt(1, clientId);
-                pstmt.setInt(2, financialAdvisor);
-                pstmt.setString(3, accountName);
-                pstmt.setString(4, profileType);
-                pstmt.setBoolean(5, reinvest);
-                int affectedRows = pstmt.executeUpdate();
-
-                if (affectedRows > 0) {
-                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                        if (rs.next()) {
-                            int accountID = rs.getInt(1);
-                            return accountID;
-                        } else {
-                            throw new SQLException("Creating account failed, no ID obtained.");
-                        }
+        try (PreparedStatement pstmt = connect.prepareStatement(insertAccountSQL, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setInt(1, clientId);
+            pstmt.setInt(2, financialAdvisor);
+            pstmt.setString(3, accountName);
+            pstmt.setString(4, profileType);
+            pstmt.setBoolean(5, reinvest);
+            int affectedRows = pstmt.executeUpdate();
+
+            if (affectedRows > 0) {
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        int accountID = rs.getInt(1);
+                        AccountCheck.ACCOUNTS.add(accountID);
+                        AumRollup.accountCreated(accountID, clientId, financialAdvisor);
+                        ValuationCache.accountCreated(accountID, clientId);
+                        DivergenceIndex.accountChanged(accountID);
+                        return accountID;
+                    } else {
+                        throw new SQLException("Creating account failed, no ID obtained.");
                     }
-                } else {
-                    throw new SQLException("Creating account failed, no rows affected.");
                 }
+            } else {
+                throw new SQLException("Creating account failed, no rows affected.");
             }
-            catch (SQLException e) {
-                System.out.println("Failed to create account for clientID " + clientId);
-                e.printStackTrace();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
-
+        catch (SQLException e) {
+            System.out.println("Failed to create account for clientID " + clientId);
+            e.printStackTrace();
+        }
 
         return -1; // Indicating failure
     }
@@ -431,37 +560,141 @@ public class InvestmentFirm {
      * @param sharesExchanged The number of shares being bought or sold.
      */
     public static void tradeShares(int accountID, String stockSymbol, int sharesExchanged) {
-        // Check if the stockSymbol exists in the stocks table
-        if (!stockSymbol.equalsIgnoreCase("cash") && !StockTradingHelper.stockExists(stockSymbol,connect)) {
-            return;
+        executeTrade(accountID, stockSymbol, sharesExchanged);
+    }
+    /**
+     * Queues a share trading transaction and returns without waiting for the database.
+     * Trades on the same account still run one at a time, in the order they start executing.
+     *
+     * @param accountID The ID of the account involved in the transaction.
+     * @param stockSymbol The symbol of the stock being traded, or "cash".
+     * @param sharesExchanged The number of shares being bought or sold, or the cash amount.
+     * @return A future completed with the outcome of the trade.
+     * @throws TradeRejectedException If too many trades are already queued.
+     */
+    public static CompletableFuture<TradeResult> submitTrade(int accountID, String stockSymbol, int sharesExchanged) {
+        return tradeExecutor.submit(() -> executeTrade(accountID, stockSymbol, sharesExchanged));
+    }
+    /**
+     * Records a share trading transaction in the durable trade journal and returns once it is on disk.
+     * The trade is applied to the database shortly afterwards by the journal applier, in journal order.
+     *
+     * @param accountID The ID of the account involved in the transaction.
+     * @param stockSymbol The symbol of the stock being traded, or "cash".
+     * @param sharesExchanged The number of shares being bought or sold, or the cash amount.
+     * @return The journal sequence of the trade, for use with {@link #awaitJournalApplied(long, long)}.
+     * @throws IllegalStateException If no trade journal is configured.
+     */
+    public static long journalTrade(int accountID, String stockSymbol, int sharesExchanged) {
+        if (tradeJournal == null) {
+            throw new IllegalStateException("Trade journal is not configured; set tradeJournalDir");
         }
-        // Check if the accountId exists in the Accounts table
-        if (!AccountCheck.accountExists(accountID,connect)) {
-            return ; // Return 0 if account does not exist
-        }
-
-        try(Statement statement = connect.createStatement()){
-           statement.execute("CREATE TABLE IF NOT EXISTS AccountStocks (accountID INT, stockSymbol VARCHAR(50),sharesOwned DECIMAL(10,2) DEFAULT 0, PRIMARY KEY (accountID, stockSymbol), FOREIGN KEY (accountID) REFERENCES Accounts(accountID), FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));");
-           statement.execute("ALTER TABLE Accounts ADD COLUMN IF NOT EXISTS cashBalance DECIMAL(10, 2) DEFAULT 0;");
-           statement.execute("ALTER TABLE AccountStocks ADD COLUMN IF NOT EXISTS acb DECIMAL(10, 2) DEFAULT 0;");
-       } catch (SQLException e) {
-           throw new RuntimeException(e);
-       }
-        // Special handling for cash transactions
+        return tradeJournal.append(new TradeOrder(accountID, stockSymbol, sharesExchanged));
+    }
+    /**
+     * Waits until a journaled trade has been applied to the database, or recorded in TradeJournalFailures
+     * because the database rejected it on every attempt. A trade that has been applied may still not have
+     * executed, for example for insufficient funds; {@link #journalTradeOutcome(long)} tells which.
+     *
+     * @param sequence The sequence returned by {@link #journalTrade(int, String, int)}.
+     * @param timeoutMillis The maximum time to wait.
+     * @return True if the trade has been processed, whatever its outcome.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public static boolean awaitJournalApplied(long sequence, long timeoutMillis) throws InterruptedException {
+        if (journalApplier == null) {
+            throw new IllegalStateException("Trade journal is not configured; set tradeJournalDir");
+        }
+        return journalApplier.awaitApplied(sequence, timeoutMillis);
+    }
+    /**
+     * Gets the outcome of a journaled trade once it has been applied.
+     *
+     * @param sequence The sequence returned by {@link #journalTrade(int, String, int)}.
+     * @return The trade's outcome, or null if it has not been applied yet or the outcome cannot be read.
+     */
+    public static TradeResult journalTradeOutcome(long sequence) {
+        if (journalApplier == null) {
+            throw new IllegalStateException("Trade journal is not configured; set tradeJournalDir");
+        }
+        try {
+            return journalApplier.outcome(sequence);
+        } catch (SQLException e) {
+            System.out.println("Failed to read the outcome of journal record " + sequence + ": " + e.getMessage());
+            return null;
+        }
+    }
+    // A "cash" symbol deposits or withdraws; any other symbol trades at the stock's current price
+    static TradeResult tradeShares(int accountID, String stockSymbol, int sharesExchanged, Connection connect) {
+        // Special handling for cash transactions; an unknown account simply matches no row
         if ("cash".equalsIgnoreCase(stockSymbol)) {
-            ShareManager.updateCashBalance(accountID, sharesExchanged, connect);
-            return;
+            return ShareTrader.adjustCash(accountID, sharesExchanged * Money.ONE, connect);
         }
 
-        // Assume this method fetches the current share price or defaults to $1
-        double sharePrice = ShareManager.getCurrentSharePrice(stockSymbol,connect);
+        // The account, the stock and its current price are checked inside the trade's locking read
+        return ShareTrader.trade(accountID, stockSymbol, sharesExchanged, connect);
+    }
 
-        if (sharesExchanged > 0) {
-            // Buying shares
-            ShareTrader.buyShares(accountID, stockSymbol, sharesExchanged, sharePrice, connect);
-        } else {
-            // Selling shares
-            ShareTrader.sellShares(accountID, stockSymbol, sharesExchanged, sharePrice, connect);
+    // Records a stock's price as today's in the price history, if one is kept
+    private static void recordPrice(String stockSymbol, long cents) {
+        if (priceHistory == null) {
+            return;
+        }
+        int index = SymbolDictionary.indexOf(stockSymbol);
+        if (index >= 0) {
+            priceHistory.record(SymbolDictionary.stockIdAt(index), LocalDate.now().toEpochDay(), cents);
+            priceHistory.force();
+        }
+    }
+
+    private static TradeResult executeTrade(int accountID, String stockSymbol, int sharesExchanged) {
+        // Take the account's stripe before leasing, so waiting callers do not hold connections
+        ReentrantLock lock = accountLocks.lockFor(accountID);
+        lock.lock();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return tradeShares(accountID, stockSymbol, sharesExchanged, lease.getConnection());
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Executes many trade orders at once, using the batch size and commit interval from the configuration.
+     *
+     * @param orders The orders to execute; orders for the same account are applied in list order.
+     * @return       The outcome of each order, at the same index as the order.
+     */
+    public static TradeResult[] tradeSharesBatch(List<TradeOrder> orders) {
+        return tradeSharesBatch(orders, config.getTradeBatchSize(), config.getTradeCommitInterval());
+    }
+    /**
+     * Executes many trade orders at once. Symbols and accounts are validated with set-based lookups,
+     * orders are grouped by account and applied with JDBC batches in chunked transactions.
+     *
+     * @param orders         The orders to execute; orders for the same account are applied in list order.
+     * @param batchSize      The number of rows sent to the database per JDBC batch.
+     * @param commitInterval The maximum number of orders applied per transaction.
+     * @return               The outcome of each order, at the same index as the order.
+     */
+    public static TradeResult[] tradeSharesBatch(List<TradeOrder> orders, int batchSize, int commitInterval) {
+        if (orders == null) {
+            return new TradeResult[0];
+        }
+        if (batchSize <= 0 || commitInterval <= 0) {
+            throw new IllegalArgumentException("Batch size and commit interval must be positive");
+        }
+        // Each chunk takes its accounts' stripes before it leases a connection, so this thread holds no lease
+        return TradeBatchProcessor.execute(orders, batchSize, commitInterval, accountLocks, pool);
+    }
+    /**
+     * Compares the in-memory client, advisor and account ID indexes with the database
+     * and adds any IDs they are missing, for example rows inserted by another process.
+     *
+     * @return The number of discrepancies found, 0 when the indexes match the database.
+     * @throws SQLException If an SQL exception occurs during database operations.
+     */
+    public static int checkExistenceIndexes() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return AccountCheck.reconcileIndexes(lease.getConnection());
         }
     }
     /**
@@ -471,6 +704,12 @@ public class InvestmentFirm {
      * @param newAdvisorId The ID of the new financial advisor to be assigned to the account.
      */
     public static void changeAdvisor(int accountId, int newAdvisorId) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            changeAdvisor(accountId, newAdvisorId, lease.getConnection());
+        }
+    }
+    // Moves the account and its value to the new advisor, if both exist
+    static void changeAdvisor(int accountId, int newAdvisorId, Connection connect) {
         String sql = "UPDATE Accounts SET advisorID = ? WHERE accountID = ?;";
         // Check if the accountId exists in the Accounts table
         if (!AccountCheck.accountExists(accountId,connect)) {
@@ -486,6 +725,7 @@ public class InvestmentFirm {
             int affectedRows = pstmt.executeUpdate();
 
             if (affectedRows > 0) {
+                AumRollup.advisorChanged(accountId, newAdvisorId);
                 System.out.println("Account ID: " + accountId + " has been assigned to the new advisor ID: " + newAdvisorId);
             } else {
                 System.out.println("No account found with ID: " + accountId + ", or the account is already assigned to the specified advisor.");
@@ -505,43 +745,139 @@ public class InvestmentFirm {
      * @throws SQLException If an SQL exception occurs during database operations.
      */
     public static double accountValue(int accountId) throws SQLException {
-        double totalValue = 0.0;
-        // Check if the accountId exists in the Accounts table
-        if (!AccountCheck.accountExists(accountId,connect)) {
-            return totalValue; // Return 0 if account does not exist
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return accountValue(accountId, lease.getConnection());
         }
-        // Fetch the cash balance for the account
-        String sqlCashBalance = "SELECT cashBalance FROM Accounts WHERE accountID = ?;";
-        try (PreparedStatement pstmt = connect.prepareStatement(sqlCashBalance)) {
-            pstmt.setInt(1, accountId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                totalValue += rs.getDouble("cashBalance");
-            }
+    }
+    // Answers from the valuation cache, falling back to the database for accounts it cannot value
+    static double accountValue(int accountId, Connection connect) throws SQLException {
+        OptionalLong cached = ValuationCache.value(accountId);
+        if (cached.isPresent()) {
+            return Money.toDouble(cached.getAsLong());
+        }
+        try {
+            return Money.toDouble(AccountValuation.value(accountId, connect).orElse(0)); // 0 if account does not exist
         } catch (SQLException e) {
-            System.out.println("Error fetching cash balance: " + e.getMessage());
+            System.out.println("Error valuing account: " + e.getMessage());
             throw e;
         }
-
-        // Fetch all stocks and the number of shares owned by the account
-        String sqlStocks = "SELECT stockSymbol, sharesOwned FROM AccountStocks WHERE accountID = ?;";
-        try (PreparedStatement pstmt = connect.prepareStatement(sqlStocks)) {
-            pstmt.setInt(1, accountId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                String stockSymbol = rs.getString("stockSymbol");
-                double sharesOwned = rs.getDouble("sharesOwned");
-                double currentPrice = ShareManager.getCurrentSharePrice(stockSymbol,connect); // This method should be defined elsewhere
-
-                // Calculate market value for each stock and add to total
-                totalValue += currentPrice * sharesOwned;
+    }
+    /**
+     * Calculates the total value of many accounts at once, with one aggregate query rather than one per account.
+     *
+     * @param accountIds The IDs of the accounts to value.
+     * @return A map from each existing account's ID to its total value; accounts that do not exist are left out.
+     * @throws SQLException If an SQL exception occurs during database operations.
+     */
+    public static Map<Integer, Double> accountValues(Collection<Integer> accountIds) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return accountValues(accountIds, lease.getConnection());
+        }
+    }
+    // Values every account through AccountValuation, in cents, and converts to dollars
+    static Map<Integer, Double> accountValues(Collection<Integer> accountIds, Connection connect) throws SQLException {
+        Map<Integer, Double> values = new HashMap<>();
+        try {
+            for (Map.Entry<Integer, Long> entry : AccountValuation.values(accountIds, connect).entrySet()) {
+                values.put(entry.getKey(), Money.toDouble(entry.getValue()));
             }
         } catch (SQLException e) {
-            System.out.println("Error fetching stocks: " + e.getMessage());
+            System.out.println("Error valuing accounts: " + e.getMessage());
             throw e;
         }
+        return values;
+    }
+    /**
+     * Calculates the value of an account's current cash and positions at the prices in effect on a past date.
+     * Positions have no history, so this is not what the account was worth on that date: shares bought or sold
+     * since then are valued as if they had been held then.
+     *
+     * @param accountId The ID of the account to value.
+     * @param date The date whose prices are used.
+     * @return The value of the account's current holdings at those prices, or 0 if it does not exist.
+     * @throws SQLException If an SQL exception occurs, or a held stock has no recorded price on or before the date.
+     * @throws IllegalStateException If no price history is configured.
+     */
+    public static double currentHoldingsValueAt(int accountId, LocalDate date) throws SQLException {
+        PriceHistory history = requirePriceHistory();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return Money.toDouble(HistoricalValuation.currentHoldingsValueAt(accountId, date.toEpochDay(), history, lease.getConnection()).orElse(0));
+        }
+    }
+    /**
+     * Calculates the value of many accounts' current holdings at a past date's prices, as {@link #currentHoldingsValueAt(int, LocalDate)} does,
+     * looking up each stock's price once for the whole run.
+     *
+     * @param accountIds The IDs of the accounts to value.
+     * @param date The date whose prices are used.
+     * @return A map from each existing account's ID to its value; accounts that do not exist are left out.
+     * @throws SQLException If an SQL exception occurs, or a held stock has no recorded price on or before the date.
+     * @throws IllegalStateException If no price history is configured.
+     */
+    public static Map<Integer, Double> currentHoldingsValuesAt(Collection<Integer> accountIds, LocalDate date) throws SQLException {
+        PriceHistory history = requirePriceHistory();
+        Map<Integer, Double> values = new HashMap<>();
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Map<Integer, Long> cents = HistoricalValuation.currentHoldingsValuesAt(accountIds, date.toEpochDay(), history, lease.getConnection());
+            for (Map.Entry<Integer, Long> entry : cents.entrySet()) {
+                values.put(entry.getKey(), Money.toDouble(entry.getValue()));
+            }
+        }
+        return values;
+    }
+    /**
+     * Calculates a stock's price return between two dates from the price history.
+     *
+     * @param stockSymbol The symbol of the stock.
+     * @param from The start date.
+     * @param to The end date.
+     * @return The return as a fraction, such as 0.05 for a 5% gain.
+     * @throws SQLException If the stock is unknown, or has no recorded positive price on or before the start date.
+     * @throws IllegalStateException If no price history is configured.
+     */
+    public static double stockReturn(String stockSymbol, LocalDate from, LocalDate to) throws SQLException {
+        PriceHistory history = requirePriceHistory();
+        int index;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            index = SymbolDictionary.indexOf(stockSymbol, lease.getConnection());
+        }
+        if (index < 0) {
+            throw new SQLException("Unknown stock " + stockSymbol);
+        }
+        long start = HistoricalValuation.priceAsOf(index, from.toEpochDay(), history);
+        long end = HistoricalValuation.priceAsOf(index, to.toEpochDay(), history);
+        if (start == 0) {
+            throw new SQLException("Stock " + stockSymbol + " had no positive price on " + from);
+        }
+        return (double) (end - start) / start;
+    }
+    /**
+     * Calculates the return of an account's current holdings between two dates, valuing them at each date's prices
+     * as {@link #currentHoldingsValueAt(int, LocalDate)} does. Trades and cash flows between the dates are not accounted for.
+     *
+     * @param accountId The ID of the account.
+     * @param from The start date.
+     * @param to The end date.
+     * @return The return as a fraction, or 0 if the account does not exist or had no value on the start date.
+     * @throws SQLException If an SQL exception occurs, or a held stock has no recorded price on or before a date.
+     * @throws IllegalStateException If no price history is configured.
+     */
+    public static double currentHoldingsReturn(int accountId, LocalDate from, LocalDate to) throws SQLException {
+        PriceHistory history = requirePriceHistory();
+        long start;
+        long end;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            start = HistoricalValuation.currentHoldingsValueAt(accountId, from.toEpochDay(), history, lease.getConnection()).orElse(0);
+            end = HistoricalValuation.currentHoldingsValueAt(accountId, to.toEpochDay(), history, lease.getConnection()).orElse(0);
+        }
+        return start == 0 ? 0.0 : (double) (end - start) / start;
+    }
 
-        return totalValue;
+    private static PriceHistory requirePriceHistory() {
+        if (priceHistory == null) {
+            throw new IllegalStateException("Price history is not configured; set priceHistoryDir");
+        }
+        return priceHistory;
     }
     /**
      * Calculates the total portfolio value managed by a given financial advisor.
@@ -551,26 +887,84 @@ public class InvestmentFirm {
      * @throws SQLException If an SQL exception occurs during database operations.
      */
     public static double advisorPortfolioValue(int advisorId) throws SQLException {
-        double totalPortfolioValue = 0.0;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return advisorPortfolioValue(advisorId, lease.getConnection());
+        }
+    }
+    // Sums the values of the advisor's accounts; -1 for an unknown advisor
+    static double advisorPortfolioValue(int advisorId, Connection connect) throws SQLException {
         if (!AccountCheck.advisorExists(advisorId,connect)) {
             return -1;
         }
         // Fetch all account IDs managed by the given financial advisor
+        List<Integer> accountIds = new ArrayList<>();
         String sqlAccounts = "SELECT accountID FROM Accounts WHERE advisorID = ?;";
         try (PreparedStatement pstmt = connect.prepareStatement(sqlAccounts)) {
             pstmt.setInt(1, advisorId);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                int accountId = rs.getInt("accountID");
-                // Calculate the account value and add to the total portfolio value
-                totalPortfolioValue += accountValue(accountId); // accountValue method should be defined elsewhere
+                accountIds.add(rs.getInt("accountID"));
             }
         } catch (SQLException e) {
             System.out.println("Error fetching accounts for advisor: " + e.getMessage());
             throw e;
         }
-
-        return totalPortfolioValue;
+        // Value every account in one query and sum in cents
+        long totalPortfolioValue = 0;
+        for (long value : AccountValuation.values(accountIds, connect).values()) {
+            totalPortfolioValue += value;
+        }
+        return Money.toDouble(totalPortfolioValue);
+    }
+    /**
+     * Gets the total assets under management across every account in the firm, from the in-memory roll-up.
+     *
+     * @return The total value of all accounts.
+     */
+    public static double firmAssetsUnderManagement() {
+        return Money.toDouble(AumRollup.firmValue());
+    }
+    /**
+     * Gets the total value of a financial advisor's accounts, from the in-memory roll-up.
+     *
+     * @param advisorId The ID of the financial advisor.
+     * @return The total value of the advisor's accounts, 0 if the advisor has none.
+     */
+    public static double advisorAssetsUnderManagement(int advisorId) {
+        return Money.toDouble(AumRollup.advisorValue(advisorId));
+    }
+    /**
+     * Gets the total value of a client's accounts, from the in-memory roll-up.
+     *
+     * @param clientId The ID of the client.
+     * @return The total value of the client's accounts, 0 if the client has none.
+     */
+    public static double clientAssetsUnderManagement(int clientId) {
+        return Money.toDouble(AumRollup.clientValue(clientId));
+    }
+    /**
+     * Gets the financial advisors with the most assets under management.
+     *
+     * @param n The number of advisors to return.
+     * @return A map from advisor ID to assets under management, in descending order of assets.
+     */
+    public static Map<Integer, Double> topAdvisorsByAum(int n) {
+        Map<Integer, Double> top = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> entry : AumRollup.topAdvisors(n).entrySet()) {
+            top.put(entry.getKey(), Money.toDouble(entry.getValue()));
+        }
+        return top;
+    }
+    /**
+     * Rebuilds the assets-under-management roll-up from the database, for example after another process changed accounts.
+     *
+     * @return The number of accounts rolled up.
+     * @throws SQLException If an SQL exception occurs during database operations.
+     */
+    public static int rebuildAumRollup() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return AumRollup.load(lease.getConnection());
+        }
     }
     /**
      * Calculates the profits for each account belonging to a specified client.
@@ -579,10 +973,28 @@ public class InvestmentFirm {
      * @return A map containing the account ID as key and the corresponding profit as value.
      */
     public static Map<Integer, Double> investorProfit(int clientId) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return investorProfit(clientId, lease.getConnection());
+        }
+    }
+    // Profit of each of the client's accounts, keyed by account ID
+    static Map<Integer, Double> investorProfit(int clientId, Connection connect) {
         Map<Integer, Double> profitsByAccount = new HashMap<>();
         if (!AccountCheck.clientExists(clientId,connect)) {
             return new HashMap<>();
         }
+        // Read every account's profit from the valuation cache when all of them are cached
+        for (int accountId : ValuationCache.clientAccounts(clientId)) {
+            OptionalLong profit = ValuationCache.profit(accountId);
+            if (!profit.isPresent()) {
+                profitsByAccount.clear();
+                break;
+            }
+            profitsByAccount.put(accountId, Money.toDouble(profit.getAsLong()));
+        }
+        if (!profitsByAccount.isEmpty()) {
+            return profitsByAccount;
+        }
         try {
             // Step 1: Fetch all account IDs for the client.
             String fetchAccountsSql = "SELECT accountID FROM Accounts WHERE clientID = ?";
@@ -592,7 +1004,7 @@ public class InvestmentFirm {
 
             while (accountsRs.next()) {
                 int accountId = accountsRs.getInt("accountID");
-                double totalProfit = 0.0;
+                long totalProfit = 0;
 
                 // Step 2: For each account, calculate the profit.
                 String fetchStocksSql = "SELECT stockSymbol, sharesOwned, acb FROM AccountStocks WHERE accountID = ?";
@@ -602,19 +1014,20 @@ public class InvestmentFirm {
 
                 while (stocksRs.next()) {
                     String stockSymbol = stocksRs.getString("stockSymbol");
-                    double sharesOwned = stocksRs.getDouble("sharesOwned");
-                    double acb = stocksRs.getDouble("acb");
+                    long sharesOwned = Quantity.read(stocksRs, "sharesOwned");
+                    long acb = Money.read(stocksRs, "acb");
 
                     // Fetch current market price for the stock.
-                    double currentPrice = ShareManager.getCurrentSharePrice(stockSymbol,connect); // Assume this method is defined.
-                    double sellingPrice = sharesOwned * currentPrice;
-                    double profit = sellingPrice - (acb * sharesOwned);
+                    long currentPrice = PriceBoard.priceCents(stockSymbol,connect)
+                            .orElseThrow(() -> new SQLException("No price for held stock " + stockSymbol));
+                    long sellingPrice = Money.times(currentPrice, sharesOwned);
+                    long profit = sellingPrice - Money.times(acb, sharesOwned);
 
                     totalProfit += profit;
                 }
 
                 // Step 3: Add the total profit for this account to the result map.
-                profitsByAccount.put(accountId, totalProfit);
+                profitsByAccount.put(accountId, Money.toDouble(totalProfit));
             }
 
             return profitsByAccount;
@@ -632,6 +1045,12 @@ public class InvestmentFirm {
      * @return A map containing each sector name as key and its corresponding percentage weight in the portfolio as value.
      */
     public static Map<String, Integer> profileSectorWeights(int accountId) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return profileSectorWeights(accountId, lease.getConnection());
+        }
+    }
+    // Percentage of the account's value held in each sector
+    static Map<String, Integer> profileSectorWeights(int accountId, Connection connect) {
     Map<String, Double> sectorValues = new HashMap<>();
     double totalValue = 0;
         // Check if the accountId exists in the Accounts table
@@ -700,118 +1119,132 @@ public class InvestmentFirm {
      * @return A set containing the IDs of divergent accounts.
      */
     public static Set<Integer> divergentAccounts(int tolerance) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return divergentAccounts(tolerance, lease.getConnection());
+        }
+    }
+    // Reads the divergence index after refreshing the accounts changed since the last call
+    static Set<Integer> divergentAccounts(int tolerance, Connection connect) {
         if (tolerance < 0){
             return new HashSet<>();
         }
-        Set<Integer> divergentAccountIds = new HashSet<>();
         try {
-            // Fetch all accounts
-            String fetchAccountsSql = "SELECT accountID, profileType FROM Accounts";
-            Statement statement = connect.createStatement();
-            ResultSet accountsRs = statement.executeQuery(fetchAccountsSql);
-
-            while (accountsRs.next()) {
-                int accountId = accountsRs.getInt("accountID");
-                String profileType = accountsRs.getString("profileType");
-
-                // Get current sector weights for the account
-                Map<String, Integer> currentWeights = profileSectorWeights(accountId);
-
-                // Fetch target profile weights
-                Map<String, Integer> targetWeights = StockTradingHelper.getProfileWeights(profileType,connect);
-
-                // Compare each sector weight against target weights with tolerance
-                boolean isDivergent = false;
-                for (Map.Entry<String, Integer> entry : targetWeights.entrySet()) {
-                    String sector = entry.getKey();
-                    int targetWeight = entry.getValue();
-                    int currentWeight = currentWeights.getOrDefault(sector, 0);
-
-                    // Calculate tolerance thresholds
-                    int upperLimit = targetWeight + tolerance;
-                    int lowerLimit = targetWeight - tolerance;
-
-                    // Check if current weight is outside the tolerance range
-                    if (currentWeight < lowerLimit || currentWeight > upperLimit) {
-                        isDivergent = true;
-                        break;
-                    }
-                }
-
-                // If cash is part of the calculation, ensure to include its check as well
-                // Assuming "Cash" is the key used for cash holdings in the map
-                int cashTarget = targetWeights.getOrDefault("Cash", 0); // Assuming there's a target for cash
-                int cashCurrent = currentWeights.getOrDefault("Cash", 0);
-                if (cashCurrent < cashTarget - tolerance || cashCurrent > cashTarget + tolerance) {
-                    isDivergent = true;
-                }
-
-                if (isDivergent) {
-                    divergentAccountIds.add(accountId);
-                }
-            }
+            // Refreshes only the accounts touched since the last call, then reads the sorted index
+            return DivergenceIndex.divergentAccounts(tolerance, connect);
         } catch (SQLException e) {
             System.out.println("Database access error: " + e.getMessage());
         }
-
-        return divergentAccountIds;
+        return new HashSet<>();
     }
     /**
      * Disburses dividends for a given stock symbol to all accounts holding the stock.
      * Dividends are distributed based on the number of shares owned by each account.
      * Accounts set to reinvest dividends will use the dividends to purchase additional shares,
      * while other accounts will receive the dividends as cash.
+     * The dividend is paid as a single-partition dividend run, so if it stops midway, {@link #resumeDividendRuns()}
+     * pays only the holders not yet paid, and the firm's fractional shares are settled durably.
      *
      * @param stockSymbol The symbol of the stock for which dividends are to be disbursed.
      * @param dividendPerShare The dividend amount per share.
      * @return An integer representing the total number of fractional shares distributed among accounts, or -1 if there's an error.
      */
     public static int disburseDividend(String stockSymbol, double dividendPerShare) {
-        double totalSharesBought = 0;
-        double firmFractionalSharesBefore = FirmDividendManager.getFirmFractionalShares(stockSymbol,connect);
-        double totalFractional = 0;
-        if (stockSymbol == null || stockSymbol.isEmpty() || dividendPerShare < 0){
+        return disburseDividend(stockSymbol, dividendPerShare, 1);
+    }
+    /**
+     * Disburses a dividend like {@link #disburseDividend(String, double)}, but splits the holders into accountID
+     * ranges that are paid in parallel, each on its own pooled connection. Progress is recorded per range, so
+     * if the run stops midway, {@link #resumeDividendRuns()} pays only the holders not yet paid.
+     *
+     * @param stockSymbol The symbol of the stock for which dividends are to be disbursed.
+     * @param dividendPerShare The dividend amount per share.
+     * @param partitions The number of accountID ranges to pay in parallel.
+     * @return The firm's fractional share result, as from {@link #disburseDividend(String, double)}, or -1 if there's an error.
+     */
+    public static int disburseDividend(String stockSymbol, double dividendPerShare, int partitions) {
+        if (stockSymbol == null || stockSymbol.isEmpty() || dividendPerShare < 0 || partitions < 1) {
             return -1;
         }
-        // Check if the stockSymbol exists in the stocks table
-        if (!StockTradingHelper.stockExists(stockSymbol,connect)) {
+        int runId;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            OptionalLong currentPrice = PriceBoard.priceCents(stockSymbol, lease.getConnection());
+            if (!currentPrice.isPresent()) {
+                return -1;
+            }
+            runId = DividendRun.create(stockSymbol, Money.rate(dividendPerShare), currentPrice.getAsLong(), partitions, lease.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Failed to start dividend run for " + stockSymbol + ": " + e.getMessage());
             return -1;
         }
+        // The partitions lease their own connections, so this thread holds none while they run
+        int result;
         try {
-            // Retrieve current share price
-            double sharePrice = ShareManager.getCurrentSharePrice(stockSymbol,connect);
-
-            // Fetch all accounts holding the stock
-            String sql = "SELECT accountID, sharesOwned FROM AccountStocks WHERE stockSymbol = ?";
-            PreparedStatement pstmt = connect.prepareStatement(sql);
-            pstmt.setString(1, stockSymbol);
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                int accountID = rs.getInt("accountID");
-                double sharesOwned = rs.getDouble("sharesOwned");
-                double dividends = sharesOwned * dividendPerShare;
-
-                // Check if account is set to reinvest
-                if (StockTradingHelper.shouldReinvest(accountID,connect)) {
-                    double sharesToBuy = (dividends / sharePrice);
-                    double fractionalShares = (dividends % sharePrice) / sharePrice;
-                     totalFractional += fractionalShares;
-
-                    // Buy shares
-                    ShareTrader.buyShares(accountID, stockSymbol, sharesToBuy, sharePrice, connect);
-                    totalSharesBought += sharesToBuy;
-
-                } else {
-                    // Update cash balance
-                    ShareManager.updateCashBalance(accountID, dividends,connect);
-                }
+            result = DividendRun.execute(runId, config.getTradeBatchSize(), accountLocks, pool);
+        } catch (SQLException e) {
+            System.out.println("Dividend run " + runId + " stopped and can be resumed: " + e.getMessage());
+            result = -1;
+        }
+        return result;
+    }
+    /**
+     * Finishes every partitioned dividend run that was started and did not complete, paying only the holders not yet paid.
+     *
+     * @return The number of runs completed.
+     */
+    public static int resumeDividendRuns() {
+        Map<Integer, String> runs;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            runs = DividendRun.pending(lease.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Failed to read pending dividend runs: " + e.getMessage());
+            return 0;
+        }
+        int completed = 0;
+        for (Map.Entry<Integer, String> run : runs.entrySet()) {
+            try {
+                DividendRun.execute(run.getKey(), config.getTradeBatchSize(), accountLocks, pool);
+                completed++;
+            } catch (SQLException e) {
+                System.out.println("Dividend run " + run.getKey() + " stopped again: " + e.getMessage());
             }
+        }
+        return completed;
+    }
+    /**
+     * Declares a dividend to be paid on its pay date. On the record date the shares every holder owns are copied to
+     * DividendEntitlements, and holders are paid on those shares; trades between the two dates do not change the payout.
+     * The dividend calendar pays it, together with any other dividends due the same day, in one pass over the holdings.
+     *
+     * @param stockSymbol The symbol of the stock paying the dividend.
+     * @param dividendPerShare The dividend amount per share.
+     * @param recordDate The date holders are entitled as of; it may not be after the pay date.
+     * @param payDate The date the dividend is paid.
+     * @return The ID of the declared dividend, or -1 if there's an error.
+     */
+    public static int declareDividend(String stockSymbol, double dividendPerShare, LocalDate recordDate, LocalDate payDate) {
+        if (stockSymbol == null || stockSymbol.isEmpty() || dividendPerShare < 0 || recordDate == null || payDate == null
+                || recordDate.isAfter(payDate)) {
+            return -1;
+        }
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return DividendCalendar.declare(stockSymbol, Money.rate(dividendPerShare), recordDate, payDate, lease.getConnection());
         } catch (SQLException e) {
-            System.out.println("Database access error: " + e.getMessage());
+            System.out.println("Failed to declare dividend for " + stockSymbol + ": " + e.getMessage());
+            return -1;
+        }
+    }
+    /**
+     * Pays every declared dividend whose pay date has come, without waiting for the dividend calendar's next check.
+     *
+     * @return The number of dividends paid, or -1 if there's an error; unfinished dividends are paid by a later call.
+     */
+    public static int payDueDividends() {
+        try {
+            return dividendCalendar.payDue(LocalDate.now());
+        } catch (SQLException e) {
+            System.out.println("Paying due dividends stopped and will be resumed: " + e.getMessage());
+            return -1;
         }
-
-        return FirmDividendManager.updateAccountFractionalShares(stockSymbol,totalFractional,connect); // This is a simplification
     }
     // Analysing the system
     /**
@@ -824,25 +1257,36 @@ public class InvestmentFirm {
      * @param numComparators The number of similar accounts to compare for generating recommendations.
      * @return A map containing stock symbols as keys and boolean values indicating whether to buy (true) or sell (false).
      */
-    public static Map<String, Boolean> stockRecommendations(int accountId, int maxRecommendations, int numComparators){
+    public static Map<String, Boolean> stockRecommendations(int accountId, int maxRecommendations, int numComparators) {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return stockRecommendations(accountId, maxRecommendations, numComparators, lease.getConnection());
+        }
+    }
+    // Recommends from the holdings snapshot; the connection is used only to build it
+    static Map<String, Boolean> stockRecommendations(int accountId, int maxRecommendations, int numComparators, Connection connect){
         if (!AccountCheck.accountExists(accountId,connect)){
             return new HashMap<>();
         }
         if (maxRecommendations <= 0 || numComparators <= 0){
             return new HashMap<>();
         }
+        // Every vector comes from the shared holdings snapshot, which trades keep current, so nothing is rescanned
+        Map<Integer, double[]> indexedVectors = HoldingsSnapshot.vectors(connect);
+        double[] accountIndexedVector = indexedVectors.get(accountId);
+        if (accountIndexedVector == null) {
+            return new HashMap<>();
+        }
         // Create a vector for the given account's stock holdings
         int recommendationCounter = 0;
-        Map<String, Double> accountStockVector = StockVectorsCreator.createStockVectors(connect).get(accountId);
+        Map<String, Double> accountStockVector = StockVectorsCreator.toSymbolVector(accountIndexedVector);
         // Create a map to store cosine similarities between accounts
         Map<Integer, Double> similarityMap = new HashMap<>();
 
-        // Iterate over all accounts and calculate cosine similarity with the given account
-        for (Map.Entry<Integer, Map<String, Double>> entry : StockVectorsCreator.createStockVectors(connect).entrySet()) {
+        // Iterate over all accounts and calculate cosine similarity with the given account, on array vectors
+        for (Map.Entry<Integer, double[]> entry : indexedVectors.entrySet()) {
             int otherAccountId = entry.getKey();
             if (otherAccountId != accountId) {
-                Map<String, Double> otherAccountStockVector = entry.getValue();
-                double similarity = CosineSimilarityCalculator.calculateCosineSimilarity(accountStockVector, otherAccountStockVector);
+                double similarity = CosineSimilarityCalculator.calculateCosineSimilarity(accountIndexedVector, entry.getValue());
                 similarityMap.put(otherAccountId, similarity);
             }
         }
@@ -864,7 +1308,7 @@ public class InvestmentFirm {
             Map.Entry<Integer, Double> entry = sortedSimilarityList.get(i);
             int otherAccountId = entry.getKey();
             double similarity = entry.getValue();
-            Map<String, Double> otherAccountStockVector = StockVectorsCreator.createStockVectors(connect).get(otherAccountId);
+            Map<String, Double> otherAccountStockVector = StockVectorsCreator.toSymbolVector(indexedVectors.get(otherAccountId));
             otherAccountVectors.put(otherAccountId, otherAccountStockVector);
         }
 
@@ -998,6 +1442,12 @@ public class InvestmentFirm {
      * @throws SQLException if there is an error accessing the database
      */
     public static Set<Set<Integer>> advisorGroups(double tolerance, int maxGroups) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            return advisorGroups(tolerance, maxGroups, lease.getConnection());
+        }
+    }
+    // Clusters accounts by their sector differences, adding clusters until all are within tolerance
+    static Set<Set<Integer>> advisorGroups(double tolerance, int maxGroups, Connection connect) throws SQLException {
         // Retrieve the sector weights for each account from the database
         Map<Integer, Map<String, Double>> sectorDifferences = AdvisorClusterer.calculateSectorDifferences(connect);
 
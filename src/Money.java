@@ -0,0 +1,158 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+/**
+ * Fixed-point money held in a primitive {@code long} of cents, matching the DECIMAL(10,2) columns.
+ * All arithmetic is static and works on raw longs, so hot loops allocate nothing;
+ * addition and subtraction are plain {@code +} and {@code -}. Every rounding step rounds half away
+ * from zero, the same rule the database applies when it stores a DECIMAL.
+ */
+public final class Money {
+    static final int SCALE = 2;
+    static final long ONE = 100;
+    // Per-share rates such as dividends can be fractions of a cent, so they keep six decimal places
+    static final int RATE_SCALE = 6;
+
+    private Money() {
+    }
+    /**
+     * Converts a decimal amount to cents, rounding to the nearest cent.
+     * The double's shortest decimal form is used, so 1.005 becomes 101 cents rather than 100.
+     *
+     * @param amount The amount in dollars.
+     * @return       The amount in cents.
+     */
+    static long of(double amount) {
+        return of(BigDecimal.valueOf(amount));
+    }
+    /**
+     * Converts a decimal amount to cents, rounding to the nearest cent.
+     *
+     * @param amount The amount in dollars.
+     * @return       The amount in cents, or 0 for null.
+     */
+    static long of(BigDecimal amount) {
+        return amount == null ? 0 : amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    /**
+     * Converts cents to a double, for APIs that still report amounts as doubles.
+     *
+     * @param cents The amount in cents.
+     * @return      The amount in dollars.
+     */
+    static double toDouble(long cents) {
+        return cents / (double) ONE;
+    }
+    /**
+     * Converts cents to an exact decimal.
+     *
+     * @param cents The amount in cents.
+     * @return      The amount in dollars, with two decimal places.
+     */
+    static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+    /**
+     * Computes the value of a quantity at a per-unit price, rounded to the nearest cent.
+     *
+     * @param priceCents    The price per share in cents.
+     * @param quantityUnits The quantity in {@link Quantity} units.
+     * @return              The value in cents.
+     */
+    static long times(long priceCents, long quantityUnits) {
+        return multiplyDivide(priceCents, quantityUnits, Quantity.ONE);
+    }
+    /**
+     * Converts a per-share rate, such as a dividend per share, to millionths of a dollar.
+     *
+     * @param rate The rate in dollars per share.
+     * @return     The rate in millionths of a dollar.
+     */
+    static long rate(double rate) {
+        return BigDecimal.valueOf(rate).setScale(RATE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    /**
+     * Computes the amount a per-share rate pays on a quantity, rounded to the nearest cent.
+     *
+     * @param rateMicros    The rate in millionths of a dollar per share, as returned by {@link #rate(double)}.
+     * @param quantityUnits The quantity in {@link Quantity} units.
+     * @return              The amount in cents.
+     */
+    static long timesRate(long rateMicros, long quantityUnits) {
+        return multiplyDivide(rateMicros, quantityUnits, Quantity.ONE * 10_000);
+    }
+    /**
+     * Computes the per-share amount of a total spread over a quantity, rounded to the nearest cent.
+     * Used for average cost basis.
+     *
+     * @param totalCents    The total amount in cents.
+     * @param quantityUnits The quantity in {@link Quantity} units; must not be zero.
+     * @return              The amount per share in cents.
+     */
+    static long perUnit(long totalCents, long quantityUnits) {
+        return multiplyDivide(totalCents, Quantity.ONE, quantityUnits);
+    }
+    /**
+     * Reads a DECIMAL column as cents. Like {@link ResultSet#getDouble(String)}, a NULL reads as 0
+     * and {@link ResultSet#wasNull()} tells the two apart.
+     *
+     * @param rs     The result set, positioned on a row.
+     * @param column The column label.
+     * @return       The value in cents.
+     * @throws SQLException If the column cannot be read.
+     */
+    static long read(ResultSet rs, String column) throws SQLException {
+        return of(rs.getBigDecimal(column));
+    }
+    /**
+     * Binds cents to a DECIMAL parameter exactly, with no binary floating-point step.
+     *
+     * @param pstmt The statement.
+     * @param index The parameter index.
+     * @param cents The amount in cents.
+     * @throws SQLException If the parameter cannot be set.
+     */
+    static void bind(PreparedStatement pstmt, int index, long cents) throws SQLException {
+        pstmt.setBigDecimal(index, toBigDecimal(cents));
+    }
+    /**
+     * Formats cents as a plain decimal string, such as "-12.05".
+     *
+     * @param cents The amount in cents.
+     * @return      The formatted amount.
+     */
+    static String format(long cents) {
+        return toBigDecimal(cents).toPlainString();
+    }
+    /**
+     * Computes {@code a * b / divisor}, rounded half away from zero.
+     * Falls back to BigInteger only when the product does not fit in a long.
+     */
+    static long multiplyDivide(long a, long b, long divisor) {
+        long high = Math.multiplyHigh(a, b);
+        long product = a * b;
+        if (high == (product >> 63)) {
+            return divideRounded(product, divisor);
+        }
+        BigInteger[] qr = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).divideAndRemainder(BigInteger.valueOf(divisor));
+        long quotient = qr[0].longValueExact();
+        if (qr[1].abs().shiftLeft(1).compareTo(BigInteger.valueOf(divisor).abs()) >= 0) {
+            quotient += qr[1].signum() * Long.signum(divisor);
+        }
+        return quotient;
+    }
+    /**
+     * Divides two longs, rounding half away from zero.
+     */
+    static long divideRounded(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder != 0 && Math.abs(remainder) >= Math.abs(divisor) - Math.abs(remainder)) {
+            quotient += (dividend < 0) == (divisor < 0) ? 1 : -1;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,174 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * In-process board of current stock prices, keyed by symbol.
+ * It is loaded once at startup and kept current write-through by every API call that changes a price,
+ * so valuation code reads prices without touching the database. A symbol missing from the board
+ * is looked up once in the database before it is reported as unknown.
+ */
+public class PriceBoard {
+    static final String LOAD_SQL = "SELECT stockSymbol, currentPrice FROM stocks WHERE currentPrice IS NOT NULL";
+    static final String LOOKUP_SQL = "SELECT stockSymbol, currentPrice FROM stocks WHERE stockSymbol = ?";
+
+    private static final ConcurrentHashMap<String, Price> PRICES = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong updates = new AtomicLong();
+    private static volatile long loadedAtMillis;
+    /**
+     * Replaces the board's contents with every priced stock in the database.
+     *
+     * @param connect The database connection.
+     * @return        The number of prices loaded.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        ConcurrentHashMap<String, Price> loaded = new ConcurrentHashMap<>();
+        long now = System.currentTimeMillis();
+        try (PreparedStatement pstmt = connect.prepareStatement(LOAD_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String symbol = rs.getString("stockSymbol");
+                loaded.put(SymbolDictionary.key(symbol), new Price(symbol, Money.read(rs, "currentPrice"), now));
+            }
+        }
+        PRICES.keySet().retainAll(loaded.keySet());
+        PRICES.putAll(loaded);
+        loadedAtMillis = now;
+        return loaded.size();
+    }
+    /**
+     * Gets the current price of a stock in cents.
+     *
+     * @param stockSymbol The symbol of the stock.
+     * @param connect     The database connection, used only when the symbol is not on the board.
+     * @return            The price in cents, or empty if no priced stock has the symbol.
+     * @throws SQLException If the database fallback fails.
+     */
+    static OptionalLong priceCents(String stockSymbol, Connection connect) throws SQLException {
+        if (stockSymbol == null) {
+            return OptionalLong.empty();
+        }
+        Price price = PRICES.get(SymbolDictionary.key(stockSymbol));
+        if (price != null) {
+            hits.incrementAndGet();
+            return OptionalLong.of(price.cents);
+        }
+        misses.incrementAndGet();
+        // The stock may have been defined by another process; check the database before giving up
+        PreparedStatement pstmt = StatementCache.prepare(connect, LOOKUP_SQL);
+        pstmt.setString(1, stockSymbol);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                long value = Money.read(rs, "currentPrice");
+                if (!rs.wasNull()) {
+                    PRICES.putIfAbsent(SymbolDictionary.key(stockSymbol),
+                            new Price(rs.getString("stockSymbol"), value, System.currentTimeMillis()));
+                    return OptionalLong.of(value);
+                }
+            }
+        }
+        return OptionalLong.empty();
+    }
+    /**
+     * Gets the price of a stock in cents if it is on the board, without counting a lookup or querying the database.
+     *
+     * @param stockSymbol The symbol of the stock.
+     * @return            The price in cents, or empty if the symbol is not on the board.
+     */
+    static OptionalLong peekCents(String stockSymbol) {
+        Price price = stockSymbol == null ? null : PRICES.get(SymbolDictionary.key(stockSymbol));
+        return price == null ? OptionalLong.empty() : OptionalLong.of(price.cents);
+    }
+    /**
+     * Records a price in cents that has just been written to the database.
+     *
+     * @param stockSymbol The symbol of the stock, as stored in the database.
+     * @param cents       The new price per share in cents.
+     */
+    static void update(String stockSymbol, long cents) {
+        PRICES.merge(SymbolDictionary.key(stockSymbol), new Price(stockSymbol, cents, System.currentTimeMillis()),
+                (old, fresh) -> new Price(old.symbol, fresh.cents, fresh.updatedAtMillis));
+        updates.incrementAndGet();
+    }
+    /**
+     * Gets the number of prices on the board.
+     *
+     * @return The number of symbols priced.
+     */
+    static int size() {
+        return PRICES.size();
+    }
+    /**
+     * Gets the number of lookups served from the board.
+     *
+     * @return The hit count.
+     */
+    static long getHitCount() {
+        return hits.get();
+    }
+    /**
+     * Gets the number of lookups that had to query the database.
+     *
+     * @return The miss count.
+     */
+    static long getMissCount() {
+        return misses.get();
+    }
+    /**
+     * Gets the fraction of lookups served from the board.
+     *
+     * @return The hit ratio, or 0 before the first lookup.
+     */
+    static double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+    /**
+     * Gets the number of write-through price updates since startup.
+     *
+     * @return The update count.
+     */
+    static long getUpdateCount() {
+        return updates.get();
+    }
+    /**
+     * Gets how long ago the oldest price on the board was loaded or updated.
+     * A large value means some prices have not been refreshed since startup.
+     *
+     * @return The age of the oldest price in milliseconds, or 0 for an empty board.
+     */
+    static long getMaxAgeMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Price price : PRICES.values()) {
+            oldest = Math.min(oldest, price.updatedAtMillis);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+    /**
+     * Gets how long ago the board was last loaded in full.
+     *
+     * @return The time since the last load in milliseconds.
+     */
+    static long getMillisSinceLoad() {
+        return System.currentTimeMillis() - loadedAtMillis;
+    }
+
+    private static class Price {
+        final String symbol;
+        final long cents;
+        final long updatedAtMillis;
+
+        Price(String symbol, long cents, long updatedAtMillis) {
+            this.symbol = symbol;
+            this.cents = cents;
+            this.updatedAtMillis = updatedAtMillis;
+        }
+    }
+}
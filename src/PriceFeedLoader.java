@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+/**
+ * Reads end-of-day price files of {@code symbol,price} lines and applies them to the stocks table.
+ * The file is memory-mapped and parsed byte by byte: symbols are matched against a byte-keyed copy of the
+ * {@link SymbolDictionary} and prices are parsed straight to cents, so a known symbol costs no allocation.
+ * Prices are collected in an array indexed by stock, which coalesces repeated symbols (the last line wins),
+ * and then written with one JDBC batch in a single transaction.
+ */
+public class PriceFeedLoader {
+    static final String UPDATE_PRICE_SQL = "UPDATE stocks SET currentPrice = ? WHERE stockID = ?";
+    static final long NO_PRICE = -1;
+    // stocks.currentPrice is DECIMAL(10,2); a larger price would fail the whole batch
+    private static final long MAX_CENTS = 99_999_999_99L;
+    /**
+     * Parses a price file.
+     *
+     * @param file    The file to read.
+     * @param connect The database connection, used only for symbols not yet in the dictionary.
+     * @return        The parsed prices and line counts.
+     * @throws IOException  If the file cannot be read.
+     * @throws SQLException If looking up an unknown symbol fails.
+     */
+    static PriceFeed parse(Path file, Connection connect) throws IOException, SQLException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Price file is too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(buffer, connect);
+        }
+    }
+    /**
+     * Parses price lines from a buffer, from its position to its limit.
+     *
+     * @param buffer  The bytes to parse.
+     * @param connect The database connection, used only for symbols not yet in the dictionary.
+     * @return        The parsed prices and line counts.
+     * @throws SQLException If looking up an unknown symbol fails.
+     */
+    static PriceFeed parse(ByteBuffer buffer, Connection connect) throws SQLException {
+        SymbolTable symbols = new SymbolTable();
+        PriceFeed feed = new PriceFeed(SymbolDictionary.size());
+        int limit = buffer.limit();
+        int position = buffer.position();
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd;
+            if (end > position && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            parseLine(buffer, position, end, symbols, feed, connect);
+            position = lineEnd + 1;
+        }
+        return feed;
+    }
+    /**
+     * Collects prices given by symbol into a feed. Symbols that differ only in case are coalesced.
+     *
+     * @param prices  The price per share of each symbol; null and negative prices are skipped.
+     * @param connect The database connection, used only for symbols not yet in the dictionary.
+     * @return        The prices and counts.
+     * @throws SQLException If looking up an unknown symbol fails.
+     */
+    static PriceFeed of(Map<String, Double> prices, Connection connect) throws SQLException {
+        PriceFeed feed = new PriceFeed(SymbolDictionary.size());
+        for (Map.Entry<String, Double> entry : prices.entrySet()) {
+            feed.lines++;
+            if (entry.getKey() == null || entry.getValue() == null || entry.getValue() < 0) {
+                feed.malformed++;
+                continue;
+            }
+            int index = SymbolDictionary.indexOf(entry.getKey(), connect);
+            if (index < 0) {
+                feed.unknown++;
+                continue;
+            }
+            feed.put(index, Money.of(entry.getValue()));
+        }
+        return feed;
+    }
+    /**
+     * Writes every price in a feed with one JDBC batch in a single transaction, then updates the price board
+     * and records the prices as today's in the price history.
+     *
+     * @param feed      The prices to write.
+     * @param batchSize The number of rows sent per JDBC batch.
+     * @param history   The price history, or null if none is kept.
+     * @param connect   The database connection.
+     * @return          The number of stocks whose price was written.
+     * @throws SQLException If the batch fails; nothing is written in that case.
+     */
+    static int apply(PriceFeed feed, int batchSize, PriceHistory history, Connection connect) throws SQLException {
+        PreparedStatement pstmt = StatementCache.prepare(connect, UPDATE_PRICE_SQL);
+        int written = 0;
+        int pending = 0;
+        try {
+            connect.setAutoCommit(false);
+            for (int index = 0; index < feed.cents.length; index++) {
+                if (feed.cents[index] != NO_PRICE) {
+                    Money.bind(pstmt, 1, feed.cents[index]);
+                    pstmt.setInt(2, SymbolDictionary.stockIdAt(index));
+                    pstmt.addBatch();
+                    written++;
+                    if (++pending == batchSize) {
+                        pstmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+            }
+            connect.commit();
+        } catch (SQLException e) {
+            try {
+                connect.rollback();
+            } catch (SQLException se) {
+                System.out.println("Rollback failed: " + se.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                connect.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.out.println("Failed to reset auto-commit: " + e.getMessage());
+            }
+        }
+        long today = LocalDate.now().toEpochDay();
+        for (int index = 0; index < feed.cents.length; index++) {
+            if (feed.cents[index] != NO_PRICE) {
+                String symbol = SymbolDictionary.symbolAt(index);
+                PriceBoard.update(symbol, feed.cents[index]);
+                ValuationCache.priceChanged(symbol);
+                DivergenceIndex.priceChanged(symbol);
+                if (history != null) {
+                    history.record(SymbolDictionary.stockIdAt(index), today, feed.cents[index]);
+                }
+            }
+        }
+        if (history != null) {
+            history.force();
+        }
+        return written;
+    }
+
+    private static void parseLine(ByteBuffer buffer, int start, int end, SymbolTable symbols,
+                                  PriceFeed feed, Connection connect) throws SQLException {
+        int comma = start;
+        while (comma < end && buffer.get(comma) != ',') {
+            comma++;
+        }
+        int symbolStart = skipSpaces(buffer, start, comma);
+        int symbolEnd = trimSpaces(buffer, symbolStart, comma);
+        if (symbolStart == symbolEnd && comma == end) {
+            return; // Blank line
+        }
+        feed.lines++;
+        long cents = comma < end ? parseCents(buffer, skipSpaces(buffer, comma + 1, end), trimSpaces(buffer, comma + 1, end)) : NO_PRICE;
+        if (cents == NO_PRICE || symbolStart == symbolEnd) {
+            feed.malformed++;
+            return;
+        }
+        int index = symbols.indexOf(buffer, symbolStart, symbolEnd);
+        if (index < 0) {
+            // Only symbols missing from the dictionary pay for a String and a query
+            byte[] bytes = new byte[symbolEnd - symbolStart];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(symbolStart + i);
+            }
+            index = SymbolDictionary.indexOf(new String(bytes, StandardCharsets.UTF_8), connect);
+            if (index < 0) {
+                feed.unknown++;
+                return;
+            }
+            symbols.add(index);
+        }
+        feed.put(index, cents);
+    }
+
+    // Parses a non-negative decimal such as "12", "12.3" or "12.345" to cents, rounding half up
+    private static long parseCents(ByteBuffer buffer, int start, int end) {
+        long whole = 0;
+        int digits = 0;
+        int i = start;
+        while (i < end && isDigit(buffer.get(i))) {
+            whole = whole * 10 + (buffer.get(i++) - '0');
+            if (whole > MAX_CENTS) {
+                return NO_PRICE;
+            }
+            digits++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            while (i < end && isDigit(buffer.get(i))) {
+                int digit = buffer.get(i++) - '0';
+                if (fractionDigits < Money.SCALE) {
+                    fraction = fraction * 10 + digit;
+                } else if (fractionDigits == Money.SCALE) {
+                    roundUp = digit >= 5;
+                }
+                fractionDigits++;
+                digits++;
+            }
+        }
+        if (i != end || digits == 0) {
+            return NO_PRICE;
+        }
+        for (int d = fractionDigits; d < Money.SCALE; d++) {
+            fraction *= 10;
+        }
+        long cents = whole * Money.ONE + fraction + (roundUp ? 1 : 0);
+        return cents > MAX_CENTS ? NO_PRICE : cents;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int start, int end) {
+        while (start < end && (buffer.get(start) == ' ' || buffer.get(start) == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimSpaces(ByteBuffer buffer, int start, int end) {
+        while (end > start && (buffer.get(end - 1) == ' ' || buffer.get(end - 1) == '\t')) {
+            end--;
+        }
+        return end;
+    }
+    /**
+     * Prices parsed from a feed, indexed by stock, with counts of the lines read.
+     */
+    static class PriceFeed {
+        // Price in cents per stock index, or NO_PRICE
+        long[] cents;
+        int lines;
+        int malformed;
+        int unknown;
+        int duplicates;
+
+        PriceFeed(int stocks) {
+            cents = new long[stocks];
+            Arrays.fill(cents, NO_PRICE);
+        }
+
+        // A later price for the same stock replaces the earlier one
+        void put(int index, long price) {
+            if (index >= cents.length) {
+                int stocks = cents.length;
+                cents = Arrays.copyOf(cents, Math.max(index + 1, SymbolDictionary.size()));
+                Arrays.fill(cents, stocks, cents.length, NO_PRICE);
+            }
+            if (cents[index] != NO_PRICE) {
+                duplicates++;
+            }
+            cents[index] = price;
+        }
+        /**
+         * Gets the number of distinct stocks priced.
+         *
+         * @return The stock count.
+         */
+        int size() {
+            int count = 0;
+            for (long price : cents) {
+                if (price != NO_PRICE) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PriceFeed[lines=%d, stocks=%d, duplicates=%d, unknown=%d, malformed=%d]",
+                    lines, size(), duplicates, unknown, malformed);
+        }
+    }
+
+    /**
+     * Open-addressing table from upper-cased symbol bytes to stock index, so symbols can be matched
+     * in place in the file buffer. Symbols are upper-cased as ASCII on both sides.
+     */
+    private static class SymbolTable {
+        private byte[][] keys;
+        private int[] indexes;
+        private int size;
+
+        SymbolTable() {
+            int count = SymbolDictionary.size();
+            int capacity = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+            keys = new byte[capacity][];
+            indexes = new int[capacity];
+            for (int index = 0; index < count; index++) {
+                add(index);
+            }
+        }
+
+        void add(int index) {
+            if ((size + 1) * 2 > keys.length) {
+                byte[][] oldKeys = keys;
+                int[] oldIndexes = indexes;
+                keys = new byte[oldKeys.length * 2][];
+                indexes = new int[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldIndexes[i]);
+                    }
+                }
+            }
+            byte[] key = SymbolDictionary.symbolAt(index).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < key.length; i++) {
+                key[i] = upper(key[i]);
+            }
+            insert(key, index);
+        }
+
+        int indexOf(ByteBuffer buffer, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + upper(buffer.get(i));
+            }
+            int mask = keys.length - 1;
+            for (int slot = mix(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (matches(keys[slot], buffer, start, end)) {
+                    return indexes[slot];
+                }
+            }
+            return -1;
+        }
+
+        private void insert(byte[] key, int index) {
+            int hash = 0;
+            for (byte b : key) {
+                hash = 31 * hash + b;
+            }
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (Arrays.equals(keys[slot], key)) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            indexes[slot] = index;
+            size++;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != upper(buffer.get(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte upper(byte b) {
+            return b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+/**
+ * Append-only history of daily prices, one series per stock, stored in memory-mapped columnar files.
+ * Each series keeps its days in {@code prices-<stockID>.days} and its prices in cents in
+ * {@code prices-<stockID>.cents}, entry {@code i} of one matching entry {@code i} of the other.
+ * Days are epoch days in ascending order, so the price on any date is found by binary search over the
+ * mapped days column without reading the prices column or allocating.
+ * Recording a second price for the latest day replaces it; days before the latest cannot be recorded.
+ */
+public class PriceHistory implements AutoCloseable {
+    static final long NO_PRICE = -1;
+    // The days file starts with the entry count, written after the entry so a torn append is ignored
+    private static final int HEADER = 8;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final Pattern SERIES_NAME = Pattern.compile("prices-(\\d+)\\.days");
+
+    private final Path directory;
+    private final ConcurrentHashMap<Integer, Series> series = new ConcurrentHashMap<>();
+    private final Set<Series> unforced = ConcurrentHashMap.newKeySet();
+    /**
+     * Opens the history in the given directory, creating it if needed, and maps every existing series.
+     *
+     * @param directory The directory holding the series files.
+     * @throws IOException If the directory or a series cannot be opened.
+     */
+    public PriceHistory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "prices-*.days")) {
+            for (Path file : files) {
+                Matcher matcher = SERIES_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    int stockId = Integer.parseInt(matcher.group(1));
+                    series.put(stockId, new Series(stockId));
+                }
+            }
+        }
+    }
+    /**
+     * Records a stock's price for a day. Nothing is forced to disk until {@link #force()}.
+     *
+     * @param stockId  The stock's database ID.
+     * @param epochDay The day, as {@link java.time.LocalDate#toEpochDay()}.
+     * @param cents    The price in cents.
+     * @return         False if the day is before the latest day already recorded for the stock.
+     * @throws UncheckedIOException If the series cannot be grown.
+     */
+    public boolean record(int stockId, long epochDay, long cents) {
+        Series stock = series.computeIfAbsent(stockId, id -> {
+            try {
+                return new Series(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create price series for stock " + id, e);
+            }
+        });
+        boolean recorded = stock.append(Math.toIntExact(epochDay), cents);
+        if (recorded) {
+            unforced.add(stock);
+        }
+        return recorded;
+    }
+    /**
+     * Gets a stock's price on a day: the price recorded for the latest day on or before it.
+     *
+     * @param stockId  The stock's database ID.
+     * @param epochDay The day, as {@link java.time.LocalDate#toEpochDay()}.
+     * @return         The price in cents, or {@link #NO_PRICE} if nothing was recorded on or before the day.
+     */
+    public long priceAsOf(int stockId, long epochDay) {
+        Series stock = series.get(stockId);
+        return stock == null ? NO_PRICE : stock.priceAsOf(epochDay);
+    }
+    /**
+     * Gets the number of prices recorded for a stock.
+     *
+     * @param stockId The stock's database ID.
+     * @return        The number of days recorded.
+     */
+    public int size(int stockId) {
+        Series stock = series.get(stockId);
+        return stock == null ? 0 : stock.count;
+    }
+    /**
+     * Forces every series recorded since the last force to disk.
+     *
+     * @throws UncheckedIOException If a series cannot be forced.
+     */
+    public void force() {
+        for (Series stock : unforced) {
+            unforced.remove(stock);
+            stock.force();
+        }
+    }
+    /**
+     * Forces outstanding prices to disk.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PriceHistory[dir=%s, stocks=%d]", directory, series.size());
+    }
+
+    private class Series {
+        final int stockId;
+        // Replaced, never modified, when the files grow; count is written after the entry and the mapping
+        volatile Mapping mapping;
+        volatile int count;
+
+        Series(int stockId) throws IOException {
+            this.stockId = stockId;
+            Path days = directory.resolve("prices-" + stockId + ".days");
+            int capacity = INITIAL_CAPACITY;
+            if (Files.exists(days)) {
+                capacity = Math.max(capacity, (int) ((Files.size(days) - HEADER) / Integer.BYTES));
+            }
+            mapping = map(capacity);
+            count = (int) Math.min(mapping.days.getLong(0), capacity);
+        }
+
+        synchronized boolean append(int epochDay, long cents) {
+            int n = count;
+            Mapping current = mapping;
+            if (n > 0) {
+                int last = current.days.getInt(HEADER + (n - 1) * Integer.BYTES);
+                if (epochDay < last) {
+                    return false;
+                }
+                if (epochDay == last) {
+                    current.cents.putLong((n - 1) * Long.BYTES, cents);
+                    return true;
+                }
+            }
+            if (n == current.capacity) {
+                try {
+                    current = map(current.capacity * 2);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to grow price series for stock " + stockId, e);
+                }
+                mapping = current;
+            }
+            current.cents.putLong(n * Long.BYTES, cents);
+            current.days.putInt(HEADER + n * Integer.BYTES, epochDay);
+            current.days.putLong(0, n + 1);
+            count = n + 1;
+            return true;
+        }
+
+        long priceAsOf(long epochDay) {
+            // Read count before mapping, so the mapping always covers count entries
+            int n = count;
+            Mapping current = mapping;
+            int low = 0;
+            int high = n - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (current.days.getInt(HEADER + mid * Integer.BYTES) <= epochDay) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? NO_PRICE : current.cents.getLong(found * Long.BYTES);
+        }
+
+        void force() {
+            Mapping current = mapping;
+            current.cents.force();
+            current.days.force();
+        }
+
+        // The channels are closed once mapped; the mappings stay valid, and a series holds no file descriptors
+        private Mapping map(int capacity) throws IOException {
+            try (FileChannel days = FileChannel.open(directory.resolve("prices-" + stockId + ".days"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel cents = FileChannel.open(directory.resolve("prices-" + stockId + ".cents"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Mapping(days.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * Integer.BYTES),
+                        cents.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * Long.BYTES), capacity);
+            }
+        }
+    }
+
+    private static class Mapping {
+        final MappedByteBuffer days;
+        final MappedByteBuffer cents;
+        final int capacity;
+
+        Mapping(MappedByteBuffer days, MappedByteBuffer cents, int capacity) {
+            this.days = days;
+            this.cents = cents;
+            this.capacity = capacity;
+        }
+    }
+}
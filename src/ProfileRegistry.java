@@ -0,0 +1,244 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Registry of every sector and every investment profile, loaded once at startup.
+ * Each sector gets a dense ordinal, 0 to {@link #sectorCount()} - 1, that never changes while the process runs,
+ * and each profile's targets are kept as an immutable array of percentages indexed by sector ordinal.
+ * Profiles never change once defined, so a profile is only ever added, when defineProfile succeeds
+ * or when a profile defined by another process is first looked up.
+ */
+public class ProfileRegistry {
+    static final String CASH_SECTOR = "Cash";
+    static final int NO_TARGET = -1;
+    static final String SECTORS_SQL = "SELECT sectorID, name FROM sectors ORDER BY sectorID";
+    static final String PROFILES_SQL = "SELECT p.profileName, s.sectorID, s.name, ps.percentage " +
+            "FROM Profiles p JOIN ProfileSectors ps ON ps.profileID = p.profileID JOIN sectors s ON s.sectorID = ps.sectorID";
+    static final String PROFILE_SQL = PROFILES_SQL + " WHERE p.profileName = ?";
+    static final String PROFILE_NAMES_SQL = "SELECT profileName FROM Profiles";
+
+    private static final ConcurrentHashMap<Integer, Integer> ORDINALS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Profile> PROFILES = new ConcurrentHashMap<>();
+    // Replaced, never modified, when a sector is added; readers use whichever copy they see
+    private static volatile String[] sectorNames = new String[0];
+    private static volatile int cashOrdinal = -1;
+    /**
+     * Adds every sector and profile in the database that is not already registered.
+     *
+     * @param connect The database connection.
+     * @return        The number of profiles registered.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        try (PreparedStatement pstmt = connect.prepareStatement(SECTORS_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                registerSector(rs.getInt("sectorID"), rs.getString("name"));
+            }
+        }
+        try (PreparedStatement pstmt = connect.prepareStatement(PROFILES_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            readProfiles(rs);
+        }
+        return PROFILES.size();
+    }
+    /**
+     * Adds a sector to the registry, or returns its existing ordinal.
+     *
+     * @param sectorId   The sector's database ID.
+     * @param sectorName The sector's name.
+     * @return           The sector's ordinal.
+     */
+    static synchronized int registerSector(int sectorId, String sectorName) {
+        Integer existing = ORDINALS.get(sectorId);
+        if (existing != null) {
+            return existing;
+        }
+        int ordinal = sectorNames.length;
+        String[] grown = Arrays.copyOf(sectorNames, ordinal + 1);
+        grown[ordinal] = sectorName;
+        sectorNames = grown;
+        if (CASH_SECTOR.equals(sectorName) && cashOrdinal < 0) {
+            cashOrdinal = ordinal;
+        }
+        // Publish the ordinal only after the name it points to
+        ORDINALS.put(sectorId, ordinal);
+        return ordinal;
+    }
+    /**
+     * Reads a newly defined profile from the database into the registry.
+     *
+     * @param profileName The profile's name.
+     * @param connect     The database connection.
+     * @return            The profile, or null if it has no sectors in the database.
+     * @throws SQLException If a database access error occurs.
+     */
+    static Profile profileDefined(String profileName, Connection connect) throws SQLException {
+        PreparedStatement pstmt = StatementCache.prepare(connect, PROFILE_SQL);
+        pstmt.setString(1, profileName);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            readProfiles(rs);
+        }
+        return PROFILES.get(profileName);
+    }
+    /**
+     * Gets a registered profile.
+     *
+     * @param profileName The profile's name.
+     * @return            The profile, or null if it is not registered.
+     */
+    static Profile profile(String profileName) {
+        return profileName == null ? null : PROFILES.get(profileName);
+    }
+    /**
+     * Gets a profile, checking the database for profiles defined by another process.
+     *
+     * @param profileName The profile's name.
+     * @param connect     The database connection, used only when the profile is not registered.
+     * @return            The profile, or null if no profile with sectors has the name.
+     * @throws SQLException If the database lookup fails.
+     */
+    static Profile profile(String profileName, Connection connect) throws SQLException {
+        Profile profile = profile(profileName);
+        if (profile != null || profileName == null) {
+            return profile;
+        }
+        return profileDefined(profileName, connect);
+    }
+    /**
+     * Registers every profile in the database that is not registered yet, such as those defined by another process,
+     * so a caller about to stream rows on the connection can then use {@link #profile(String)} alone.
+     *
+     * @param connect The database connection.
+     * @return        The number of profiles registered.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int loadMissing(Connection connect) throws SQLException {
+        List<String> missing = new ArrayList<>();
+        PreparedStatement pstmt = StatementCache.prepare(connect, PROFILE_NAMES_SQL);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String profileName = rs.getString("profileName");
+                if (!PROFILES.containsKey(profileName)) {
+                    missing.add(profileName);
+                }
+            }
+        }
+        int registered = 0;
+        for (String profileName : missing) {
+            if (profileDefined(profileName, connect) != null) {
+                registered++;
+            }
+        }
+        return registered;
+    }
+    /**
+     * Gets a sector's ordinal.
+     *
+     * @param sectorId The sector's database ID.
+     * @return         The ordinal, or -1 if the sector is not registered.
+     */
+    static int ordinalOf(int sectorId) {
+        Integer ordinal = ORDINALS.get(sectorId);
+        return ordinal == null ? -1 : ordinal;
+    }
+    /**
+     * Gets the name of the sector at an ordinal.
+     *
+     * @param ordinal The sector ordinal.
+     * @return        The sector's name.
+     */
+    static String sectorNameAt(int ordinal) {
+        return sectorNames[ordinal];
+    }
+    /**
+     * Gets the ordinal of the "Cash" sector.
+     *
+     * @return The ordinal, or -1 if no Cash sector is registered.
+     */
+    static int cashOrdinal() {
+        return cashOrdinal;
+    }
+    /**
+     * Gets the number of registered sectors; valid ordinals are 0 to sectorCount() - 1.
+     *
+     * @return The sector count.
+     */
+    static int sectorCount() {
+        return sectorNames.length;
+    }
+    /**
+     * Gets the number of registered profiles.
+     *
+     * @return The profile count.
+     */
+    static int size() {
+        return PROFILES.size();
+    }
+
+    // Builds each profile in the result set; a profile already registered is kept as it is
+    private static void readProfiles(ResultSet rs) throws SQLException {
+        Map<String, List<int[]>> rows = new HashMap<>();
+        while (rs.next()) {
+            int ordinal = registerSector(rs.getInt("sectorID"), rs.getString("name"));
+            rows.computeIfAbsent(rs.getString("profileName"), k -> new ArrayList<>())
+                    .add(new int[] {ordinal, rs.getInt("percentage")});
+        }
+        int sectors = sectorCount();
+        for (Map.Entry<String, List<int[]>> entry : rows.entrySet()) {
+            int[] targets = new int[sectors];
+            Arrays.fill(targets, NO_TARGET);
+            for (int[] row : entry.getValue()) {
+                targets[row[0]] = row[1];
+            }
+            PROFILES.putIfAbsent(entry.getKey(), new Profile(entry.getKey(), targets));
+        }
+    }
+
+    /**
+     * A profile's target percentage for each sector, by sector ordinal.
+     */
+    static final class Profile {
+        final String name;
+        private final int[] targets;
+
+        private Profile(String name, int[] targets) {
+            this.name = name;
+            this.targets = targets;
+        }
+
+        /**
+         * Gets the profile's target for a sector.
+         *
+         * @param ordinal The sector ordinal.
+         * @return        The target percentage, or {@link #NO_TARGET} if the profile does not name the sector.
+         */
+        int target(int ordinal) {
+            return ordinal < targets.length ? targets[ordinal] : NO_TARGET;
+        }
+
+        /**
+         * Gets the profile's targets keyed by sector name.
+         *
+         * @return The target percentage of each sector the profile names.
+         */
+        Map<String, Integer> weights() {
+            Map<String, Integer> weights = new LinkedHashMap<>();
+            for (int ordinal = 0; ordinal < targets.length; ordinal++) {
+                if (targets[ordinal] != NO_TARGET) {
+                    weights.put(sectorNameAt(ordinal), targets[ordinal]);
+                }
+            }
+            return Collections.unmodifiableMap(weights);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+/**
+ * Fixed-point share quantity held in a primitive {@code long} of ten-thousandths of a share, matching the
+ * DECIMAL(14,4) sharesOwned column, enough for the fractional shares that dividend reinvestment produces.
+ * Like {@link Money}, the arithmetic is static and allocation-free, and rounding is half away from zero.
+ */
+public final class Quantity {
+    static final int SCALE = 4;
+    static final long ONE = 10_000;
+
+    private Quantity() {
+    }
+    /**
+     * Converts a whole number of shares to units.
+     *
+     * @param shares The number of shares.
+     * @return       The quantity in units.
+     */
+    static long of(int shares) {
+        return shares * ONE;
+    }
+    /**
+     * Converts a decimal number of shares to units, rounding to the nearest unit.
+     *
+     * @param shares The number of shares.
+     * @return       The quantity in units.
+     */
+    static long of(double shares) {
+        return of(BigDecimal.valueOf(shares));
+    }
+    /**
+     * Converts a decimal number of shares to units, rounding to the nearest unit.
+     *
+     * @param shares The number of shares.
+     * @return       The quantity in units, or 0 for null.
+     */
+    static long of(BigDecimal shares) {
+        return shares == null ? 0 : shares.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    /**
+     * Converts units to a double, for APIs that still report quantities as doubles.
+     *
+     * @param units The quantity in units.
+     * @return      The number of shares.
+     */
+    static double toDouble(long units) {
+        return units / (double) ONE;
+    }
+    /**
+     * Gets the whole shares in a quantity, truncating any fraction.
+     *
+     * @param units The quantity in units.
+     * @return      The number of whole shares.
+     */
+    static long wholeShares(long units) {
+        return units / ONE;
+    }
+    /**
+     * Computes how many shares an amount buys at a price, rounded down to a whole unit, the scale sharesOwned
+     * stores, so the cost never exceeds the amount and the quantity is stored exactly.
+     *
+     * @param amountCents The amount available in cents.
+     * @param priceCents  The price per share in cents; must be positive.
+     * @return            The quantity in units.
+     */
+    static long affordable(long amountCents, long priceCents) {
+        return Math.floorDiv(Math.multiplyExact(amountCents, ONE), priceCents);
+    }
+    /**
+     * Reads a DECIMAL column as units. A NULL reads as 0; use {@link ResultSet#wasNull()} to tell them apart.
+     *
+     * @param rs     The result set, positioned on a row.
+     * @param column The column label.
+     * @return       The quantity in units.
+     * @throws SQLException If the column cannot be read.
+     */
+    static long read(ResultSet rs, String column) throws SQLException {
+        return of(rs.getBigDecimal(column));
+    }
+    /**
+     * Binds units to a DECIMAL parameter exactly.
+     *
+     * @param pstmt The statement.
+     * @param index The parameter index.
+     * @param units The quantity in units.
+     * @throws SQLException If the parameter cannot be set.
+     */
+    static void bind(PreparedStatement pstmt, int index, long units) throws SQLException {
+        pstmt.setBigDecimal(index, BigDecimal.valueOf(units, SCALE));
+    }
+}
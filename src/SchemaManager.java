@@ -0,0 +1,158 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+/**
+ * Applies the numbered schema migrations once at startup and records the applied version,
+ * so the API methods can assume every table and column already exists.
+ */
+public class SchemaManager {
+    // Each entry is one migration; its version is its position in the array plus one.
+    // Never edit or reorder an applied migration, only append new ones.
+    private static final String[][] MIGRATIONS = {
+            // 1: core reference and account tables
+            {
+                    "CREATE TABLE IF NOT EXISTS sectors (sectorID INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255) NOT NULL UNIQUE);",
+                    "CREATE TABLE IF NOT EXISTS stocks (stockID INT AUTO_INCREMENT PRIMARY KEY, companyName VARCHAR(255), stockSymbol VARCHAR(50) UNIQUE NOT NULL, sectorID INT, currentPrice DECIMAL(10,2), FOREIGN KEY (sectorID) REFERENCES sectors(sectorID));",
+                    "CREATE TABLE IF NOT EXISTS Profiles (profileID INT AUTO_INCREMENT PRIMARY KEY,profileName VARCHAR(255) UNIQUE NOT NULL);",
+                    "CREATE TABLE IF NOT EXISTS ProfileSectors (profileID INT, sectorID INT, percentage INT, PRIMARY KEY (profileID, sectorID), FOREIGN KEY (profileID) REFERENCES Profiles(profileID), FOREIGN KEY (sectorID) REFERENCES sectors(sectorID));",
+                    "CREATE TABLE IF NOT EXISTS Advisors (advisorID INT AUTO_INCREMENT PRIMARY KEY,advisorName VARCHAR(255) NOT NULL UNIQUE);",
+                    "CREATE TABLE IF NOT EXISTS Clients (clientID INT AUTO_INCREMENT PRIMARY KEY,clientName VARCHAR(255) NOT NULL UNIQUE);",
+                    "CREATE TABLE IF NOT EXISTS Accounts (accountID INT AUTO_INCREMENT PRIMARY KEY, clientID INT,advisorID INT, accountName VARCHAR(255),profileType VARCHAR(255) NOT NULL,reinvest BOOLEAN, FOREIGN KEY (clientID) REFERENCES Clients(clientID),FOREIGN KEY (advisorID) REFERENCES Advisors(advisorID));",
+                    "CREATE TABLE IF NOT EXISTS AccountStocks (accountID INT, stockSymbol VARCHAR(50),sharesOwned DECIMAL(10,2) DEFAULT 0, PRIMARY KEY (accountID, stockSymbol), FOREIGN KEY (accountID) REFERENCES Accounts(accountID), FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));"
+            },
+            // 2: trading columns added after the first release
+            {
+                    "ALTER TABLE stocks ADD COLUMN IF NOT EXISTS currentPrice DECIMAL(10, 2);",
+                    "ALTER TABLE Accounts ADD COLUMN IF NOT EXISTS cashBalance DECIMAL(10, 2) DEFAULT 0;",
+                    "ALTER TABLE AccountStocks ADD COLUMN IF NOT EXISTS acb DECIMAL(10, 2) DEFAULT 0;"
+            },
+            // 3: firm dividend bookkeeping
+            {
+                    "CREATE TABLE IF NOT EXISTS AccountFractionalShares (stockSymbol VARCHAR(50),fractionalShares DECIMAL(10,4),PRIMARY KEY (stockSymbol),FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));",
+                    "CREATE TABLE IF NOT EXISTS Dividends (firm_id INT AUTO_INCREMENT PRIMARY KEY,  stockId INT,shareOwned DECIMAL(10, 4),  FOREIGN KEY (stockId) REFERENCES stocks(stockID));"
+            },
+            // 4: last trade journal record applied, committed together with the trades themselves
+            {
+                    "CREATE TABLE IF NOT EXISTS TradeJournalCheckpoint (journalName VARCHAR(100) PRIMARY KEY, appliedSequence BIGINT NOT NULL);"
+            },
+            // 5: partitioned dividend runs, with a checkpoint per partition committed together with each chunk paid
+            {
+                    "CREATE TABLE IF NOT EXISTS DividendRuns (runID INT AUTO_INCREMENT PRIMARY KEY, stockSymbol VARCHAR(50) NOT NULL, rateMicros BIGINT NOT NULL, priceCents BIGINT NOT NULL, partitions INT NOT NULL, status VARCHAR(16) NOT NULL, createdAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP, completedAt TIMESTAMP NULL, INDEX (status), FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));",
+                    "CREATE TABLE IF NOT EXISTS DividendRunPartitions (runID INT, partitionNo INT, paidThrough INT NOT NULL, lastAccountID INT NOT NULL, done BOOLEAN NOT NULL DEFAULT FALSE, accounts INT NOT NULL DEFAULT 0, fractionalUnits BIGINT NOT NULL DEFAULT 0, PRIMARY KEY (runID, partitionNo), FOREIGN KEY (runID) REFERENCES DividendRuns(runID));"
+            },
+            // 6: declared dividends, paid by the calendar on their pay date with a checkpoint committed together with each chunk
+            {
+                    "CREATE TABLE IF NOT EXISTS DividendCalendar (dividendID INT AUTO_INCREMENT PRIMARY KEY, stockSymbol VARCHAR(50) NOT NULL, rateMicros BIGINT NOT NULL, recordDate DATE NOT NULL, payDate DATE NOT NULL, status VARCHAR(16) NOT NULL DEFAULT 'DECLARED', priceCents BIGINT NULL, paidThrough INT NOT NULL DEFAULT 0, accounts INT NOT NULL DEFAULT 0, fractionalUnits BIGINT NOT NULL DEFAULT 0, declaredAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP, paidAt TIMESTAMP NULL, INDEX (status, payDate), FOREIGN KEY (stockSymbol) REFERENCES stocks(stockSymbol));"
+            },
+            // 7: the firm's fractional shares per stock, flushed from the in-memory ledger; starts from each stock's latest Dividends row
+            {
+                    "CREATE TABLE IF NOT EXISTS FirmFractionalLedger (stockID INT PRIMARY KEY, heldUnits BIGINT NOT NULL DEFAULT 0, sharesBought BIGINT NOT NULL DEFAULT 0, updatedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, FOREIGN KEY (stockID) REFERENCES stocks(stockID));",
+                    "INSERT IGNORE INTO FirmFractionalLedger (stockID, heldUnits) SELECT d.stockId, ROUND(d.shareOwned * 10000) FROM Dividends d WHERE d.firm_id = (SELECT MAX(latest.firm_id) FROM Dividends latest WHERE latest.stockId = d.stockId);"
+            },
+            // 8: journal records the database rejected on every attempt, skipped by the applier
+            {
+                    "CREATE TABLE IF NOT EXISTS TradeJournalFailures (journalName VARCHAR(100), sequence BIGINT, accountID INT NOT NULL, stockSymbol VARCHAR(50) NOT NULL, sharesExchanged INT NOT NULL, error VARCHAR(1000), failedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (journalName, sequence));"
+            },
+            // 9: shares owned to four decimals, the scale Quantity binds, so reinvested fractions are stored as computed
+            {
+                    "ALTER TABLE AccountStocks MODIFY sharesOwned DECIMAL(14,4) DEFAULT 0;"
+            },
+            // 10: shares each account held on a calendar dividend's record date; dividends already paying are entitled as held now
+            {
+                    "CREATE TABLE IF NOT EXISTS DividendEntitlements (dividendID INT, accountID INT, sharesEntitled DECIMAL(14,4) NOT NULL, PRIMARY KEY (dividendID, accountID), FOREIGN KEY (dividendID) REFERENCES DividendCalendar(dividendID), FOREIGN KEY (accountID) REFERENCES Accounts(accountID));",
+                    "INSERT IGNORE INTO DividendEntitlements (dividendID, accountID, sharesEntitled) SELECT c.dividendID, p.accountID, p.sharesOwned FROM DividendCalendar c JOIN AccountStocks p ON p.stockSymbol = c.stockSymbol WHERE c.status = 'PAYING' AND p.accountID > c.paidThrough AND p.sharesOwned > 0;"
+            },
+            // 11: whether a finished dividend's fractional shares were flushed to FirmFractionalLedger; earlier ones are taken as flushed
+            {
+                    "ALTER TABLE DividendRuns ADD COLUMN IF NOT EXISTS ledgerSettled BOOLEAN NOT NULL DEFAULT FALSE;",
+                    "ALTER TABLE DividendCalendar ADD COLUMN IF NOT EXISTS ledgerSettled BOOLEAN NOT NULL DEFAULT FALSE;",
+                    "UPDATE DividendRuns SET ledgerSettled = TRUE WHERE status = 'COMPLETE';",
+                    "UPDATE DividendCalendar SET ledgerSettled = TRUE WHERE status = 'PAID';"
+            },
+            // 12: the outcome of every journal record not executed, including trades rejected for funds, shares or unknown IDs
+            {
+                    "ALTER TABLE TradeJournalFailures ADD COLUMN IF NOT EXISTS result VARCHAR(32) NOT NULL DEFAULT 'FAILED';"
+            }
+    };
+    // Serialises concurrent startups against the same database
+    private static final String LOCK_NAME = "InvestmentFirm.schema";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    /**
+     * Brings the database schema up to the latest version, applying only migrations not yet recorded.
+     *
+     * @param connect The database connection.
+     * @return        The schema version after migrating.
+     * @throws RuntimeException If the migration lock cannot be taken or a migration fails.
+     */
+    static int migrate(Connection connect) {
+        try (Statement statement = connect.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS SchemaVersion (version INT PRIMARY KEY, appliedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP);");
+            acquireLock(connect);
+            try {
+                int version = currentVersion(connect);
+                for (int next = version + 1; next <= latestVersion(); next++) {
+                    for (String ddl : MIGRATIONS[next - 1]) {
+                        statement.execute(ddl);
+                    }
+                    recordVersion(next, connect);
+                    System.out.println("Applied schema migration " + next);
+                    version = next;
+                }
+                return version;
+            } finally {
+                releaseLock(connect);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Schema migration failed", e);
+        }
+    }
+    /**
+     * Retrieves the highest schema version recorded in the database.
+     *
+     * @param connect The database connection.
+     * @return        The applied schema version, or 0 for an empty database.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int currentVersion(Connection connect) throws SQLException {
+        try (PreparedStatement pstmt = connect.prepareStatement("SELECT COALESCE(MAX(version), 0) AS version FROM SchemaVersion");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt("version") : 0;
+        }
+    }
+    /**
+     * Gets the version the schema is at once every known migration has been applied.
+     *
+     * @return The latest schema version.
+     */
+    static int latestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    private static void recordVersion(int version, Connection connect) throws SQLException {
+        try (PreparedStatement pstmt = connect.prepareStatement("INSERT INTO SchemaVersion (version) VALUES (?)")) {
+            pstmt.setInt(1, version);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void acquireLock(Connection connect) throws SQLException {
+        try (PreparedStatement pstmt = connect.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Could not acquire schema migration lock");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection connect) throws SQLException {
+        try (PreparedStatement pstmt = connect.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        }
+    }
+}
@@ -1,141 +1,196 @@
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class ShareTrader {
 //    static String propertyFilename = "G:/SDC_Project/vedant/src/sample.prop";
 //    static DBConfig config = new DBConfig(propertyFilename);
 //    public static Connection connect = DBConnection.getConnection(config.getDbUrl(), config.getUsername(), config.getPassword());
+    // Locks the account row and, if present, the position row, and reads everything the trade needs in one round-trip.
+    // The price comes from a subquery, which a locking read does not lock, so trades do not serialise on the stock row.
+    static final String LOCK_POSITION_SQL = "SELECT a.cashBalance, p.sharesOwned, p.acb, " +
+            "(SELECT currentPrice FROM stocks WHERE stockSymbol = ?) AS currentPrice " +
+            "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID AND p.stockSymbol = ? " +
+            "WHERE a.accountID = ? FOR UPDATE";
+    // Writes the cash and position rows in a single statement when the position already exists
+    static final String UPDATE_POSITION_SQL = "UPDATE Accounts a JOIN AccountStocks p ON p.accountID = a.accountID " +
+            "SET a.cashBalance = a.cashBalance + ?, p.sharesOwned = ?, p.acb = ? " +
+            "WHERE a.accountID = ? AND p.stockSymbol = ?";
+    static final String INSERT_POSITION_SQL = "INSERT INTO AccountStocks (accountID, stockSymbol, sharesOwned, acb) VALUES (?, ?, ?, ?)";
+    static final String UPDATE_CASH_SQL = "UPDATE Accounts SET cashBalance = cashBalance + ? WHERE accountID = ?";
+    // Price argument meaning "trade at the stock's current price"
+    static final long CURRENT_PRICE = -1;
     /**
-     * Executes a transaction to buy shares for a given account. This method updates the account's stock ownership, average cost basis (ACB), and cash balance accordingly.
+     * Executes a trade at the stock's current price. Positive share counts buy and negative counts sell.
+     * The account existence, stock existence and price checks are folded into the locking read,
+     * so a trade on an existing position costs three round-trips: lock-and-read, write, commit.
      *
-     * @param accountID    The ID of the account making the purchase.
-     * @param stockSymbol  The symbol of the stock to be purchased.
-     * @param sharesToBuy  The number of shares to buy.
-     * @param sharePrice   The price per share.
-     * @param connect      The database connection.
+     * @param accountID       The ID of the account trading.
+     * @param stockSymbol     The symbol of the stock being traded.
+     * @param sharesExchanged The number of shares bought (positive) or sold (negative).
+     * @param connect         The database connection.
+     * @return                The outcome of the trade.
      */
-    static void buyShares(int accountID, String stockSymbol, double sharesToBuy, double sharePrice, Connection connect) {
-
-        double totalCost = sharesToBuy * sharePrice;
-
-        // Begin transaction
+    static TradeResult trade(int accountID, String stockSymbol, int sharesExchanged, Connection connect) {
+        return execute(accountID, stockSymbol, Quantity.of(sharesExchanged), CURRENT_PRICE, connect);
+    }
+    /**
+     * Deposits (positive) or withdraws (negative) cash for an account.
+     *
+     * @param accountID   The ID of the account.
+     * @param amountCents The amount of cash to add, in cents.
+     * @param connect     The database connection.
+     * @return            The outcome of the cash movement.
+     */
+    static TradeResult adjustCash(int accountID, long amountCents, Connection connect) {
         try {
-            connect.setAutoCommit(false);
-
-            if (!ShareManager.hasSufficientCash(accountID, totalCost, connect)) {
-                System.out.println("Insufficient funds.");
-                return;
+            PreparedStatement pstmt = StatementCache.prepare(connect, UPDATE_CASH_SQL);
+            Money.bind(pstmt, 1, amountCents);
+            pstmt.setInt(2, accountID);
+            if (pstmt.executeUpdate() == 0) {
+                return TradeResult.UNKNOWN_ACCOUNT;
             }
-
-            // Fetch the current sharesOwned
-            double currentSharesOwned = ShareManager.getCurrentSharesOwned(accountID, stockSymbol, connect);
-            double currentACB = (currentSharesOwned > 0) ? ShareManager.getCurrentACB(accountID, stockSymbol, connect) : 0;
-
-            // Calculate the new total cost (for all shares) and new ACB
-            double newTotalCost = currentACB * currentSharesOwned + totalCost;
-            double newSharesOwned = currentSharesOwned + sharesToBuy;
-            double newACB = newTotalCost / newSharesOwned; // This now properly accounts for the first purchase
-
-            // Update or insert the shares owned and ACB
-            String updateSharesSQL = "INSERT INTO AccountStocks (accountID, stockSymbol, sharesOwned, acb) VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE sharesOwned = VALUES(sharesOwned), acb = ?";
-            try (PreparedStatement pstmt = connect.prepareStatement(updateSharesSQL)) {
-                pstmt.setInt(1, accountID);
-                pstmt.setString(2, stockSymbol);
-                pstmt.setDouble(3, newSharesOwned);
-                pstmt.setDouble(4, newACB);
-                pstmt.setDouble(5, newACB); // For ON DUPLICATE KEY UPDATE
-                pstmt.executeUpdate();
-            }
-
-            // Update cash balance
-            ShareManager.updateCashBalance(accountID, -totalCost, connect);
-
-            connect.commit();
-
+            ValuationCache.cashChanged(accountID, amountCents);
+            DivergenceIndex.accountChanged(accountID);
+            return TradeResult.EXECUTED;
         } catch (SQLException e) {
-            System.out.println("Transaction failed: " + e.getMessage());
-            try {
-                connect.rollback();
-            } catch (SQLException se) {
-                System.out.println("Rollback failed: " + se.getMessage());
-            }
-        } finally {
-            try {
-                connect.setAutoCommit(true);
-            } catch (SQLException e) {
-                System.out.println("Failed to reset auto-commit: " + e.getMessage());
-            }
+            System.out.println("Error updating cash balance: " + e.getMessage());
+            return TradeResult.FAILED;
         }
     }
+    /**
+     * Executes a transaction to buy shares for a given account. This method updates the account's stock ownership, average cost basis (ACB), and cash balance accordingly.
+     *
+     * @param accountID    The ID of the account making the purchase.
+     * @param stockSymbol  The symbol of the stock to be purchased.
+     * @param sharesToBuy  The number of shares to buy, in {@link Quantity} units.
+     * @param priceCents   The price per share in cents.
+     * @param connect      The database connection.
+     * @return             The outcome of the purchase.
+     */
+    static TradeResult buyShares(int accountID, String stockSymbol, long sharesToBuy, long priceCents, Connection connect) {
+        return execute(accountID, stockSymbol, sharesToBuy, priceCents, connect);
+    }
     /**
      * Executes a transaction to sell shares for a given account. This method updates the account's stock ownership and cash balance accordingly.
      *
      * @param accountID    The ID of the account making the sale.
      * @param stockSymbol  The symbol of the stock to be sold.
-     * @param sharesToSell The number of shares to sell.
-     * @param sharePrice   The price per share.
+     * @param sharesToSell The number of shares to sell, as a negative count.
+     * @param priceCents   The price per share in cents.
      * @param connect      The database connection.
+     * @return             The outcome of the sale.
      */
-    static void sellShares(int accountID, String stockSymbol, int sharesToSell, double sharePrice, Connection connect) {
-        // Calculate total sale value
-        double totalSaleValue = sharesToSell * sharePrice;
-
-        // Start a transaction
+    static TradeResult sellShares(int accountID, String stockSymbol, int sharesToSell, long priceCents, Connection connect) {
+        return execute(accountID, stockSymbol, Quantity.of(sharesToSell), priceCents, connect);
+    }
+    /**
+     * Locks and reads the account and position, computes the new position in Java and writes it back.
+     *
+     * @param accountID    The ID of the account trading.
+     * @param stockSymbol  The symbol of the stock being traded.
+     * @param shares       The quantity bought (positive) or sold (zero or negative), in {@link Quantity} units.
+     * @param priceCents   The price per share in cents, or {@link #CURRENT_PRICE} to use the stock's current price.
+     * @param connect      The database connection.
+     * @return             The outcome of the trade.
+     */
+    private static TradeResult execute(int accountID, String stockSymbol, long shares, long priceCents, Connection connect) {
         try {
-            connect.setAutoCommit(false); // Disable auto-commit for transactional integrity
+            connect.setAutoCommit(false);
 
-            // Check if the account has enough shares to sell
-            if (!ShareManager.hasSufficientShares(accountID, stockSymbol, sharesToSell, connect)) {
-                System.out.println("Insufficient shares to sell.");
-                connect.rollback(); // Rollback the transaction
-                return;
+            long cashBalance;
+            long currentSharesOwned;
+            long currentACB;
+            boolean positionExists;
+            PreparedStatement lockStmt = StatementCache.prepare(connect, LOCK_POSITION_SQL);
+            lockStmt.setString(1, stockSymbol);
+            lockStmt.setString(2, stockSymbol);
+            lockStmt.setInt(3, accountID);
+            try (ResultSet rs = lockStmt.executeQuery()) {
+                if (!rs.next()) {
+                    connect.rollback();
+                    return TradeResult.UNKNOWN_ACCOUNT;
+                }
+                long currentPrice = Money.read(rs, "currentPrice");
+                if (rs.wasNull()) {
+                    connect.rollback();
+                    return TradeResult.UNKNOWN_SYMBOL;
+                }
+                if (priceCents == CURRENT_PRICE) {
+                    priceCents = currentPrice;
+                }
+                cashBalance = Money.read(rs, "cashBalance");
+                currentSharesOwned = Quantity.read(rs, "sharesOwned");
+                positionExists = !rs.wasNull();
+                currentACB = Money.read(rs, "acb");
             }
-            // Fetch the current sharesOwned
-            double currentSharesOwned = ShareManager.getCurrentSharesOwned(accountID, stockSymbol, connect);
-            double currentACB = (currentSharesOwned > 0) ? ShareManager.getCurrentACB(accountID, stockSymbol, connect) : 0;
-
-//            // Calculate the new total cost (for all shares) and new ACB
-//            double newTotalCost = currentACB * currentSharesOwned + totalSaleValue;
-//            double newSharesOwned = currentSharesOwned + sharesToSell;
-//            double newACB = 0;
-//            if (newSharesOwned > 0){
-//                 newACB = newTotalCost / newSharesOwned; // This now properly accounts for the first purchase
-//
-//            }else{
-//                 newACB = 0;
-//            }
 
-
-            // Update the shares owned by subtracting the sold shares
-            String updateSharesSQL = "UPDATE AccountStocks SET sharesOwned = sharesOwned + ?, acb = ? WHERE accountID = ? AND stockSymbol = ?;";
-            try (PreparedStatement pstmt = connect.prepareStatement(updateSharesSQL)) {
-                pstmt.setInt(1, sharesToSell);
-                pstmt.setDouble(2, currentACB);
-                pstmt.setInt(3, accountID);
-                pstmt.setString(4, stockSymbol);
-                int affectedRows = pstmt.executeUpdate();
-                if (affectedRows == 0) {
-                    // If no rows were updated, it means the stockSymbol/accountID combination does not exist
-                    throw new SQLException("No shares updated, possibly due to an invalid stock symbol or account ID.");
+            long newSharesOwned = currentSharesOwned + shares;
+            long cashChange = -Money.times(priceCents, shares);
+            long newACB;
+            if (shares > 0) {
+                long totalCost = -cashChange;
+                if (cashBalance < totalCost) {
+                    System.out.println("Insufficient funds.");
+                    connect.rollback();
+                    return TradeResult.INSUFFICIENT_FUNDS;
+                }
+                // Calculate the new total cost (for all shares) and new ACB
+                long newTotalCost = (currentSharesOwned > 0 ? Money.times(currentACB, currentSharesOwned) : 0) + totalCost;
+                newACB = Money.perUnit(newTotalCost, newSharesOwned);
+            } else {
+                // Check if the account has enough shares to sell; only whole shares held can be sold
+                if (!positionExists || Quantity.wholeShares(currentSharesOwned) * Quantity.ONE < -shares) {
+                    System.out.println("Insufficient shares to sell.");
+                    connect.rollback();
+                    return TradeResult.INSUFFICIENT_SHARES;
                 }
+                // Selling leaves the average cost of the remaining shares unchanged
+                newACB = currentACB;
             }
 
-            // Update the cash balance by adding the sale value
-            ShareManager.updateCashBalance(accountID, -totalSaleValue, connect);
+            if (positionExists) {
+                PreparedStatement pstmt = StatementCache.prepare(connect, UPDATE_POSITION_SQL);
+                Money.bind(pstmt, 1, cashChange);
+                Quantity.bind(pstmt, 2, newSharesOwned);
+                Money.bind(pstmt, 3, newACB);
+                pstmt.setInt(4, accountID);
+                pstmt.setString(5, stockSymbol);
+                pstmt.executeUpdate();
+            } else {
+                // First purchase of this stock: the position row has to be inserted on its own
+                PreparedStatement insertStmt = StatementCache.prepare(connect, INSERT_POSITION_SQL);
+                insertStmt.setInt(1, accountID);
+                insertStmt.setString(2, stockSymbol);
+                Quantity.bind(insertStmt, 3, newSharesOwned);
+                Money.bind(insertStmt, 4, newACB);
+                insertStmt.executeUpdate();
+                PreparedStatement cashStmt = StatementCache.prepare(connect, UPDATE_CASH_SQL);
+                Money.bind(cashStmt, 1, cashChange);
+                cashStmt.setInt(2, accountID);
+                cashStmt.executeUpdate();
+            }
 
-            connect.commit(); // Commit the transaction
-            System.out.println("Sold " + sharesToSell + " shares of " + stockSymbol + " for account ID " + accountID);
+            connect.commit();
+            ValuationCache.tradeCommitted(accountID, cashBalance + cashChange, stockSymbol, newSharesOwned, newACB);
+            HoldingsSnapshot.positionCommitted(accountID, stockSymbol, newSharesOwned);
+            DivergenceIndex.accountChanged(accountID);
+            if (shares < 0) {
+                System.out.println("Sold " + Quantity.wholeShares(shares) + " shares of " + stockSymbol + " for account ID " + accountID);
+            }
+            return TradeResult.EXECUTED;
         } catch (SQLException e) {
             System.out.println("Transaction failed: " + e.getMessage());
             try {
-                connect.rollback(); // Attempt to rollback the transaction on error
+                connect.rollback();
             } catch (SQLException se) {
-                System.out.println("Failed to rollback transaction: " + se.getMessage());
+                System.out.println("Rollback failed: " + se.getMessage());
             }
+            return TradeResult.FAILED;
         } finally {
             try {
-                connect.setAutoCommit(true); // Re-enable auto-commit
+                connect.setAutoCommit(true);
             } catch (SQLException e) {
                 System.out.println("Failed to reset auto-commit: " + e.getMessage());
             }
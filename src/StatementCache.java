@@ -0,0 +1,140 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * Per-connection cache of prepared statements keyed by SQL text, bounded by least-recently-used eviction.
+ * Statements handed out by {@link #prepare(Connection, String)} belong to the cache: callers close their
+ * result sets but never the statement itself.
+ */
+public class StatementCache {
+    static final int DEFAULT_CAPACITY = 64;
+
+    private static final Map<Connection, StatementCache> CACHES = new IdentityHashMap<>();
+    private static final AtomicLong totalHits = new AtomicLong();
+    private static final AtomicLong totalMisses = new AtomicLong();
+    private static final AtomicLong totalEvictions = new AtomicLong();
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    private StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    totalEvictions.incrementAndGet();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    /**
+     * Returns the cached prepared statement for the given SQL on the given connection, preparing it on first use.
+     *
+     * @param connect The database connection.
+     * @param sql     The SQL text of the statement.
+     * @return        A prepared statement owned by the cache; parameters from earlier uses may still be bound.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    static PreparedStatement prepare(Connection connect, String sql) throws SQLException {
+        return forConnection(connect).get(sql);
+    }
+    /**
+     * Closes and forgets every statement cached for the given connection.
+     * Must be called before the physical connection is closed.
+     *
+     * @param connect The database connection.
+     */
+    static void release(Connection connect) {
+        StatementCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.remove(connect);
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+    /**
+     * Gets the number of lookups served from a cache across all connections.
+     *
+     * @return The hit count.
+     */
+    static long getHitCount() {
+        return totalHits.get();
+    }
+    /**
+     * Gets the number of lookups that had to prepare a new statement across all connections.
+     *
+     * @return The miss count.
+     */
+    static long getMissCount() {
+        return totalMisses.get();
+    }
+    /**
+     * Gets the number of statements closed to stay within the per-connection bound.
+     *
+     * @return The eviction count.
+     */
+    static long getEvictionCount() {
+        return totalEvictions.get();
+    }
+    /**
+     * Gets the fraction of lookups served from a cache.
+     *
+     * @return The hit ratio between 0 and 1.
+     */
+    static double getHitRatio() {
+        long hitCount = totalHits.get();
+        long lookups = hitCount + totalMisses.get();
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    private static StatementCache forConnection(Connection connect) {
+        synchronized (CACHES) {
+            return CACHES.computeIfAbsent(connect, c -> new StatementCache(c, DEFAULT_CAPACITY));
+        }
+    }
+
+    private synchronized PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt != null && !pstmt.isClosed()) {
+            hits++;
+            totalHits.incrementAndGet();
+            return pstmt;
+        }
+        misses++;
+        totalMisses.incrementAndGet();
+        pstmt = connection.prepareStatement(sql);
+        statements.put(sql, pstmt);
+        return pstmt;
+    }
+
+    private synchronized void clear() {
+        for (PreparedStatement pstmt : statements.values()) {
+            closeQuietly(pstmt);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            System.out.println("Failed to close cached statement: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StatementCache[size=" + statements.size() + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
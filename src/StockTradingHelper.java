@@ -9,23 +9,19 @@ import java.util.Map;
 
 public class StockTradingHelper {
     /**
-     * Retrieves the stock ID from the database based on the given stock symbol.
+     * Retrieves the stock ID for the given stock symbol from the {@link SymbolDictionary}.
      *
      * @param stockSymbol The symbol of the stock to retrieve the ID for.
-     * @param connect     The database connection.
+     * @param connect     The database connection, used only for symbols not yet in the dictionary.
      * @return            The ID of the stock if found, otherwise -1.
      */
     public static int getStockIdFromSymbol(String stockSymbol, Connection connect) {
         int stockId = -1; // Initialize with a default value
 
         try {
-            String sql = "SELECT stockID FROM stocks WHERE stockSymbol = ?";
-            PreparedStatement pstmt = connect.prepareStatement(sql);
-            pstmt.setString(1, stockSymbol);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                stockId = rs.getInt("stockID");
+            int index = SymbolDictionary.indexOf(stockSymbol, connect);
+            if (index >= 0) {
+                stockId = SymbolDictionary.stockIdAt(index);
             }
         } catch (SQLException e) {
             System.out.println("Database access error: " + e.getMessage());
@@ -43,11 +39,13 @@ public class StockTradingHelper {
     static boolean shouldReinvest(int accountId, Connection connect) {
         boolean reinvest = false;
         String sql = "SELECT reinvest FROM Accounts WHERE accountID = ?;";
-        try (PreparedStatement pstmt = connect.prepareStatement(sql)) {
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(connect, sql);
             pstmt.setInt(1, accountId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                reinvest = rs.getBoolean("reinvest");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    reinvest = rs.getBoolean("reinvest");
+                }
             }
         } catch (SQLException e) {
             System.out.println("Error checking reinvestment preference: " + e.getMessage());
@@ -65,12 +63,13 @@ public class StockTradingHelper {
         int shares = 0;
 
         String sql = "SELECT SUM(sharesOwned) as totalShares FROM AccountStocks WHERE stockSymbol = ?";
-        try (PreparedStatement pstmt = connect.prepareStatement(sql)) {
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(connect, sql);
             pstmt.setString(1, stockSymbol);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                shares = rs.getInt("totalShares");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    shares = rs.getInt("totalShares");
+                }
             }
         } catch (SQLException e) {
             System.out.println("Error fetching firm shares: " + e.getMessage());
@@ -79,29 +78,6 @@ public class StockTradingHelper {
 
         return shares;
     }
-    /**
-     * Retrieves the number of shares owned for a given stock symbol from the Dividends table.
-     *
-     * @param stockSymbol The symbol of the stock for which to retrieve the number of shares owned.
-     * @param connect     The database connection.
-     * @return            The number of shares owned for the specified stock symbol.
-     */
-    static double getSharesOwned(String stockSymbol, Connection connect) {
-        int stockId = getStockIdFromSymbol(stockSymbol, connect);
-        String selectSql = "SELECT shareOwned FROM Dividends WHERE stockId = ?";
-        try (PreparedStatement pstmt = connect.prepareStatement(selectSql)) {
-            pstmt.setInt(1, stockId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("shareOwned");
-                }
-            }
-        } catch (SQLException e) {
-            System.out.println("Error retrieving sharesOwned: " + e.getMessage());
-        }
-        // Return a default value if no record found
-        return 0.0;
-    }
     /**
      * Retrieves a list of all sector names from the 'sectors' table in the database.
      *
@@ -115,8 +91,8 @@ public class StockTradingHelper {
         // Query to fetch all sector names from the 'sectors' table
         String query = "SELECT name FROM sectors";
 
-        try (PreparedStatement pstmt = connect.prepareStatement(query);
-             ResultSet rs = pstmt.executeQuery()) {
+        PreparedStatement pstmt = StatementCache.prepare(connect, query);
+        try (ResultSet rs = pstmt.executeQuery()) {
             while (rs.next()) {
                 String sectorName = rs.getString("name");
                 sectorNames.add(sectorName);
@@ -136,13 +112,14 @@ public class StockTradingHelper {
         // Query to check if the stockSymbol exists in the stocks table
         String query = "SELECT COUNT(*) AS count FROM stocks WHERE stockSymbol = ?";
 
-        try (PreparedStatement pstmt = connect.prepareStatement(query)) {
+        try {
+            PreparedStatement pstmt = StatementCache.prepare(connect, query);
             pstmt.setString(1, stockSymbol);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                int count = rs.getInt("count");
-                return count > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    int count = rs.getInt("count");
+                    return count > 0;
+                }
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -160,15 +137,10 @@ public class StockTradingHelper {
     static Map<String, Integer> getProfileWeights(String profileType, Connection connect) {
         Map<String, Integer> profileWeights = new HashMap<>();
         try {
-            String fetchProfileSql = "SELECT s.name, ps.percentage FROM ProfileSectors ps JOIN sectors s ON ps.sectorID = s.sectorID JOIN Profiles p ON ps.profileID = p.profileID WHERE p.profileName = ?";
-            PreparedStatement pstmt = connect.prepareStatement(fetchProfileSql);
-            pstmt.setString(1, profileType);
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                String sectorName = rs.getString("name");
-                int percentage = rs.getInt("percentage");
-                profileWeights.put(sectorName, percentage);
+            // Profiles never change once defined, so they are read from the registry rather than the database
+            ProfileRegistry.Profile profile = ProfileRegistry.profile(profileType, connect);
+            if (profile != null) {
+                profileWeights.putAll(profile.weights());
             }
         } catch (SQLException e) {
             System.out.println("Error fetching profile weights: " + e.getMessage());
@@ -180,8 +152,8 @@ public class StockTradingHelper {
         int numberOfSectors = 0;
         String query = "SELECT COUNT(*) AS numSectors FROM sectors";
 
-        try (PreparedStatement statement = connection.prepareStatement(query);
-             ResultSet resultSet = statement.executeQuery()) {
+        PreparedStatement statement = StatementCache.prepare(connection, query);
+        try (ResultSet resultSet = statement.executeQuery()) {
             if (resultSet.next()) {
                 numberOfSectors = resultSet.getInt("numSectors");
             }
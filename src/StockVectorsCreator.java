@@ -2,6 +2,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 /**
@@ -48,10 +49,56 @@ public class StockVectorsCreator {
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
-            System.out.println(stockVectors);
-
             return stockVectors;
         }
+    /**
+     * Creates vectors of shares owned by each account, indexed by {@link SymbolDictionary} index
+     * instead of keyed by symbol. Stocks an account does not hold are zero.
+     *
+     * @param connection The database connection.
+     * @return A map where each key represents an account ID and the corresponding value holds shares owned per stock index.
+     * @throws RuntimeException If an error occurs while reading the holdings.
+     */
+    public static Map<Integer, double[]> createIndexedStockVectors(Connection connection) {
+        Map<Integer, double[]> stockVectors = new HashMap<>();
+        String sqlQuery = "SELECT accountID, stockSymbol, sharesOwned FROM AccountStocks";
+        try (PreparedStatement pstmt = connection.prepareStatement(sqlQuery);
+             ResultSet rs = pstmt.executeQuery()) {
+            int width = SymbolDictionary.size();
+            while (rs.next()) {
+                int index = SymbolDictionary.indexOf(rs.getString("stockSymbol"), connection);
+                if (index < 0) {
+                    continue;
+                }
+                if (index >= width) {
+                    // A stock defined by another process since the query started; widen every vector
+                    width = SymbolDictionary.size();
+                    for (Map.Entry<Integer, double[]> entry : stockVectors.entrySet()) {
+                        entry.setValue(Arrays.copyOf(entry.getValue(), width));
+                    }
+                }
+                stockVectors.computeIfAbsent(rs.getInt("accountID"), k -> new double[SymbolDictionary.size()])[index] = rs.getDouble("sharesOwned");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return stockVectors;
+    }
+    /**
+     * Converts a vector indexed by {@link SymbolDictionary} index to one keyed by symbol, in the form returned
+     * by {@link #createStockVectors(Connection)}: every known stock is present, and stocks not held are zero.
+     *
+     * @param indexedVector The shares owned per stock index.
+     * @return A map of stock symbols to shares owned.
+     */
+    public static Map<String, Double> toSymbolVector(double[] indexedVector) {
+        int size = SymbolDictionary.size();
+        Map<String, Double> vector = new HashMap<>(size * 2);
+        for (int index = 0; index < size; index++) {
+            vector.put(SymbolDictionary.symbolAt(index), index < indexedVector.length ? indexedVector[index] : 0.0);
+        }
+        return vector;
+    }
     // Helper method to initialize stock vectors with zeros for all stocks
     /**
      * Initializes stock vectors with zeros for all stocks and accounts.
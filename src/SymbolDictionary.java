@@ -0,0 +1,149 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Dictionary of every stock symbol, loaded once at startup and extended as stocks are defined.
+ * Each symbol gets a dense index, 0 to {@link #size()} - 1, that never changes while the process runs,
+ * so in-memory structures can keep per-stock data in arrays instead of maps keyed by symbol.
+ * The dictionary also maps each symbol to its database stockID.
+ */
+public class SymbolDictionary {
+    static final String LOAD_SQL = "SELECT stockID, stockSymbol FROM stocks ORDER BY stockID";
+    static final String LOOKUP_SQL = "SELECT stockID, stockSymbol FROM stocks WHERE stockSymbol = ?";
+
+    private static final ConcurrentHashMap<String, Integer> INDEXES = new ConcurrentHashMap<>();
+    // Replaced, never modified, when a symbol is added; readers use whichever copy they see
+    private static volatile String[] symbols = new String[0];
+    private static volatile int[] stockIds = new int[0];
+    /**
+     * Adds every stock in the database that is not already in the dictionary, in stockID order.
+     *
+     * @param connect The database connection.
+     * @return        The number of symbols in the dictionary.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        List<String> loaded = new ArrayList<>();
+        try (PreparedStatement pstmt = connect.prepareStatement(LOAD_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt("stockID"));
+                loaded.add(rs.getString("stockSymbol"));
+            }
+        }
+        append(ids, loaded);
+        return size();
+    }
+    /**
+     * Adds a stock to the dictionary, or returns its existing index.
+     *
+     * @param stockId     The stock's database ID.
+     * @param stockSymbol The stock's symbol as stored in the database.
+     * @return            The stock's dense index.
+     */
+    static int register(int stockId, String stockSymbol) {
+        int existing = indexOf(stockSymbol);
+        if (existing >= 0) {
+            return existing;
+        }
+        append(Collections.singletonList(stockId), Collections.singletonList(stockSymbol));
+        return indexOf(stockSymbol);
+    }
+    /**
+     * Normalises a stock symbol for in-memory lookups, matching the database's case-insensitive comparison.
+     *
+     * @param stockSymbol The stock symbol.
+     * @return            The lookup key.
+     */
+    static String key(String stockSymbol) {
+        return stockSymbol.toUpperCase(Locale.ROOT);
+    }
+    /**
+     * Gets the dense index of a symbol.
+     *
+     * @param stockSymbol The stock symbol, in any case.
+     * @return            The index, or -1 if the symbol is not in the dictionary.
+     */
+    static int indexOf(String stockSymbol) {
+        if (stockSymbol == null) {
+            return -1;
+        }
+        Integer index = INDEXES.get(key(stockSymbol));
+        return index == null ? -1 : index;
+    }
+    /**
+     * Gets the dense index of a symbol, checking the database for stocks defined by another process.
+     *
+     * @param stockSymbol The stock symbol, in any case.
+     * @param connect     The database connection, used only when the symbol is not in the dictionary.
+     * @return            The index, or -1 if no stock has the symbol.
+     * @throws SQLException If the database lookup fails.
+     */
+    static int indexOf(String stockSymbol, Connection connect) throws SQLException {
+        int index = indexOf(stockSymbol);
+        if (index >= 0 || stockSymbol == null) {
+            return index;
+        }
+        PreparedStatement pstmt = StatementCache.prepare(connect, LOOKUP_SQL);
+        pstmt.setString(1, stockSymbol);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? register(rs.getInt("stockID"), rs.getString("stockSymbol")) : -1;
+        }
+    }
+    /**
+     * Gets the symbol stored at an index.
+     *
+     * @param index The dense index.
+     * @return      The symbol as stored in the database.
+     */
+    static String symbolAt(int index) {
+        return symbols[index];
+    }
+    /**
+     * Gets the database stockID stored at an index.
+     *
+     * @param index The dense index.
+     * @return      The stock's database ID.
+     */
+    static int stockIdAt(int index) {
+        return stockIds[index];
+    }
+    /**
+     * Gets the number of symbols in the dictionary; valid indexes are 0 to size() - 1.
+     *
+     * @return The dictionary size.
+     */
+    static int size() {
+        return symbols.length;
+    }
+
+    // Grows the arrays once per call, so a full load does not copy them once per stock
+    private static synchronized void append(List<Integer> ids, List<String> added) {
+        String[] grownSymbols = Arrays.copyOf(symbols, symbols.length + added.size());
+        int[] grownIds = Arrays.copyOf(stockIds, stockIds.length + added.size());
+        int size = symbols.length;
+        Map<String, Integer> fresh = new HashMap<>();
+        for (int i = 0; i < added.size(); i++) {
+            String key = key(added.get(i));
+            if (!INDEXES.containsKey(key) && !fresh.containsKey(key)) {
+                grownSymbols[size] = added.get(i);
+                grownIds[size] = ids.get(i);
+                fresh.put(key, size++);
+            }
+        }
+        stockIds = Arrays.copyOf(grownIds, size);
+        symbols = Arrays.copyOf(grownSymbols, size);
+        // Publish the indexes only after the arrays that they point into
+        INDEXES.putAll(fresh);
+    }
+}
@@ -0,0 +1,349 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+/**
+ * Applies large lists of trade orders with set-based lookups and JDBC batches.
+ * Orders are grouped by account; each group of accounts is locked, traded in memory and written back
+ * in one transaction, so a failure only rolls back the chunk it happened in.
+ */
+public class TradeBatchProcessor {
+    // Keeps IN lists well under the server's placeholder limit
+    private static final int MAX_IN_LIST = 1000;
+    static final String UPSERT_POSITION_SQL = "INSERT INTO AccountStocks (accountID, stockSymbol, sharesOwned, acb) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE sharesOwned = VALUES(sharesOwned), acb = VALUES(acb)";
+    static final String SET_CASH_SQL = "UPDATE Accounts SET cashBalance = ? WHERE accountID = ?";
+    /**
+     * Executes every order and reports each one's outcome.
+     * Orders for the same account are applied in the order given.
+     *
+     * @param orders         The orders to execute.
+     * @param batchSize      The number of rows sent per JDBC batch.
+     * @param commitInterval The maximum number of orders per transaction; an account's orders are never split.
+     * @param locks          The account lock stripes held while a chunk's accounts are traded.
+     * @param pool           The pool each chunk leases its connection from, after its stripes are taken.
+     *                       The caller must not hold a lease or an account stripe.
+     * @return               The outcome of each order, at the same index as the order.
+     */
+    static TradeResult[] execute(List<TradeOrder> orders, int batchSize, int commitInterval, AccountLocks locks, ConnectionPool pool) {
+        TradeResult[] results = new TradeResult[orders.size()];
+        if (orders.isEmpty()) {
+            return results;
+        }
+        Map<String, Quote> quotes;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            quotes = loadQuotes(orders, lease.getConnection());
+        } catch (SQLException e) {
+            System.out.println("Error validating stock symbols: " + e.getMessage());
+            Arrays.fill(results, TradeResult.FAILED);
+            return results;
+        }
+
+        // Group order indexes by account, keeping each account's orders in submission order
+        Map<Integer, List<Integer>> ordersByAccount = new LinkedHashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            ordersByAccount.computeIfAbsent(orders.get(i).getAccountID(), k -> new ArrayList<>()).add(i);
+        }
+
+        List<Integer> chunkAccounts = new ArrayList<>();
+        List<Integer> chunkOrders = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> entry : ordersByAccount.entrySet()) {
+            if (!chunkAccounts.isEmpty() && chunkOrders.size() + entry.getValue().size() > commitInterval) {
+                commitChunk(orders, chunkOrders, chunkAccounts, quotes, results, batchSize, locks, pool);
+                chunkAccounts.clear();
+                chunkOrders.clear();
+            }
+            chunkAccounts.add(entry.getKey());
+            chunkOrders.addAll(entry.getValue());
+        }
+        if (!chunkAccounts.isEmpty()) {
+            commitChunk(orders, chunkOrders, chunkAccounts, quotes, results, batchSize, locks, pool);
+        }
+        return results;
+    }
+    /**
+     * Applies the given orders inside the caller's transaction: locks the accounts and their positions,
+     * trades in memory and writes every changed row back with JDBC batches. Nothing is committed.
+     *
+     * @param orders       All orders of the batch.
+     * @param orderIndexes The indexes of the orders to apply, in application order.
+     * @param accountIds   The accounts those orders touch.
+     * @param quotes       Stock prices keyed by {@link SymbolDictionary#key(String)}, as returned by {@link #loadQuotes(List, Connection)}.
+     * @param results      Receives the outcome of each applied order.
+     * @param batchSize    The number of rows sent per JDBC batch.
+     * @param connect      The database connection, with auto-commit disabled.
+     * @return             The accounts written, to pass to {@link #publish(Collection)} once the transaction commits.
+     * @throws SQLException If a database access error occurs.
+     */
+    static Collection<AccountState> apply(List<TradeOrder> orders, List<Integer> orderIndexes, Collection<Integer> accountIds,
+                      Map<String, Quote> quotes, TradeResult[] results, int batchSize, Connection connect) throws SQLException {
+        Map<Integer, AccountState> accounts = lockAccounts(accountIds, connect);
+        for (int index : orderIndexes) {
+            TradeOrder order = orders.get(index);
+            results[index] = applyOrder(order, accounts.get(order.getAccountID()), quotes);
+        }
+        writeBack(accounts.values(), batchSize, connect);
+        return accounts.values();
+    }
+    /**
+     * Copies the committed state of the written accounts into the {@link ValuationCache} and marks them in the {@link DivergenceIndex}.
+     *
+     * @param accounts The accounts returned by {@link #apply(List, List, Collection, Map, TradeResult[], int, Connection)}.
+     */
+    static void publish(Collection<AccountState> accounts) {
+        for (AccountState account : accounts) {
+            boolean changed = account.dirty;
+            if (account.dirty) {
+                ValuationCache.cashCommitted(account.accountId, account.cashBalance);
+            }
+            for (Position position : account.positions.values()) {
+                if (position.dirty) {
+                    ValuationCache.tradeCommitted(account.accountId, account.cashBalance, position.symbol, position.sharesOwned, position.acb);
+                    HoldingsSnapshot.positionCommitted(account.accountId, position.symbol, position.sharesOwned);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                DivergenceIndex.accountChanged(account.accountId);
+            }
+        }
+    }
+    /**
+     * Looks up the current price of every distinct stock the orders reference, in as few queries as possible.
+     *
+     * @param orders  The orders to validate.
+     * @param connect The database connection.
+     * @return        The known stocks keyed by {@link SymbolDictionary#key(String)}; unknown symbols are absent.
+     * @throws SQLException If a database access error occurs.
+     */
+    static Map<String, Quote> loadQuotes(List<TradeOrder> orders, Connection connect) throws SQLException {
+        Set<String> symbols = new HashSet<>();
+        for (TradeOrder order : orders) {
+            if (order.getStockSymbol() != null && !order.isCash()) {
+                symbols.add(order.getStockSymbol());
+            }
+        }
+        Map<String, Quote> quotes = new HashMap<>();
+        List<String> pending = new ArrayList<>(symbols);
+        for (int from = 0; from < pending.size(); from += MAX_IN_LIST) {
+            List<String> slice = pending.subList(from, Math.min(pending.size(), from + MAX_IN_LIST));
+            String sql = "SELECT stockSymbol, currentPrice FROM stocks WHERE stockSymbol IN (" + placeholders(slice.size()) + ")";
+            try (PreparedStatement pstmt = connect.prepareStatement(sql)) {
+                for (int i = 0; i < slice.size(); i++) {
+                    pstmt.setString(i + 1, slice.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String symbol = rs.getString("stockSymbol");
+                        quotes.put(SymbolDictionary.key(symbol), new Quote(symbol, Money.read(rs, "currentPrice")));
+                    }
+                }
+            }
+        }
+        return quotes;
+    }
+
+    // Same order as the single-trade path: the chunk's account stripes first, then a connection
+    private static void commitChunk(List<TradeOrder> orders, List<Integer> orderIndexes, List<Integer> accountIds,
+                                    Map<String, Quote> quotes, TradeResult[] results, int batchSize, AccountLocks locks, ConnectionPool pool) {
+        int[] stripes = locks.lockAll(accountIds);
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            commitChunk(orders, orderIndexes, accountIds, quotes, results, batchSize, lease.getConnection());
+        } finally {
+            locks.unlockAll(stripes);
+        }
+    }
+
+    private static void commitChunk(List<TradeOrder> orders, List<Integer> orderIndexes, List<Integer> accountIds,
+                                    Map<String, Quote> quotes, TradeResult[] results, int batchSize, Connection connect) {
+        try {
+            connect.setAutoCommit(false);
+            Collection<AccountState> written = apply(orders, orderIndexes, accountIds, quotes, results, batchSize, connect);
+            connect.commit();
+            publish(written);
+        } catch (SQLException e) {
+            System.out.println("Trade batch failed for " + accountIds.size() + " accounts: " + e.getMessage());
+            try {
+                connect.rollback();
+            } catch (SQLException se) {
+                System.out.println("Rollback failed: " + se.getMessage());
+            }
+            for (int index : orderIndexes) {
+                results[index] = TradeResult.FAILED;
+            }
+        } finally {
+            try {
+                connect.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.out.println("Failed to reset auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Map<Integer, AccountState> lockAccounts(Collection<Integer> accountIds, Connection connect) throws SQLException {
+        Map<Integer, AccountState> accounts = new HashMap<>();
+        List<Integer> pending = new ArrayList<>(accountIds);
+        for (int from = 0; from < pending.size(); from += MAX_IN_LIST) {
+            List<Integer> slice = pending.subList(from, Math.min(pending.size(), from + MAX_IN_LIST));
+            String sql = "SELECT a.accountID, a.cashBalance, p.stockSymbol, p.sharesOwned, p.acb " +
+                    "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID " +
+                    "WHERE a.accountID IN (" + placeholders(slice.size()) + ") FOR UPDATE";
+            try (PreparedStatement pstmt = connect.prepareStatement(sql)) {
+                for (int i = 0; i < slice.size(); i++) {
+                    pstmt.setInt(i + 1, slice.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        int accountId = rs.getInt("accountID");
+                        AccountState account = accounts.get(accountId);
+                        if (account == null) {
+                            account = new AccountState(accountId, Money.read(rs, "cashBalance"));
+                            accounts.put(accountId, account);
+                        }
+                        String symbol = rs.getString("stockSymbol");
+                        if (symbol != null) {
+                            account.positions.put(SymbolDictionary.key(symbol), new Position(symbol, Quantity.read(rs, "sharesOwned"), Money.read(rs, "acb")));
+                        }
+                    }
+                }
+            }
+        }
+        return accounts;
+    }
+
+    private static TradeResult applyOrder(TradeOrder order, AccountState account, Map<String, Quote> quotes) {
+        if (account == null) {
+            return TradeResult.UNKNOWN_ACCOUNT;
+        }
+        int sharesExchanged = order.getSharesExchanged();
+        if (order.isCash()) {
+            account.cashBalance += sharesExchanged * Money.ONE;
+            account.dirty = true;
+            return TradeResult.EXECUTED;
+        }
+        Quote quote = order.getStockSymbol() == null ? null : quotes.get(SymbolDictionary.key(order.getStockSymbol()));
+        if (quote == null) {
+            return TradeResult.UNKNOWN_SYMBOL;
+        }
+        String positionKey = SymbolDictionary.key(quote.symbol);
+        Position position = account.positions.get(positionKey);
+        long shares = Quantity.of(sharesExchanged);
+        long cashChange = -Money.times(quote.price, shares);
+        if (shares > 0) {
+            long totalCost = -cashChange;
+            if (account.cashBalance < totalCost) {
+                return TradeResult.INSUFFICIENT_FUNDS;
+            }
+            if (position == null) {
+                position = new Position(quote.symbol, 0, 0);
+                account.positions.put(positionKey, position);
+            }
+            long newTotalCost = (position.sharesOwned > 0 ? Money.times(position.acb, position.sharesOwned) : 0) + totalCost;
+            position.sharesOwned += shares;
+            position.acb = Money.perUnit(newTotalCost, position.sharesOwned);
+        } else {
+            if (position == null || Quantity.wholeShares(position.sharesOwned) * Quantity.ONE < -shares) {
+                return TradeResult.INSUFFICIENT_SHARES;
+            }
+            position.sharesOwned += shares;
+        }
+        position.dirty = true;
+        account.cashBalance += cashChange;
+        account.dirty = true;
+        return TradeResult.EXECUTED;
+    }
+
+    private static void writeBack(Collection<AccountState> accounts, int batchSize, Connection connect) throws SQLException {
+        PreparedStatement positionStmt = StatementCache.prepare(connect, UPSERT_POSITION_SQL);
+        PreparedStatement cashStmt = StatementCache.prepare(connect, SET_CASH_SQL);
+        int pendingPositions = 0;
+        int pendingCash = 0;
+        for (AccountState account : accounts) {
+            for (Position position : account.positions.values()) {
+                if (position.dirty) {
+                    positionStmt.setInt(1, account.accountId);
+                    positionStmt.setString(2, position.symbol);
+                    Quantity.bind(positionStmt, 3, position.sharesOwned);
+                    Money.bind(positionStmt, 4, position.acb);
+                    positionStmt.addBatch();
+                    if (++pendingPositions == batchSize) {
+                        positionStmt.executeBatch();
+                        pendingPositions = 0;
+                    }
+                }
+            }
+            if (account.dirty) {
+                Money.bind(cashStmt, 1, account.cashBalance);
+                cashStmt.setInt(2, account.accountId);
+                cashStmt.addBatch();
+                if (++pendingCash == batchSize) {
+                    cashStmt.executeBatch();
+                    pendingCash = 0;
+                }
+            }
+        }
+        if (pendingPositions > 0) {
+            positionStmt.executeBatch();
+        }
+        if (pendingCash > 0) {
+            cashStmt.executeBatch();
+        }
+    }
+
+    static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+    /**
+     * A stock's canonical symbol and current price in cents.
+     */
+    static class Quote {
+        final String symbol;
+        final long price;
+
+        Quote(String symbol, long price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+    }
+
+    /**
+     * An account's cash and positions as read under lock and changed by the batch.
+     */
+    static class AccountState {
+        final int accountId;
+        long cashBalance;
+        boolean dirty;
+        final Map<String, Position> positions = new HashMap<>();
+
+        AccountState(int accountId, long cashBalance) {
+            this.accountId = accountId;
+            this.cashBalance = cashBalance;
+        }
+    }
+
+    private static class Position {
+        final String symbol;
+        long sharesOwned;
+        long acb;
+        boolean dirty;
+
+        Position(String symbol, long sharesOwned, long acb) {
+            this.symbol = symbol;
+            this.sharesOwned = sharesOwned;
+            this.acb = acb;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+/**
+ * Runs trades asynchronously, one task per order, behind a bounded queue.
+ * Orders waiting for a worker and orders being executed both count against the queue capacity;
+ * once it is full, {@link #submit(Supplier)} fails immediately instead of blocking the caller.
+ */
+public class TradeExecutor {
+    private final ExecutorService workers;
+    private final int capacity;
+    private final Semaphore slots;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    /**
+     * Creates an executor that runs each order on a virtual thread where the JVM supports them,
+     * and otherwise on a fixed pool of platform threads.
+     *
+     * @param capacity        The maximum number of orders queued or executing at once.
+     * @param fallbackThreads The number of platform threads used when virtual threads are unavailable.
+     */
+    public TradeExecutor(int capacity, int fallbackThreads) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Trade queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+        this.workers = newWorkers(Math.max(1, fallbackThreads));
+    }
+    /**
+     * Queues a trade for execution.
+     *
+     * @param trade The trade to run; its result completes the returned future.
+     * @return      A future completed with the trade's outcome, or exceptionally if the trade threw.
+     * @throws TradeRejectedException If the queue is full or the executor has been shut down.
+     */
+    public CompletableFuture<TradeResult> submit(Supplier<TradeResult> trade) {
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new TradeRejectedException("Trade queue is full (" + capacity + " orders queued or executing)");
+        }
+        long queuedAt = System.nanoTime();
+        CompletableFuture<TradeResult> future = new CompletableFuture<>();
+        try {
+            workers.execute(() -> run(trade, future, queuedAt));
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            rejected.incrementAndGet();
+            throw new TradeRejectedException("Trade executor is shut down");
+        }
+        submitted.incrementAndGet();
+        return future;
+    }
+    /**
+     * Stops accepting orders. Orders already queued still run.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+    /**
+     * Gets the maximum number of orders queued or executing at once.
+     *
+     * @return The queue capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    /**
+     * Gets the number of accepted orders that have not started executing yet.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return Math.max(0, capacity - slots.availablePermits() - inFlight.get());
+    }
+    /**
+     * Gets the number of orders currently executing.
+     *
+     * @return The in-flight count.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+    /**
+     * Gets the number of orders accepted since the executor was created.
+     *
+     * @return The submitted order count.
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+    /**
+     * Gets the number of orders that have finished, successfully or not.
+     *
+     * @return The completed order count.
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+    /**
+     * Gets the number of orders turned away because the queue was full.
+     *
+     * @return The rejected order count.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    /**
+     * Gets the average time from submission to completion.
+     *
+     * @return The average completion latency in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        long done = completed.get();
+        return done == 0 ? 0.0 : totalLatencyNanos.get() / (done * 1_000_000.0);
+    }
+    /**
+     * Gets the longest time from submission to completion.
+     *
+     * @return The maximum completion latency in milliseconds.
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TradeExecutor[capacity=%d, queued=%d, inFlight=%d, submitted=%d, completed=%d, rejected=%d, avgLatency=%.3fms, maxLatency=%.3fms]",
+                capacity, getQueueDepth(), getInFlightCount(), getSubmittedCount(), getCompletedCount(), getRejectedCount(),
+                getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    private void run(Supplier<TradeResult> trade, CompletableFuture<TradeResult> future, long queuedAt) {
+        inFlight.incrementAndGet();
+        try {
+            future.complete(trade.get());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        } finally {
+            inFlight.decrementAndGet();
+            slots.release();
+            long latency = System.nanoTime() - queuedAt;
+            completed.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    // Virtual threads are looked up reflectively so the code still runs on JVMs older than 21
+    private static ExecutorService newWorkers(int fallbackThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threads = runnable -> {
+                Thread thread = new Thread(runnable, "trade-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(fallbackThreads, threads);
+        }
+    }
+}
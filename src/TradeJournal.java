@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+/**
+ * Append-only journal of trade orders, stored as fixed-size binary records in memory-mapped segment files.
+ * Record {@code n} (numbered from 1) lives in segment {@code (n - 1) / recordsPerSegment}, so any record
+ * can be found without an index. Appending callers that arrive while another caller is forcing the
+ * segment to disk wait for that force and share the next one, so one fsync covers many trades.
+ */
+public class TradeJournal implements AutoCloseable {
+    static final int RECORD_SIZE = 64;
+    static final int MAX_SYMBOL_BYTES = 42;
+    // Record layout: sequence, accountID, sharesExchanged, CRC32 of the other bytes, symbol length, symbol
+    private static final int SEQUENCE = 0;
+    private static final int ACCOUNT = 8;
+    private static final int SHARES = 12;
+    private static final int CHECKSUM = 16;
+    private static final int SYMBOL_LENGTH = 20;
+    private static final int SYMBOL = 22;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("trades-(\\d+)\\.journal");
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    // Guarded by this
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment current;
+    private long lastSequence;
+
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private final Condition forced = forceLock.newCondition();
+    private boolean forcing;
+    private volatile long durableSequence;
+    private final AtomicLong forceCount = new AtomicLong();
+    private final AtomicLong totalForceNanos = new AtomicLong();
+    /**
+     * Opens the journal in the given directory, creating it if needed, and finds the last intact record.
+     * A record torn by a crash ends the journal; it and anything after it are overwritten by new appends.
+     *
+     * @param directory         The directory holding the segment files.
+     * @param recordsPerSegment The number of records in each segment file.
+     * @param appliedSequence   The last sequence already applied to the database; numbering continues after it
+     *                          even when the segments holding it have been deleted.
+     * @throws IOException If the directory or a segment cannot be opened.
+     */
+    public TradeJournal(Path directory, int recordsPerSegment, long appliedSequence) throws IOException {
+        if (recordsPerSegment <= 0 || recordsPerSegment > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("Records per segment out of range: " + recordsPerSegment);
+        }
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "trades-*.journal")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    long index = Long.parseLong(matcher.group(1));
+                    segments.put(index, new Segment(index, file));
+                }
+            }
+        }
+
+        long last = appliedSequence;
+        if (!segments.isEmpty()) {
+            // Only the newest segment can end part-way; older ones were full when the next was started
+            Segment newest = segments.lastEntry().getValue();
+            last = Math.max(appliedSequence, newest.index * recordsPerSegment);
+            while (last + 1 <= (newest.index + 1) * recordsPerSegment && isIntact(newest, last + 1)) {
+                last++;
+            }
+        }
+        lastSequence = last;
+        durableSequence = last;
+        current = segmentFor(last + 1);
+    }
+    /**
+     * Appends an order and waits until it is forced to disk.
+     *
+     * @param order The order to journal.
+     * @return      The order's journal sequence number.
+     * @throws IllegalArgumentException If the order's symbol does not fit in a record.
+     * @throws UncheckedIOException     If the journal cannot be written or forced.
+     */
+    public long append(TradeOrder order) {
+        long sequence = write(order);
+        awaitDurable(sequence);
+        return sequence;
+    }
+    /**
+     * Reads durable records, in sequence order, starting at the given sequence.
+     *
+     * @param fromSequence The first sequence to read.
+     * @param maxRecords   The maximum number of records to return.
+     * @return             The orders read; the first has sequence {@code fromSequence} and the rest follow on.
+     */
+    public List<TradeOrder> read(long fromSequence, int maxRecords) {
+        long upTo = Math.min(durableSequence, fromSequence + maxRecords - 1);
+        List<TradeOrder> orders = new ArrayList<>((int) Math.max(0, upTo - fromSequence + 1));
+        Segment segment = null;
+        for (long sequence = fromSequence; sequence <= upTo; sequence++) {
+            long index = (sequence - 1) / recordsPerSegment;
+            if (segment == null || segment.index != index) {
+                synchronized (this) {
+                    segment = segments.get(index);
+                }
+            }
+            int offset = offsetOf(sequence);
+            byte[] symbol = new byte[segment.buffer.getShort(offset + SYMBOL_LENGTH)];
+            segment.buffer.get(offset + SYMBOL, symbol);
+            orders.add(new TradeOrder(segment.buffer.getInt(offset + ACCOUNT), new String(symbol, StandardCharsets.UTF_8),
+                    segment.buffer.getInt(offset + SHARES)));
+        }
+        return orders;
+    }
+    /**
+     * Waits until a record after the given sequence becomes durable.
+     *
+     * @param sequence The last sequence the caller has seen.
+     * @param timeout  The maximum time to wait.
+     * @param unit     The unit of the timeout.
+     * @return         True if a newer durable record exists.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public boolean awaitRecordsAfter(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        forceLock.lock();
+        try {
+            while (durableSequence <= sequence && remaining > 0) {
+                remaining = forced.awaitNanos(remaining);
+            }
+            return durableSequence > sequence;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+    /**
+     * Deletes segments whose records have all been applied to the database.
+     *
+     * @param appliedSequence The last applied sequence.
+     */
+    public synchronized void release(long appliedSequence) {
+        Iterator<Map.Entry<Long, Segment>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next().getValue();
+            if (segment == current || (segment.index + 1) * recordsPerSegment > appliedSequence) {
+                break;
+            }
+            it.remove();
+            segment.delete();
+        }
+    }
+    /**
+     * Gets the sequence of the last record written, durable or not.
+     *
+     * @return The last written sequence.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    /**
+     * Gets the sequence of the last record known to be on disk.
+     *
+     * @return The last durable sequence.
+     */
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+    /**
+     * Gets the number of times the journal has been forced to disk.
+     *
+     * @return The force count.
+     */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+    /**
+     * Gets the average time a force took.
+     *
+     * @return The average force time in milliseconds.
+     */
+    public double getAverageForceMillis() {
+        long forces = forceCount.get();
+        return forces == 0 ? 0.0 : totalForceNanos.get() / (forces * 1_000_000.0);
+    }
+    /**
+     * Forces outstanding records to disk and closes every segment.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TradeJournal[dir=%s, last=%d, durable=%d, forces=%d, avgForce=%.3fms]",
+                directory, getLastSequence(), getDurableSequence(), getForceCount(), getAverageForceMillis());
+    }
+
+    private synchronized long write(TradeOrder order) {
+        byte[] symbol = order.getStockSymbol() == null ? null : order.getStockSymbol().getBytes(StandardCharsets.UTF_8);
+        if (symbol == null || symbol.length > MAX_SYMBOL_BYTES) {
+            throw new IllegalArgumentException("Stock symbol cannot be journaled: " + order.getStockSymbol());
+        }
+        long sequence = lastSequence + 1;
+        if ((sequence - 1) / recordsPerSegment != current.index) {
+            // Make the full segment durable before moving on, so a force of the new segment covers everything before it
+            current.buffer.force();
+            current = segmentFor(sequence);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(SEQUENCE, sequence);
+        record.putInt(ACCOUNT, order.getAccountID());
+        record.putInt(SHARES, order.getSharesExchanged());
+        record.putShort(SYMBOL_LENGTH, (short) symbol.length);
+        record.put(SYMBOL, symbol);
+        record.putInt(CHECKSUM, checksum(record));
+        current.buffer.put(offsetOf(sequence), record.array());
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    // Group commit: one caller forces the segment while the others wait and share the result
+    private void awaitDurable(long sequence) {
+        forceLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                long target = 0;
+                boolean done = false;
+                forceLock.unlock();
+                try {
+                    Segment segment;
+                    synchronized (this) {
+                        target = lastSequence;
+                        segment = current;
+                    }
+                    long start = System.nanoTime();
+                    segment.buffer.force();
+                    forceCount.incrementAndGet();
+                    totalForceNanos.addAndGet(System.nanoTime() - start);
+                    done = true;
+                } finally {
+                    forceLock.lock();
+                    forcing = false;
+                    if (done && target > durableSequence) {
+                        durableSequence = target;
+                    }
+                    forced.signalAll();
+                }
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private Segment segmentFor(long sequence) {
+        long index = (sequence - 1) / recordsPerSegment;
+        Segment segment = segments.get(index);
+        if (segment == null) {
+            try {
+                segment = new Segment(index, directory.resolve(String.format("trades-%012d.journal", index)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create journal segment " + index, e);
+            }
+            segments.put(index, segment);
+        }
+        return segment;
+    }
+
+    private boolean isIntact(Segment segment, long sequence) {
+        int offset = offsetOf(sequence);
+        if (segment.buffer.getLong(offset + SEQUENCE) != sequence) {
+            return false;
+        }
+        short length = segment.buffer.getShort(offset + SYMBOL_LENGTH);
+        if (length < 0 || length > MAX_SYMBOL_BYTES) {
+            return false;
+        }
+        byte[] record = new byte[RECORD_SIZE];
+        segment.buffer.get(offset, record);
+        ByteBuffer copy = ByteBuffer.wrap(record);
+        return copy.getInt(CHECKSUM) == checksum(copy);
+    }
+
+    private int offsetOf(long sequence) {
+        return (int) ((sequence - 1) % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    private static int checksum(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, CHECKSUM);
+        crc.update(record.array(), CHECKSUM + 4, RECORD_SIZE - CHECKSUM - 4);
+        return (int) crc.getValue();
+    }
+
+    private class Segment {
+        final long index;
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, Path file) throws IOException {
+            this.index = index;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close journal segment " + file + ": " + e.getMessage());
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("Failed to delete journal segment " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
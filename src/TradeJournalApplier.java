@@ -0,0 +1,352 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+/**
+ * Background thread that applies journaled trades to AccountStocks and Accounts in batches.
+ * Each batch and the journal checkpoint are committed in the same transaction, so after a crash
+ * the applier resumes exactly after the last committed batch and every journaled trade is applied once.
+ *
+ * While the database is unreachable the applier waits and retries the same batch. A batch the database
+ * rejects is retried a record at a time; a record it rejects on every attempt is written to
+ * TradeJournalFailures as FAILED, and the checkpoint moves past it so later trades are not held up.
+ * A trade that is applied but not executed, such as a purchase without enough cash, is written there
+ * with its {@link TradeResult} in the batch's transaction, so {@link #outcome(long)} can report it.
+ */
+public class TradeJournalApplier implements Runnable {
+    static final String JOURNAL_NAME = "trades";
+    static final String READ_CHECKPOINT_SQL = "SELECT appliedSequence FROM TradeJournalCheckpoint WHERE journalName = ?";
+    static final String WRITE_CHECKPOINT_SQL = "INSERT INTO TradeJournalCheckpoint (journalName, appliedSequence) VALUES (?, ?) " +
+            "ON DUPLICATE KEY UPDATE appliedSequence = VALUES(appliedSequence)";
+    static final String INSERT_FAILED_SQL = "INSERT INTO TradeJournalFailures (journalName, sequence, accountID, stockSymbol, sharesExchanged, result, error) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    static final String OUTCOME_SQL = "SELECT result FROM TradeJournalFailures WHERE journalName = ? AND sequence = ?";
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    // Attempts at a single record the database rejects before it is recorded as FAILED and skipped
+    private static final int MAX_RECORD_ATTEMPTS = 3;
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final TradeJournal journal;
+    private final ConnectionPool pool;
+    private final AccountLocks locks;
+    private final int batchSize;
+    private final int maxOrdersPerCommit;
+    private final Object appliedMonitor = new Object();
+    private volatile long appliedSequence;
+    private volatile boolean running = true;
+    private Thread thread;
+    /**
+     * Creates an applier that starts after the given checkpoint.
+     *
+     * @param journal            The journal to apply.
+     * @param appliedSequence    The last sequence already applied, as read by {@link #readCheckpoint(Connection)}.
+     * @param pool               The pool the applier leases connections from.
+     * @param locks              The account lock stripes shared with the synchronous trade path.
+     * @param batchSize          The number of rows sent per JDBC batch.
+     * @param maxOrdersPerCommit The maximum number of journal records applied per transaction.
+     */
+    public TradeJournalApplier(TradeJournal journal, long appliedSequence, ConnectionPool pool, AccountLocks locks,
+                               int batchSize, int maxOrdersPerCommit) {
+        this.journal = journal;
+        this.appliedSequence = appliedSequence;
+        this.pool = pool;
+        this.locks = locks;
+        this.batchSize = batchSize;
+        this.maxOrdersPerCommit = maxOrdersPerCommit;
+    }
+    /**
+     * Reads the last journal sequence committed to the database.
+     *
+     * @param connect The database connection.
+     * @return        The applied sequence, or 0 if the journal has never been applied.
+     * @throws SQLException If a database access error occurs.
+     */
+    static long readCheckpoint(Connection connect) throws SQLException {
+        PreparedStatement pstmt = StatementCache.prepare(connect, READ_CHECKPOINT_SQL);
+        pstmt.setString(1, JOURNAL_NAME);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong("appliedSequence") : 0;
+        }
+    }
+    /**
+     * Starts applying on a daemon thread. Records journaled before a restart are replayed first.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "trade-journal-applier");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    /**
+     * Stops the applier after the batch in progress.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    /**
+     * Waits until the given journal sequence has been applied to the database, or recorded as FAILED and skipped.
+     * An applied trade may still have been rejected, for example for insufficient funds; read its {@link #outcome(long)}.
+     *
+     * @param sequence      The sequence returned when the trade was journaled.
+     * @param timeoutMillis The maximum time to wait.
+     * @return              True if the sequence has been processed, whatever its outcome.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public boolean awaitApplied(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (appliedMonitor) {
+            while (appliedSequence < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                appliedMonitor.wait(remaining);
+            }
+            return true;
+        }
+    }
+    /**
+     * Gets the outcome of a journaled trade that has been applied.
+     *
+     * @param sequence The sequence returned when the trade was journaled.
+     * @return         The trade's outcome, or null if it has not been applied yet.
+     * @throws SQLException If the outcome cannot be read.
+     */
+    public TradeResult outcome(long sequence) throws SQLException {
+        if (sequence > appliedSequence) {
+            return null;
+        }
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            PreparedStatement pstmt = StatementCache.prepare(lease.getConnection(), OUTCOME_SQL);
+            pstmt.setString(1, JOURNAL_NAME);
+            pstmt.setLong(2, sequence);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? TradeResult.valueOf(rs.getString("result")) : TradeResult.EXECUTED;
+            }
+        }
+    }
+    /**
+     * Gets the last journal sequence applied to the database.
+     *
+     * @return The applied sequence.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+    /**
+     * Gets the number of durable journal records not yet applied to the database.
+     *
+     * @return The apply backlog.
+     */
+    public long getBacklog() {
+        return Math.max(0, journal.getDurableSequence() - appliedSequence);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                List<TradeOrder> orders = journal.read(appliedSequence + 1, maxOrdersPerCommit);
+                if (orders.isEmpty()) {
+                    journal.awaitRecordsAfter(appliedSequence, 1, TimeUnit.SECONDS);
+                    continue;
+                }
+                SQLException failure = applyBatch(orders);
+                if (failure != null && !unavailable(failure)) {
+                    // The database rejected something in the batch; apply it a record at a time to isolate the record
+                    failure = applyEach(orders);
+                }
+                if (failure == null) {
+                    journal.release(appliedSequence);
+                } else {
+                    // The database is unavailable; the records stay in the journal until it returns
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Trade journal applier error: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Applies records one per transaction. A record the database keeps rejecting is recorded as FAILED
+    // and skipped; returns the failure that stopped the run if the database became unavailable.
+    private SQLException applyEach(List<TradeOrder> orders) throws InterruptedException {
+        for (TradeOrder order : orders) {
+            List<TradeOrder> single = Collections.singletonList(order);
+            SQLException failure = null;
+            for (int attempt = 1; attempt <= MAX_RECORD_ATTEMPTS; attempt++) {
+                failure = applyBatch(single);
+                if (failure == null || unavailable(failure)) {
+                    break;
+                }
+                if (attempt < MAX_RECORD_ATTEMPTS) {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            }
+            if (failure != null && unavailable(failure)) {
+                return failure;
+            }
+            if (failure != null) {
+                SQLException markFailure = markFailed(order, failure);
+                if (markFailure != null) {
+                    return markFailure;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Records a rejected record and moves the checkpoint past it, in one transaction
+    private SQLException markFailed(TradeOrder order, SQLException cause) {
+        long sequence = appliedSequence + 1;
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connect = lease.getConnection();
+            try {
+                connect.setAutoCommit(false);
+                PreparedStatement failed = StatementCache.prepare(connect, INSERT_FAILED_SQL);
+                String message = String.valueOf(cause.getMessage());
+                bindOutcome(failed, sequence, order, TradeResult.FAILED,
+                        message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+                failed.executeUpdate();
+                PreparedStatement checkpoint = StatementCache.prepare(connect, WRITE_CHECKPOINT_SQL);
+                checkpoint.setString(1, JOURNAL_NAME);
+                checkpoint.setLong(2, sequence);
+                checkpoint.executeUpdate();
+                connect.commit();
+            } catch (SQLException e) {
+                System.out.println("Recording journal record " + sequence + " as failed did not succeed: " + e.getMessage());
+                try {
+                    connect.rollback();
+                } catch (SQLException se) {
+                    System.out.println("Rollback failed: " + se.getMessage());
+                }
+                return e;
+            } finally {
+                try {
+                    connect.setAutoCommit(true);
+                } catch (SQLException e) {
+                    System.out.println("Failed to reset auto-commit: " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Journal record " + sequence + " " + order + " " + TradeResult.FAILED + " and skipped: " + cause.getMessage());
+        synchronized (appliedMonitor) {
+            appliedSequence = sequence;
+            appliedMonitor.notifyAll();
+        }
+        return null;
+    }
+
+    // Binds a record and its outcome to INSERT_FAILED_SQL
+    private static void bindOutcome(PreparedStatement pstmt, long sequence, TradeOrder order, TradeResult result, String error) throws SQLException {
+        pstmt.setString(1, JOURNAL_NAME);
+        pstmt.setLong(2, sequence);
+        pstmt.setInt(3, order.getAccountID());
+        pstmt.setString(4, order.getStockSymbol());
+        pstmt.setInt(5, order.getSharesExchanged());
+        pstmt.setString(6, result.name());
+        pstmt.setString(7, error);
+    }
+
+    // Whether a failure means the database could not be reached, rather than that it rejected the records
+    private static boolean unavailable(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException || (state != null && state.startsWith("08"));
+    }
+
+    // Applies the records in one transaction; returns the failure, or null once they are committed
+    private SQLException applyBatch(List<TradeOrder> orders) {
+        long firstSequence = appliedSequence + 1;
+        long lastSequence = appliedSequence + orders.size();
+        Set<Integer> accountIds = new LinkedHashSet<>();
+        List<Integer> orderIndexes = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            accountIds.add(orders.get(i).getAccountID());
+            orderIndexes.add(i);
+        }
+        TradeResult[] results = new TradeResult[orders.size()];
+
+        // Same order as the synchronous path: account stripes first, then a connection
+        int[] stripes = locks.lockAll(accountIds);
+        try (ConnectionPool.Lease lease = pool.lease()) {
+            Connection connect = lease.getConnection();
+            try {
+                Map<String, TradeBatchProcessor.Quote> quotes = TradeBatchProcessor.loadQuotes(orders, connect);
+                connect.setAutoCommit(false);
+                Collection<TradeBatchProcessor.AccountState> written =
+                        TradeBatchProcessor.apply(orders, orderIndexes, accountIds, quotes, results, batchSize, connect);
+                // Trades that were not executed are recorded with the checkpoint, so their callers can read why
+                PreparedStatement rejected = null;
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] != TradeResult.EXECUTED) {
+                        if (rejected == null) {
+                            rejected = StatementCache.prepare(connect, INSERT_FAILED_SQL);
+                        }
+                        bindOutcome(rejected, firstSequence + i, orders.get(i), results[i], null);
+                        rejected.addBatch();
+                    }
+                }
+                if (rejected != null) {
+                    rejected.executeBatch();
+                }
+                PreparedStatement checkpoint = StatementCache.prepare(connect, WRITE_CHECKPOINT_SQL);
+                checkpoint.setString(1, JOURNAL_NAME);
+                checkpoint.setLong(2, lastSequence);
+                checkpoint.executeUpdate();
+                connect.commit();
+                TradeBatchProcessor.publish(written);
+            } catch (SQLException e) {
+                System.out.println("Applying journal records " + firstSequence + "-" + lastSequence + " failed: " + e.getMessage());
+                try {
+                    connect.rollback();
+                } catch (SQLException se) {
+                    System.out.println("Rollback failed: " + se.getMessage());
+                }
+                return e;
+            } finally {
+                try {
+                    connect.setAutoCommit(true);
+                } catch (SQLException e) {
+                    System.out.println("Failed to reset auto-commit: " + e.getMessage());
+                }
+            }
+        } finally {
+            locks.unlockAll(stripes);
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != TradeResult.EXECUTED) {
+                System.out.println("Journal record " + (firstSequence + i) + " " + orders.get(i) + " not executed: " + results[i]);
+            }
+        }
+        synchronized (appliedMonitor) {
+            appliedSequence = lastSequence;
+            appliedMonitor.notifyAll();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * A single trade request: the same arguments {@link InvestmentFirm#tradeShares(int, String, int)} takes.
+ */
+public class TradeOrder {
+    private final int accountID;
+    private final String stockSymbol;
+    private final int sharesExchanged;
+    /**
+     * Creates a trade order.
+     *
+     * @param accountID       The ID of the account trading.
+     * @param stockSymbol     The symbol of the stock being traded, or "cash" for a deposit or withdrawal.
+     * @param sharesExchanged The number of shares bought (positive) or sold (negative), or the cash amount.
+     */
+    public TradeOrder(int accountID, String stockSymbol, int sharesExchanged) {
+        this.accountID = accountID;
+        this.stockSymbol = stockSymbol;
+        this.sharesExchanged = sharesExchanged;
+    }
+    /**
+     * Gets the ID of the account trading.
+     *
+     * @return The account ID.
+     */
+    public int getAccountID() {
+        return accountID;
+    }
+    /**
+     * Gets the symbol of the stock being traded.
+     *
+     * @return The stock symbol, or "cash".
+     */
+    public String getStockSymbol() {
+        return stockSymbol;
+    }
+    /**
+     * Gets the number of shares bought (positive) or sold (negative).
+     *
+     * @return The shares exchanged, or the cash amount for a cash order.
+     */
+    public int getSharesExchanged() {
+        return sharesExchanged;
+    }
+    /**
+     * Checks whether this order moves cash rather than shares.
+     *
+     * @return True for a cash deposit or withdrawal.
+     */
+    public boolean isCash() {
+        return "cash".equalsIgnoreCase(stockSymbol);
+    }
+
+    @Override
+    public String toString() {
+        return "TradeOrder[" + accountID + ", " + stockSymbol + ", " + sharesExchanged + "]";
+    }
+}
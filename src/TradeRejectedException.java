@@ -0,0 +1,15 @@
+/**
+ * Thrown when an asynchronous trade cannot be accepted because the trade queue is full.
+ * Callers should back off and resubmit later rather than retry immediately.
+ */
+public class TradeRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Creates the exception with a message describing why the order was turned away.
+     *
+     * @param message The reason for the rejection.
+     */
+    public TradeRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Outcome of a single trade order.
+ */
+public enum TradeResult {
+    /** The trade was applied and committed. */
+    EXECUTED,
+    /** No account exists with the given ID. */
+    UNKNOWN_ACCOUNT,
+    /** No stock exists with the given symbol. */
+    UNKNOWN_SYMBOL,
+    /** The account does not hold enough cash for the purchase. */
+    INSUFFICIENT_FUNDS,
+    /** The account does not hold enough shares for the sale. */
+    INSUFFICIENT_SHARES,
+    /** The trade could not be applied because of a database error. */
+    FAILED
+}
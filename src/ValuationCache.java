@@ -0,0 +1,398 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * In-memory valuation of every account: its cash, each position's quantity and cost basis, and the
+ * market value of each position at the price on the {@link PriceBoard}. Account values and profits are
+ * read in constant time. Trades update the cache after they commit, and a price change is fanned out
+ * through a reverse index from each stock to the accounts that hold it.
+ *
+ * Both a trade and a price fan-out re-read the board price while holding the account's monitor,
+ * so whichever runs last leaves the position valued at the newest price. Every change to a cached
+ * account's value is passed to the {@link AumRollup} as a delta, so the roll-up stays current without
+ * re-reading the database.
+ * An account that cannot be valued from memory, for example because it holds a stock with no price,
+ * is left out of the cache and valued from the database instead.
+ */
+public class ValuationCache {
+    static final String LOAD_SQL = "SELECT a.accountID, a.clientID, a.cashBalance, p.stockSymbol, p.sharesOwned, p.acb " +
+            "FROM Accounts a LEFT JOIN AccountStocks p ON p.accountID = a.accountID";
+
+    private static final ConcurrentHashMap<Integer, CachedAccount> ACCOUNTS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Set<Integer>> CLIENT_ACCOUNTS = new ConcurrentHashMap<>();
+    // Stock index, as assigned by SymbolDictionary, to the accounts holding that stock
+    private static final ConcurrentHashMap<Integer, Set<CachedAccount>> HOLDERS = new ConcurrentHashMap<>();
+    private static final AtomicLong priceTicks = new AtomicLong();
+    private static final AtomicLong fanOutAccounts = new AtomicLong();
+    private static final AtomicLong fanOutNanos = new AtomicLong();
+    private static final AtomicLong maxFanOutNanos = new AtomicLong();
+    /**
+     * Replaces the cache's contents with every account in the database.
+     * The {@link SymbolDictionary} and {@link PriceBoard} must already be loaded.
+     *
+     * @param connect The database connection.
+     * @return        The number of accounts cached.
+     * @throws SQLException If a database access error occurs.
+     */
+    static int load(Connection connect) throws SQLException {
+        Map<Integer, CachedAccount> loaded = new HashMap<>();
+        try (PreparedStatement pstmt = connect.prepareStatement(LOAD_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int accountId = rs.getInt("accountID");
+                    CachedAccount account = loaded.get(accountId);
+                    if (account == null) {
+                        account = new CachedAccount(accountId, rs.getInt("clientID"));
+                        account.cash = Money.read(rs, "cashBalance");
+                        loaded.put(accountId, account);
+                    }
+                    String symbol = rs.getString("stockSymbol");
+                    if (symbol != null) {
+                        account.setPosition(symbol, Quantity.read(rs, "sharesOwned"), Money.read(rs, "acb"));
+                    }
+                }
+            }
+        }
+        ACCOUNTS.clear();
+        CLIENT_ACCOUNTS.clear();
+        HOLDERS.clear();
+        for (CachedAccount account : loaded.values()) {
+            publish(account);
+        }
+        return loaded.size();
+    }
+    /**
+     * Records a newly created account, which starts with no cash and no positions.
+     *
+     * @param accountId The new account's ID.
+     * @param clientId  The account's client.
+     */
+    static void accountCreated(int accountId, int clientId) {
+        if (!ACCOUNTS.containsKey(accountId)) {
+            publish(new CachedAccount(accountId, clientId));
+        }
+    }
+    /**
+     * Adds a committed change to an account's cash balance.
+     *
+     * @param accountId  The account.
+     * @param deltaCents The change in cents.
+     */
+    static void cashChanged(int accountId, long deltaCents) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account != null) {
+            synchronized (account) {
+                account.cash += deltaCents;
+            }
+            AumRollup.adjust(accountId, deltaCents);
+        }
+    }
+    /**
+     * Records an account's committed cash balance.
+     *
+     * @param accountId The account.
+     * @param cashCents The cash balance in cents.
+     */
+    static void cashCommitted(int accountId, long cashCents) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account != null) {
+            long delta;
+            synchronized (account) {
+                delta = cashCents - account.cash;
+                account.cash = cashCents;
+            }
+            AumRollup.adjust(accountId, delta);
+        }
+    }
+    /**
+     * Records an account's committed cash balance and one of its positions after a trade.
+     *
+     * @param accountId   The account.
+     * @param cashCents   The account's cash balance in cents.
+     * @param stockSymbol The stock traded.
+     * @param units       The quantity now held, in {@link Quantity} units.
+     * @param acbCents    The position's average cost basis in cents.
+     */
+    static void tradeCommitted(int accountId, long cashCents, String stockSymbol, long units, long acbCents) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account == null) {
+            return;
+        }
+        // Join the holders before reading the price, so a price change that misses this trade still re-values it
+        int index = SymbolDictionary.indexOf(stockSymbol);
+        if (index >= 0) {
+            HOLDERS.computeIfAbsent(index, k -> ConcurrentHashMap.newKeySet()).add(account);
+        }
+        boolean valued;
+        long delta;
+        synchronized (account) {
+            long before = account.cash + account.marketValue;
+            account.cash = cashCents;
+            valued = account.setPosition(stockSymbol, units, acbCents);
+            delta = account.cash + account.marketValue - before;
+        }
+        if (!valued) {
+            // Its roll-up value is kept as it was until the roll-up is rebuilt
+            ACCOUNTS.remove(accountId, account);
+            return;
+        }
+        AumRollup.adjust(accountId, delta);
+    }
+    /**
+     * Re-values every cached position in a stock at its price on the board, after the price changed,
+     * and applies the change in each holder's value to the {@link AumRollup} in one update.
+     *
+     * @param stockSymbol The stock whose price changed.
+     * @return            The number of accounts re-valued.
+     */
+    static int priceChanged(String stockSymbol) {
+        long start = System.nanoTime();
+        int index = SymbolDictionary.indexOf(stockSymbol);
+        Set<CachedAccount> holders = index < 0 ? null : HOLDERS.get(index);
+        int count = 0;
+        if (holders != null) {
+            int[] accountIds = new int[holders.size()];
+            long[] deltas = new long[accountIds.length];
+            for (CachedAccount account : holders) {
+                long delta;
+                synchronized (account) {
+                    delta = account.revalue(index);
+                }
+                if (ACCOUNTS.get(account.accountId) != account) {
+                    // Dropped from the cache; its roll-up value is kept as it was until the roll-up is rebuilt
+                    continue;
+                }
+                // Accounts that join the holders during the fan-out are valued at the new price by their trade
+                if (count == accountIds.length) {
+                    accountIds = Arrays.copyOf(accountIds, count * 2 + 1);
+                    deltas = Arrays.copyOf(deltas, accountIds.length);
+                }
+                accountIds[count] = account.accountId;
+                deltas[count++] = delta;
+            }
+            AumRollup.adjust(accountIds, deltas, count);
+        }
+        long elapsed = System.nanoTime() - start;
+        priceTicks.incrementAndGet();
+        fanOutAccounts.addAndGet(count);
+        fanOutNanos.addAndGet(elapsed);
+        maxFanOutNanos.accumulateAndGet(elapsed, Math::max);
+        return count;
+    }
+    /**
+     * Gets an account's cash plus the market value of its positions.
+     *
+     * @param accountId The account.
+     * @return          The value in cents, or empty if the account is not cached.
+     */
+    static OptionalLong value(int accountId) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account == null) {
+            return OptionalLong.empty();
+        }
+        synchronized (account) {
+            return OptionalLong.of(account.cash + account.marketValue);
+        }
+    }
+    /**
+     * Gets the unrealised profit of an account's positions: their market value less their cost basis.
+     *
+     * @param accountId The account.
+     * @return          The profit in cents, or empty if the account is not cached.
+     */
+    static OptionalLong profit(int accountId) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account == null) {
+            return OptionalLong.empty();
+        }
+        synchronized (account) {
+            return OptionalLong.of(account.marketValue - account.costBasis);
+        }
+    }
+    /**
+     * Gets a copy of an account's cash and position quantities.
+     *
+     * @param accountId The account.
+     * @return          The holdings, or null if the account is not cached.
+     */
+    static Holdings holdings(int accountId) {
+        CachedAccount account = ACCOUNTS.get(accountId);
+        if (account == null) {
+            return null;
+        }
+        synchronized (account) {
+            Holdings holdings = new Holdings(account.cash, account.positions.size());
+            for (Map.Entry<Integer, CachedPosition> entry : account.positions.entrySet()) {
+                holdings.add(entry.getKey(), entry.getValue().units);
+            }
+            return holdings;
+        }
+    }
+    /**
+     * Gets the accounts of a client known to the cache, including any that are valued from the database.
+     *
+     * @param clientId The client.
+     * @return         The client's account IDs, empty if the cache knows none.
+     */
+    static Set<Integer> clientAccounts(int clientId) {
+        return Collections.unmodifiableSet(CLIENT_ACCOUNTS.getOrDefault(clientId, Collections.emptySet()));
+    }
+    /**
+     * Checks whether an account is cached.
+     *
+     * @param accountId The account.
+     * @return          True if its value and profit can be read from memory.
+     */
+    static boolean contains(int accountId) {
+        return ACCOUNTS.containsKey(accountId);
+    }
+    /**
+     * Gets the number of accounts in the cache.
+     *
+     * @return The account count.
+     */
+    static int size() {
+        return ACCOUNTS.size();
+    }
+    /**
+     * Gets the number of price changes fanned out since startup.
+     *
+     * @return The tick count.
+     */
+    static long getPriceTickCount() {
+        return priceTicks.get();
+    }
+    /**
+     * Gets the average number of accounts re-valued per price change.
+     *
+     * @return The average fan-out, or 0 before the first price change.
+     */
+    static double getAverageFanOut() {
+        long ticks = priceTicks.get();
+        return ticks == 0 ? 0.0 : (double) fanOutAccounts.get() / ticks;
+    }
+    /**
+     * Gets the average time spent fanning out a price change.
+     *
+     * @return The average fan-out time in milliseconds, or 0 before the first price change.
+     */
+    static double getAverageFanOutMillis() {
+        long ticks = priceTicks.get();
+        return ticks == 0 ? 0.0 : fanOutNanos.get() / 1_000_000.0 / ticks;
+    }
+    /**
+     * Gets the longest time spent fanning out a single price change.
+     *
+     * @return The maximum fan-out time in milliseconds.
+     */
+    static double getMaxFanOutMillis() {
+        return maxFanOutNanos.get() / 1_000_000.0;
+    }
+
+    private static void publish(CachedAccount account) {
+        CLIENT_ACCOUNTS.computeIfAbsent(account.clientId, k -> ConcurrentHashMap.newKeySet()).add(account.accountId);
+        if (account.unpriced > 0) {
+            // Valued from the database until the cache is reloaded
+            return;
+        }
+        ACCOUNTS.put(account.accountId, account);
+        for (int index : account.positions.keySet()) {
+            HOLDERS.computeIfAbsent(index, k -> ConcurrentHashMap.newKeySet()).add(account);
+        }
+    }
+
+    private static class CachedAccount {
+        final int accountId;
+        final int clientId;
+        // Keyed by stock index; every field below is guarded by the account's monitor
+        final Map<Integer, CachedPosition> positions = new HashMap<>();
+        long cash;
+        long marketValue;
+        long costBasis;
+        int unpriced;
+
+        CachedAccount(int accountId, int clientId) {
+            this.accountId = accountId;
+            this.clientId = clientId;
+        }
+
+        // Returns false if the position cannot be valued from memory
+        boolean setPosition(String stockSymbol, long units, long acbCents) {
+            int index = SymbolDictionary.indexOf(stockSymbol);
+            OptionalLong price = PriceBoard.peekCents(stockSymbol);
+            if (index < 0 || !price.isPresent()) {
+                unpriced++;
+                return false;
+            }
+            CachedPosition position = positions.get(index);
+            if (position == null) {
+                position = new CachedPosition();
+                positions.put(index, position);
+            }
+            costBasis -= position.cost;
+            position.units = units;
+            position.cost = Money.times(acbCents, units);
+            costBasis += position.cost;
+            setValue(position, Money.times(price.getAsLong(), units));
+            return true;
+        }
+
+        // Returns the change in the account's market value
+        long revalue(int index) {
+            CachedPosition position = positions.get(index);
+            OptionalLong price = PriceBoard.peekCents(SymbolDictionary.symbolAt(index));
+            if (position == null || !price.isPresent()) {
+                return 0;
+            }
+            return setValue(position, Money.times(price.getAsLong(), position.units));
+        }
+
+        private long setValue(CachedPosition position, long value) {
+            long delta = value - position.value;
+            marketValue += delta;
+            position.value = value;
+            return delta;
+        }
+    }
+
+    /**
+     * An account's cash and the quantity held of each stock, by stock index.
+     */
+    static class Holdings {
+        final long cash;
+        int[] stockIndexes;
+        long[] units;
+        int size;
+
+        Holdings(long cash, int positions) {
+            this.cash = cash;
+            this.stockIndexes = new int[Math.max(positions, 4)];
+            this.units = new long[stockIndexes.length];
+        }
+
+        void add(int stockIndex, long quantity) {
+            if (size == stockIndexes.length) {
+                stockIndexes = Arrays.copyOf(stockIndexes, size * 2);
+                units = Arrays.copyOf(units, size * 2);
+            }
+            stockIndexes[size] = stockIndex;
+            units[size++] = quantity;
+        }
+    }
+
+    private static class CachedPosition {
+        long units;
+        long cost;
+        long value;
+    }
+}